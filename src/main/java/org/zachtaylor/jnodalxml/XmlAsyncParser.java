@@ -0,0 +1,174 @@
+package org.zachtaylor.jnodalxml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Parses a document pushed in fragments, such as reads from a non-blocking channel.
+ * Fragments may split the input anywhere, including inside a name, a quoted value, a
+ * comment or a multi-byte character. Events are delivered, or top-level nodes made
+ * available, as soon as the input completing them has been fed.
+ */
+public class XmlAsyncParser {
+  /**
+   * Constructor for an XmlAsyncParser that builds nodes from UTF-8 input, available from {@link #poll()}
+   */
+  public XmlAsyncParser() {
+    this(Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Constructor for an XmlAsyncParser that builds nodes, available from {@link #poll()}
+   * 
+   * @param charset Encoding of the bytes given to {@link #feed(ByteBuffer)}
+   */
+  public XmlAsyncParser(Charset charset) {
+    this(null, charset);
+  }
+
+  /**
+   * Constructor for an XmlAsyncParser that delivers events for UTF-8 input
+   * 
+   * @param handler Receives the events
+   */
+  public XmlAsyncParser(XmlHandler handler) {
+    this(handler, Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Constructor for an XmlAsyncParser that delivers events
+   * 
+   * @param handler Receives the events, or null to build nodes
+   * @param charset Encoding of the bytes given to {@link #feed(ByteBuffer)}
+   */
+  public XmlAsyncParser(XmlHandler handler, Charset charset) {
+    if (handler == null) {
+      handler = new XmlTreeBuilder(null, completed);
+    }
+
+    events = new XmlEventParser(handler);
+    decoder = charset.newDecoder();
+  }
+
+  /**
+   * Setter for limits on the document, checked as fragments are fed, so that a peer
+   * cannot make the parser hold an unbounded amount of input
+   * 
+   * @param limits The limits, or null for none
+   * @return This parser
+   */
+  public XmlAsyncParser setLimits(XmlLimits limits) {
+    tokenizer.setLimits(limits);
+    events.setLimits(limits);
+    return this;
+  }
+
+  /**
+   * Parses as much of a fragment as possible. All of the bytes are consumed; the
+   * start of a character split across fragments is held until the rest of it is fed.
+   * 
+   * @param bytes The fragment
+   * @throws XmlException If the input is malformed
+   */
+  public void feed(ByteBuffer bytes) throws XmlException {
+    while (carry.position() > 0 && bytes.hasRemaining()) {
+      carry.put(bytes.get());
+      carry.flip();
+      decode(carry, false);
+      carry.compact();
+    }
+
+    decode(bytes, false);
+
+    if (bytes.hasRemaining()) {
+      carry.put(bytes);
+    }
+  }
+
+  /**
+   * Parses as much of a fragment of already decoded characters as possible
+   * 
+   * @param chars The fragment
+   * @param offset Index of the first character
+   * @param count Number of characters
+   * @throws XmlException If the input is malformed
+   */
+  public void feed(char[] chars, int offset, int count) throws XmlException {
+    tokenizer.feed(chars, offset, count);
+    drain();
+  }
+
+  /**
+   * Signals that no more input will be fed, completing the parse
+   * 
+   * @throws XmlException If the input ended inside a character, tag or element
+   */
+  public void endOfInput() throws XmlException {
+    carry.flip();
+    decode(carry, true);
+    carry.clear();
+
+    if (decoder.flush(chars).isOverflow())
+      throw new XmlException("Cannot flush decoder");
+
+    tokenizer.feed(chars.array(), 0, chars.position());
+    chars.clear();
+
+    tokenizer.finish();
+    drain();
+    events.end();
+  }
+
+  /**
+   * Takes the next completed top-level node, when building nodes
+   * 
+   * @return The node, or null if no top-level node has been completed since the last poll
+   */
+  public XmlNode poll() {
+    return completed.poll();
+  }
+
+  /**
+   * Getter for the number of elements currently open, useful for finding message
+   * boundaries in a stream of documents
+   * 
+   * @return The nesting depth
+   */
+  public int getDepth() {
+    return events.depth();
+  }
+
+  private void decode(ByteBuffer bytes, boolean endOfInput) {
+    while (true) {
+      CoderResult result = decoder.decode(bytes, chars, endOfInput);
+
+      tokenizer.feed(chars.array(), 0, chars.position());
+      chars.clear();
+      drain();
+
+      if (result.isError())
+        throw new XmlException("Malformed input: " + result);
+      if (result.isUnderflow())
+        return;
+    }
+  }
+
+  private void drain() {
+    while (tokenizer.hasNext()) {
+      XmlToken token = tokenizer.next();
+      events.accept(token.getType(), token.getValue());
+    }
+  }
+
+  private final Queue<XmlNode> completed = new ArrayDeque<XmlNode>();
+  private final XmlTokenizer tokenizer = new XmlTokenizer();
+  private final XmlEventParser events;
+  private final CharsetDecoder decoder;
+  private final CharBuffer chars = CharBuffer.allocate(4096);
+  private final ByteBuffer carry = ByteBuffer.allocate(16);
+}
@@ -29,21 +29,80 @@ public class XmlAttribute {
   }
 
   /**
-   * Gets value and calls Integer.parseInt for convenience
+   * Gets value as an int. The value is parsed on the first typed read and the result
+   * is kept, so later reads do no parsing.
    * 
    * @return Value assigned to the attribute as Integer
+   * @throws NumberFormatException If the value is not an int
    */
-  public int getIntValue() {
-    return Integer.parseInt(value);
+  public int getIntValue() throws NumberFormatException {
+    long n = getLongValue();
+
+    if (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE)
+      throw new NumberFormatException("Value out of range for int: " + value);
+
+    return (int) n;
+  }
+
+  /**
+   * Gets value as an int, as {@link #getIntValue()} does
+   * 
+   * @param defaultValue Returned if the value is not an int
+   * @return Value assigned to the attribute as Integer
+   */
+  public int getIntValue(int defaultValue) {
+    if (!parseLong() || longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE)
+      return defaultValue;
+
+    return (int) longValue;
   }
 
   /**
-   * Gets value and calls Double.parseDouble for convenience
+   * Gets value as a long. The value is parsed on the first typed read and the result
+   * is kept, so later reads do no parsing.
    * 
+   * @return Value assigned to the attribute as Long
+   * @throws NumberFormatException If the value is not a long
+   */
+  public long getLongValue() throws NumberFormatException {
+    if (!parseLong())
+      throw new NumberFormatException("For input string: \"" + value + "\"");
+
+    return longValue;
+  }
+
+  /**
+   * Gets value as a long, as {@link #getLongValue()} does
+   * 
+   * @param defaultValue Returned if the value is not a long
+   * @return Value assigned to the attribute as Long
+   */
+  public long getLongValue(long defaultValue) {
+    return parseLong() ? longValue : defaultValue;
+  }
+
+  /**
+   * Gets value as a double. The value is parsed on the first typed read and the result
+   * is kept, so later reads do no parsing.
+   * 
+   * @return Value assigned to the attribute name as Double
+   * @throws NumberFormatException If the value is not a number
+   */
+  public double getDoubleValue() throws NumberFormatException {
+    if (!parseDouble())
+      throw new NumberFormatException("For input string: \"" + value + "\"");
+
+    return doubleValue;
+  }
+
+  /**
+   * Gets value as a double, as {@link #getDoubleValue()} does
+   * 
+   * @param defaultValue Returned if the value is not a number
    * @return Value assigned to the attribute name as Double
    */
-  public double getDoubleValue() {
-    return Double.parseDouble(value);
+  public double getDoubleValue(double defaultValue) {
+    return parseDouble() ? doubleValue : defaultValue;
   }
 
   /**
@@ -55,12 +114,68 @@ public class XmlAttribute {
     return Boolean.parseBoolean(value);
   }
 
+  /**
+   * Gets value as a boolean, ignoring case
+   * 
+   * @param defaultValue Returned if the value is neither "true" nor "false"
+   * @return Value assigned to the attribute name as Boolean
+   */
+  public boolean getBoolValue(boolean defaultValue) {
+    return XmlNumbers.parseBoolean(value, defaultValue);
+  }
+
+  /**
+   * Gets value as a constant of an enum. The last constant looked up is kept, so
+   * later reads of the same type do no lookup.
+   * 
+   * @param type The enum
+   * @return The constant named by the value
+   * @throws IllegalArgumentException If type has no constant named by the value
+   */
+  public <E extends Enum<E>> E getEnumValue(Class<E> type) throws IllegalArgumentException {
+    Enum<?> cached = enumValue;
+
+    if (cached != null && cached.getDeclaringClass() == type)
+      return type.cast(cached);
+
+    E e = Enum.valueOf(type, value);
+    enumValue = e;
+    return e;
+  }
+
+  /**
+   * Gets value as a constant of an enum, as {@link #getEnumValue(Class)} does
+   * 
+   * @param type The enum
+   * @param defaultValue Returned if type has no constant named by the value
+   * @return The constant named by the value
+   */
+  public <E extends Enum<E>> E getEnumValue(Class<E> type, E defaultValue) {
+    try {
+      return getEnumValue(type);
+    } catch (IllegalArgumentException e) {
+      return defaultValue;
+    }
+  }
+
   public String toString() {
-    return String.format("%s = %s", key, value);
+    return key + " = " + value;
   }
 
   public String printToString() {
-    return String.format("%s=\"%s\"", key, value);
+    return appendTo(new StringBuilder(key.length() + value.length() + 3)).toString();
+  }
+
+  /**
+   * Appends this attribute to sb as it appears in a tag
+   * 
+   * @param sb Destination
+   * @return sb
+   */
+  StringBuilder appendTo(StringBuilder sb) {
+    sb.append(key).append("=\"");
+    XmlEntities.appendAttribute(sb, value);
+    return sb.append('"');
   }
 
   public boolean equals(Object o) {
@@ -73,6 +188,55 @@ public class XmlAttribute {
     return attribute.key.equals(key) && attribute.value.equals(value);
   }
 
+  /**
+   * Parses the value as a long unless that was already tried
+   * 
+   * @return Whether the value is a long, in which case it is in longValue
+   */
+  private boolean parseLong() {
+    int state = parsed;
+
+    if ((state & LONG_PARSED) == 0) {
+      try {
+        longValue = XmlNumbers.parseLong(value, 0, value.length());
+        state |= LONG_VALID;
+      } catch (NumberFormatException e) {
+      }
+
+      // The write of parsed publishes longValue to other threads
+      parsed = state |= LONG_PARSED;
+    }
+
+    return (state & LONG_VALID) != 0;
+  }
+
+  /**
+   * Parses the value as a double unless that was already tried
+   * 
+   * @return Whether the value is a number, in which case it is in doubleValue
+   */
+  private boolean parseDouble() {
+    int state = parsed;
+
+    if ((state & DOUBLE_PARSED) == 0) {
+      try {
+        doubleValue = XmlNumbers.parseDouble(value, 0, value.length());
+        state |= DOUBLE_VALID;
+      } catch (NumberFormatException e) {
+      }
+
+      parsed = state |= DOUBLE_PARSED;
+    }
+
+    return (state & DOUBLE_VALID) != 0;
+  }
+
+  private static final int LONG_PARSED = 1, LONG_VALID = 2, DOUBLE_PARSED = 4, DOUBLE_VALID = 8;
+
   private final String key;
   private final String value;
+  private volatile int parsed;
+  private volatile Enum<?> enumValue;
+  private long longValue;
+  private double doubleValue;
 }
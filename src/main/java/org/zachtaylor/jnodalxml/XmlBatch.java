@@ -0,0 +1,131 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the parses of a batch of files on an executor, holding back submission while
+ * either the concurrency limit or the in-flight byte limit is reached
+ */
+final class XmlBatch {
+  XmlBatch(XmlBatchOptions batchOptions) {
+    options = batchOptions;
+    slots = new Semaphore(options.getMaxConcurrency());
+  }
+
+  /**
+   * Parses every file, returning once all of them are done
+   * 
+   * @param paths The files
+   * @param listener Receives each result as it completes, or null
+   * @param results Receives each result at its submission index, or null
+   * @throws InterruptedException If interrupted while waiting; parses already submitted carry on
+   */
+  void run(Collection<Path> paths, final XmlBatchListener listener, final XmlBatchResult[] results) throws InterruptedException {
+    ExecutorService executor = options.getExecutor();
+    boolean ownExecutor = executor == null;
+
+    if (ownExecutor) {
+      executor = Executors.newFixedThreadPool(options.getMaxConcurrency());
+    }
+
+    final CountDownLatch done = new CountDownLatch(paths.size());
+    int index = 0;
+
+    try {
+      for (final Path path : paths) {
+        final int i = index++;
+        final long bytes = Math.min(size(path), options.getMaxInFlightBytes());
+
+        slots.acquire();
+        acquireBytes(bytes);
+
+        Runnable task = new Runnable() {
+          public void run() {
+            try {
+              complete(parse(path), i, listener, results);
+            } finally {
+              releaseBytes(bytes);
+              slots.release();
+              done.countDown();
+            }
+          }
+        };
+
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          releaseBytes(bytes);
+          slots.release();
+          complete(new XmlBatchResult(path, null, e), i, listener, results);
+          done.countDown();
+        }
+      }
+
+      done.await();
+    } finally {
+      if (ownExecutor) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private XmlBatchResult parse(Path path) {
+    try {
+      Reader reader = Files.newBufferedReader(path, options.getCharset());
+
+      try {
+        return new XmlBatchResult(path, XmlParser.parse(new XmlTokenizer(reader)), null);
+      } finally {
+        reader.close();
+      }
+    } catch (Throwable e) {
+      // Errors too, such as running out of memory on one huge file, so the batch still
+      // hears of every file
+      return new XmlBatchResult(path, null, e);
+    }
+  }
+
+  private static void complete(XmlBatchResult result, int i, XmlBatchListener listener, XmlBatchResult[] results) {
+    if (results != null) {
+      results[i] = result;
+    }
+    if (listener != null) {
+      listener.completed(result);
+    }
+  }
+
+  private static long size(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      // The parse reports the failure
+      return 0;
+    }
+  }
+
+  private synchronized void acquireBytes(long n) throws InterruptedException {
+    while (inFlightBytes > 0 && inFlightBytes + n > options.getMaxInFlightBytes()) {
+      wait();
+    }
+
+    inFlightBytes += n;
+  }
+
+  private synchronized void releaseBytes(long n) {
+    inFlightBytes -= n;
+    notifyAll();
+  }
+
+  private final XmlBatchOptions options;
+  private final Semaphore slots;
+  private long inFlightBytes = 0;
+}
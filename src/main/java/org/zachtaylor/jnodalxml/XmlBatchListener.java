@@ -0,0 +1,14 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Receives each result of a batch parse as soon as it completes. Called from the
+ * threads doing the parsing, so implementations must be thread-safe.
+ */
+public interface XmlBatchListener {
+  /**
+   * Called once for every file of the batch, in the order the parses complete
+   * 
+   * @param result The outcome of parsing one file
+   */
+  void completed(XmlBatchResult result);
+}
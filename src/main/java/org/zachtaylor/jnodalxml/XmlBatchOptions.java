@@ -0,0 +1,105 @@
+package org.zachtaylor.jnodalxml;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Settings for {@link XmlParser#parseAll(java.util.Collection, XmlBatchOptions)}
+ */
+public class XmlBatchOptions {
+  /**
+   * Getter for the executor that parses run on
+   * 
+   * @return The executor, or null if each batch creates and shuts down its own pool
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Setter for the executor that parses run on, such as a pool of platform threads or
+   * a virtual-thread-per-task executor. The executor is not shut down by the batch.
+   * 
+   * @param e The executor, or null to have each batch create its own pool
+   * @return These options
+   */
+  public XmlBatchOptions setExecutor(ExecutorService e) {
+    executor = e;
+    return this;
+  }
+
+  /**
+   * Getter for the most files parsed at once
+   * 
+   * @return The concurrency limit
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Setter for the most files parsed at once, by default the number of processors
+   * 
+   * @param n The concurrency limit
+   * @return These options
+   * @throws XmlException If n is less than 1
+   */
+  public XmlBatchOptions setMaxConcurrency(int n) throws XmlException {
+    if (n < 1)
+      throw new XmlException("Concurrency must be at least 1");
+
+    maxConcurrency = n;
+    return this;
+  }
+
+  /**
+   * Getter for the most bytes of input being parsed at once
+   * 
+   * @return The in-flight byte limit
+   */
+  public long getMaxInFlightBytes() {
+    return maxInFlightBytes;
+  }
+
+  /**
+   * Setter for the most bytes of input being parsed at once, by default 64 MiB. A file
+   * larger than the limit is parsed on its own.
+   * 
+   * @param n The in-flight byte limit
+   * @return These options
+   * @throws XmlException If n is less than 1
+   */
+  public XmlBatchOptions setMaxInFlightBytes(long n) throws XmlException {
+    if (n < 1)
+      throw new XmlException("In-flight bytes must be at least 1");
+
+    maxInFlightBytes = n;
+    return this;
+  }
+
+  /**
+   * Getter for the encoding of the files
+   * 
+   * @return The charset
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Setter for the encoding of the files, by default the platform encoding as used by
+   * {@link XmlParser#parse(java.io.File)}
+   * 
+   * @param c The charset
+   * @return These options
+   */
+  public XmlBatchOptions setCharset(Charset c) {
+    charset = c;
+    return this;
+  }
+
+  private ExecutorService executor = null;
+  private int maxConcurrency = Runtime.getRuntime().availableProcessors();
+  private long maxInFlightBytes = 64L * 1024 * 1024;
+  private Charset charset = Charset.defaultCharset();
+}
@@ -0,0 +1,60 @@
+package org.zachtaylor.jnodalxml;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The outcome of parsing one file of a batch: either its top-level nodes, or the
+ * exception or error that stopped it
+ */
+public class XmlBatchResult {
+  XmlBatchResult(Path filePath, List<XmlNode> parsedNodes, Throwable parseError) {
+    path = filePath;
+    nodes = parsedNodes;
+    error = parseError;
+  }
+
+  /**
+   * Getter for the file
+   * 
+   * @return The path that was parsed
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Getter for the top-level nodes of the file
+   * 
+   * @return The nodes, or null if the parse failed
+   */
+  public List<XmlNode> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Getter for the failure of the parse
+   * 
+   * @return The exception or error, or null if the parse succeeded
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  /**
+   * Tells whether the file was parsed
+   * 
+   * @return True if the parse succeeded
+   */
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  public String toString() {
+    return path + (error == null ? " : " + nodes.size() + " nodes" : " : " + error);
+  }
+
+  private final Path path;
+  private final List<XmlNode> nodes;
+  private final Throwable error;
+}
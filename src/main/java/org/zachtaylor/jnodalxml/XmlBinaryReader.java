@@ -0,0 +1,76 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Decodes what {@link XmlBinaryWriter} encodes
+ */
+final class XmlBinaryReader {
+  XmlBinaryReader(byte[] b) {
+    bytes = b;
+  }
+
+  int read() throws XmlException {
+    if (position == bytes.length)
+      throw new XmlException("Truncated binary XML");
+
+    return bytes[position++] & 0xFF;
+  }
+
+  int number() throws XmlException {
+    int n = 0;
+
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = read();
+      n |= (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0)
+        return n;
+    }
+
+    throw new XmlException("Malformed number in binary XML");
+  }
+
+  String string() throws XmlException {
+    int length = number() - 1;
+
+    if (length < 0)
+      return null;
+    if (length > bytes.length - position)
+      throw new XmlException("Truncated binary XML");
+
+    String s = new String(bytes, position, length, XmlBinaryWriter.UTF_8);
+    position += length;
+    return s;
+  }
+
+  XmlNode node() throws XmlException {
+    XmlNode node = new XmlNode(string());
+
+    for (int i = number(); i > 0; i--) {
+      node.addAttribute(string(), string());
+    }
+
+    boolean selfClosing = read() == 1;
+    String value = string();
+
+    if (value != null) {
+      node.setValue(value);
+    }
+
+    for (int i = number(); i > 0; i--) {
+      node.addChild(node());
+    }
+
+    if (selfClosing) {
+      node.setSelfClosing(true);
+    }
+
+    return node;
+  }
+
+  boolean isAtEnd() {
+    return position == bytes.length;
+  }
+
+  private final byte[] bytes;
+  private int position;
+}
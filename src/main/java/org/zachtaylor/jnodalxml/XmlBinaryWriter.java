@@ -0,0 +1,61 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes trees compactly, for {@link XmlBinaryReader} to decode: numbers as
+ * variable-length integers, strings as UTF-8 after their length, and each node as its
+ * name, attributes, value and children
+ */
+final class XmlBinaryWriter extends ByteArrayOutputStream {
+  void number(int n) {
+    while ((n & ~0x7F) != 0) {
+      write(n & 0x7F | 0x80);
+      n >>>= 7;
+    }
+
+    write(n);
+  }
+
+  /**
+   * Writes a string as its length plus one, then its bytes; null is written as 0
+   */
+  void string(String s) {
+    if (s == null) {
+      number(0);
+      return;
+    }
+
+    byte[] bytes = s.getBytes(UTF_8);
+    number(bytes.length + 1);
+    write(bytes, 0, bytes.length);
+  }
+
+  void node(XmlNode node) {
+    Map<String, XmlAttribute> attributes = node.attributeMap();
+    List<XmlNode> children = node.childList();
+
+    string(node.getName());
+    number(attributes.size());
+
+    for (XmlAttribute attribute : attributes.values()) {
+      string(attribute.getKey());
+      string(attribute.getValue());
+    }
+
+    write(node.isSelfClosing() ? 1 : 0);
+    string(node.getValue());
+    number(children == null ? 0 : children.size());
+
+    if (children != null) {
+      for (XmlNode child : children) {
+        node(child);
+      }
+    }
+  }
+
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,18 @@
+package org.zachtaylor.jnodalxml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field to an attribute of the element, converted to the type of the field
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XmlBindAttribute {
+  /**
+   * Name of the attribute, by default the name of the field
+   */
+  String value() default "";
+}
@@ -0,0 +1,21 @@
+package org.zachtaylor.jnodalxml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field to child elements. A List field receives every child of the name, any
+ * other field the last one. A field of type String, a primitive, a boxed primitive or an
+ * enum receives the value of the child; a field of any other type is bound from the
+ * child by the {@link XmlBinder} of that type.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XmlBindChild {
+  /**
+   * Name of the child elements, by default the name of the field
+   */
+  String value() default "";
+}
@@ -0,0 +1,343 @@
+package org.zachtaylor.jnodalxml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps elements onto objects of a class whose fields are marked with
+ * {@link XmlBindAttribute}, {@link XmlBindValue} and {@link XmlBindChild}. A class is
+ * examined once, compiling each marked field into a method handle, so binding itself
+ * does no reflection. The class needs a constructor without arguments.
+ * 
+ * @param <T> The bound class
+ */
+public final class XmlBinder<T> {
+  private XmlBinder(Class<T> boundType) {
+    type = boundType;
+  }
+
+  /**
+   * Gets the binder for a class, compiling it on first use. Binders are thread-safe
+   * and shared.
+   * 
+   * @param type The class
+   * @return The binder
+   * @throws XmlException If the class cannot be bound
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> XmlBinder<T> of(Class<T> type) throws XmlException {
+    XmlBinder<?> binder = CACHE.get(type);
+
+    if (binder == null) {
+      Map<Class<?>, XmlBinder<?>> compiled = new HashMap<Class<?>, XmlBinder<?>>();
+      compile(type, compiled);
+
+      for (Map.Entry<Class<?>, XmlBinder<?>> entry : compiled.entrySet()) {
+        CACHE.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+
+      binder = CACHE.get(type);
+    }
+
+    return (XmlBinder<T>) binder;
+  }
+
+  /**
+   * Creates an object from an element of a tree
+   * 
+   * @param node The element
+   * @return A new object
+   * @throws XmlException If a value cannot be converted to the type of its field
+   */
+  public T bind(XmlNode node) throws XmlException {
+    Object target = newInstance();
+
+    for (Map.Entry<String, Property> entry : attributes.entrySet()) {
+      XmlAttribute attribute = node.getAttribute(entry.getKey());
+
+      if (attribute != null) {
+        entry.getValue().set(target, entry.getValue().convert(attribute.getValue()));
+      }
+    }
+
+    if (value != null && node.getValue() != null) {
+      value.set(target, value.convert(node.getValue()));
+    }
+
+    if (!children.isEmpty()) {
+      for (XmlNode child : node.getAllChildren()) {
+        Property property = children.get(child.getName());
+
+        if (property == null) {
+          continue;
+        }
+
+        if (property.binder != null) {
+          property.set(target, property.binder.bind(child));
+        }
+        else if (child.getValue() != null) {
+          property.set(target, property.convert(child.getValue()));
+        }
+      }
+    }
+
+    return type.cast(target);
+  }
+
+  /**
+   * Creates an object from the first element of a document, straight from its tokens
+   * without building a tree. Elements and attributes that no field is bound to are
+   * skipped.
+   * 
+   * @param tokens The document
+   * @return A new object
+   * @throws XmlException If the document is malformed or has no element, or a value cannot be converted
+   */
+  public T bind(XmlTokenizer tokens) throws XmlException {
+    XmlBindingBuilder builder = new XmlBindingBuilder(this);
+
+    XmlParser.parse(tokens, new XmlEventParser(builder));
+
+    if (builder.getResult() == null)
+      throw new XmlException("Document has no element to bind to " + type.getName());
+
+    return type.cast(builder.getResult());
+  }
+
+  Object newInstance() throws XmlException {
+    try {
+      return (Object) constructor.invokeExact();
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new XmlException("Cannot create " + type.getName(), e);
+    }
+  }
+
+  Property attribute(String key) {
+    return attributes.get(key);
+  }
+
+  Property child(String name) {
+    return children.get(name);
+  }
+
+  Property value() {
+    return value;
+  }
+
+  private static XmlBinder<?> compile(Class<?> type, Map<Class<?>, XmlBinder<?>> compiled) throws XmlException {
+    XmlBinder<?> binder = CACHE.get(type);
+
+    if (binder == null) {
+      binder = compiled.get(type);
+    }
+
+    if (binder == null) {
+      binder = create(type);
+      // Registered before its fields are compiled, so that a class can contain itself
+      compiled.put(type, binder);
+      binder.compileFields(compiled);
+    }
+
+    return binder;
+  }
+
+  private static <T> XmlBinder<T> create(Class<T> type) {
+    return new XmlBinder<T>(type);
+  }
+
+  private void compileFields(Map<Class<?>, XmlBinder<?>> compiled) throws XmlException {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    try {
+      Constructor<T> c = type.getDeclaredConstructor();
+      c.setAccessible(true);
+      constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+
+      for (Class<?> k = type; k != null && k != Object.class; k = k.getSuperclass()) {
+        for (Field field : k.getDeclaredFields()) {
+          XmlBindAttribute attribute = field.getAnnotation(XmlBindAttribute.class);
+          XmlBindChild child = field.getAnnotation(XmlBindChild.class);
+
+          if (attribute != null) {
+            attributes.put(name(attribute.value(), field), property(lookup, field, false, compiled));
+          }
+          else if (child != null) {
+            children.put(name(child.value(), field), property(lookup, field, true, compiled));
+          }
+          else if (field.getAnnotation(XmlBindValue.class) != null) {
+            value = property(lookup, field, false, compiled);
+          }
+        }
+      }
+    } catch (NoSuchMethodException e) {
+      throw new XmlException(type.getName() + " has no constructor without arguments", e);
+    } catch (IllegalAccessException e) {
+      throw new XmlException("Cannot access " + type.getName(), e);
+    } catch (SecurityException e) {
+      throw new XmlException("Cannot access " + type.getName(), e);
+    }
+  }
+
+  private static String name(String name, Field field) {
+    return name.isEmpty() ? field.getName() : name;
+  }
+
+  private static Property property(MethodHandles.Lookup lookup, Field field, boolean child, Map<Class<?>, XmlBinder<?>> compiled) throws IllegalAccessException, XmlException {
+    field.setAccessible(true);
+
+    MethodHandle setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+    Class<?> elementType = field.getType();
+    MethodHandle getter = null;
+
+    if (child && (elementType == List.class || elementType == Collection.class)) {
+      getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+      elementType = elementType(field);
+    }
+
+    int kind = kind(elementType);
+
+    if (kind != BOUND) {
+      return new Property(field, setter, getter, kind, elementType, null);
+    }
+    if (!child)
+      throw new XmlException("Cannot bind " + field + " to text");
+
+    return new Property(field, setter, getter, kind, elementType, compile(elementType, compiled));
+  }
+
+  private static Class<?> elementType(Field field) throws XmlException {
+    Type generic = field.getGenericType();
+
+    if (generic instanceof ParameterizedType) {
+      Type element = ((ParameterizedType) generic).getActualTypeArguments()[0];
+
+      if (element instanceof Class)
+        return (Class<?>) element;
+    }
+
+    throw new XmlException("Cannot bind " + field + " without a class as its element type");
+  }
+
+  private static int kind(Class<?> c) {
+    if (c == String.class)
+      return STRING;
+    if (c == int.class || c == Integer.class)
+      return INT;
+    if (c == long.class || c == Long.class)
+      return LONG;
+    if (c == double.class || c == Double.class)
+      return DOUBLE;
+    if (c == float.class || c == Float.class)
+      return FLOAT;
+    if (c == boolean.class || c == Boolean.class)
+      return BOOLEAN;
+    if (c.isEnum())
+      return ENUM;
+
+    return BOUND;
+  }
+
+  /**
+   * One compiled field: how to convert text for it, and how to store into it
+   */
+  static final class Property {
+    Property(Field f, MethodHandle set, MethodHandle get, int k, Class<?> t, XmlBinder<?> b) {
+      field = f;
+      setter = set;
+      getter = get;
+      kind = k;
+      elementType = t;
+      binder = b;
+    }
+
+    /**
+     * Converts text to the type of the field
+     * 
+     * @param s The text
+     * @return The converted value
+     * @throws XmlException If s is not of the type of the field
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object convert(String s) throws XmlException {
+      try {
+        switch (kind) {
+        case STRING:
+          return s;
+        case INT:
+          long n = XmlNumbers.parseLong(s, 0, s.length());
+          if (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE)
+            throw new NumberFormatException("Value out of range for int: " + s);
+          return (int) n;
+        case LONG:
+          return XmlNumbers.parseLong(s, 0, s.length());
+        case DOUBLE:
+          return XmlNumbers.parseDouble(s, 0, s.length());
+        case FLOAT:
+          return (float) XmlNumbers.parseDouble(s, 0, s.length());
+        case BOOLEAN:
+          return XmlNumbers.parseBoolean(s);
+        default:
+          return Enum.valueOf((Class) elementType, s);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new XmlException("Cannot bind " + s + " to " + field, e);
+      }
+    }
+
+    /**
+     * Stores a value into the field, or adds it if the field is a list
+     * 
+     * @param target The object holding the field
+     * @param v The value
+     */
+    @SuppressWarnings("unchecked")
+    void set(Object target, Object v) throws XmlException {
+      try {
+        if (getter == null) {
+          setter.invokeExact(target, v);
+          return;
+        }
+
+        List<Object> list = (List<Object>) (Object) getter.invokeExact(target);
+
+        if (list == null) {
+          list = new ArrayList<Object>();
+          setter.invokeExact(target, (Object) list);
+        }
+
+        list.add(v);
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new XmlException("Cannot set " + field, e);
+      }
+    }
+
+    private final Field field;
+    private final MethodHandle setter, getter;
+    private final int kind;
+    private final Class<?> elementType;
+    final XmlBinder<?> binder;
+  }
+
+  private static final int STRING = 0, INT = 1, LONG = 2, DOUBLE = 3, FLOAT = 4, BOOLEAN = 5, ENUM = 6, BOUND = 7;
+  private static final ConcurrentHashMap<Class<?>, XmlBinder<?>> CACHE = new ConcurrentHashMap<Class<?>, XmlBinder<?>>();
+
+  private final Class<T> type;
+  private final Map<String, Property> attributes = new HashMap<String, Property>(), children = new HashMap<String, Property>();
+  private MethodHandle constructor;
+  private Property value;
+}
@@ -0,0 +1,128 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Stack;
+
+/**
+ * Binds objects from {@link XmlHandler} events, as {@link XmlBinder#bind(XmlNode)} does
+ * from a tree. Elements that no field is bound to are skipped whole.
+ */
+final class XmlBindingBuilder implements XmlHandler {
+  XmlBindingBuilder(XmlBinder<?> rootBinder) {
+    root = rootBinder;
+  }
+
+  /**
+   * Getter for the object bound from the first element of the document
+   * 
+   * @return The object, or null if no element has closed yet
+   */
+  Object getResult() {
+    return result;
+  }
+
+  public void startElement(String name) {
+    if (skipped > 0) {
+      skipped++;
+    }
+    else if (frames.isEmpty()) {
+      // Only the first element is bound, and processing instructions never are
+      if (result != null || name.startsWith("?")) {
+        skipped = 1;
+      }
+      else {
+        frames.push(new Frame(root, null, root.newInstance()));
+      }
+    }
+    else {
+      XmlBinder<?> parent = frames.peek().binder;
+      XmlBinder.Property property = parent == null ? null : parent.child(name);
+
+      if (property == null) {
+        skipped = 1;
+      }
+      else {
+        XmlBinder<?> binder = property.binder;
+        frames.push(new Frame(binder, property, binder == null ? null : binder.newInstance()));
+      }
+    }
+  }
+
+  public void attribute(String key, String value) {
+    if (skipped > 0 || frames.peek().binder == null) {
+      return;
+    }
+
+    Frame frame = frames.peek();
+    XmlBinder.Property property = frame.binder.attribute(key);
+
+    if (property != null) {
+      property.set(frame.target, property.convert(value));
+    }
+  }
+
+  public void text(String word) {
+    if (skipped > 0) {
+      return;
+    }
+
+    Frame frame = frames.peek();
+
+    if (frame.binder != null && frame.binder.value() == null) {
+      return;
+    }
+
+    if (frame.text == null) {
+      frame.text = new StringBuilder(word);
+    }
+    else {
+      frame.text.append(' ').append(word);
+    }
+  }
+
+  public void endElement(String name, boolean selfClosing) {
+    if (skipped > 0) {
+      skipped--;
+      return;
+    }
+
+    Frame frame = frames.pop();
+    Object bound;
+
+    if (frame.binder == null) {
+      bound = frame.text == null ? null : frame.property.convert(frame.text.toString());
+    }
+    else {
+      if (frame.text != null) {
+        XmlBinder.Property value = frame.binder.value();
+        value.set(frame.target, value.convert(frame.text.toString()));
+      }
+
+      bound = frame.target;
+    }
+
+    if (frames.isEmpty()) {
+      result = bound;
+    }
+    else if (bound != null) {
+      frame.property.set(frames.peek().target, bound);
+    }
+  }
+
+  private static final class Frame {
+    Frame(XmlBinder<?> b, XmlBinder.Property p, Object t) {
+      binder = b;
+      property = p;
+      target = t;
+    }
+
+    final XmlBinder<?> binder;
+    final XmlBinder.Property property;
+    final Object target;
+    StringBuilder text;
+  }
+
+  private final XmlBinder<?> root;
+  private final Stack<Frame> frames = new Stack<Frame>();
+  private Object result;
+  private int skipped;
+}
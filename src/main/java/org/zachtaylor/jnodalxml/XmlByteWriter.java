@@ -0,0 +1,484 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes nodes as UTF-8 to a channel, laid out as {@link XmlNode#printToString(int, String)}
+ * lays them out. Output collects in direct buffers drawn from a pool shared by all
+ * writers, and is handed to the channel several buffers at a time, with one gathering
+ * write if the channel is a {@link GatheringByteChannel} such as a FileChannel. The
+ * bytes of each distinct element name and attribute key are encoded once per writer,
+ * so repeated tags are copied rather than encoded again. See
+ * {@link #setRetainOutput(boolean)} for writing a document again after small changes.
+ * <p>
+ * A writer is not thread-safe.
+ */
+public final class XmlByteWriter implements Closeable {
+  /**
+   * Constructor for XmlByteWriter
+   * 
+   * @param out The channel to write to, which is left open when this writer is closed
+   */
+  public XmlByteWriter(WritableByteChannel out) {
+    channel = out;
+    current = buffers[0] = acquire();
+    listener = XmlNode.getWriteListener();
+  }
+
+  /**
+   * Setter for the listener told the metrics of each node this writer writes, by
+   * default the one set with {@link XmlNode#setWriteListener(XmlWriteListener)} when
+   * this writer was created
+   * 
+   * @param l The listener, or null to measure nothing
+   * @return This writer
+   */
+  public XmlByteWriter setWriteListener(XmlWriteListener l) {
+    listener = l;
+    return this;
+  }
+
+  /**
+   * Setter for the string written once for each level of depth before every line, by
+   * default none
+   * 
+   * @param tab The indent
+   * @return This writer
+   */
+  public XmlByteWriter setIndent(String tab) {
+    indent = encode(tab);
+    return this;
+  }
+
+  /**
+   * Setter for whether documents written keep their output. A node without a parent
+   * written by a writer that retains output keeps the bytes written, and each node in
+   * it keeps where its own bytes lie. Writing the document again copies every subtree
+   * that has not been modified since from those bytes, so only the nodes on the path
+   * to a modification are encoded again. Off by default.
+   * 
+   * @param b Whether to retain output
+   * @return This writer
+   */
+  public XmlByteWriter setRetainOutput(boolean b) {
+    retain = b;
+    return this;
+  }
+
+  /**
+   * Writes a node and its descendants, followed by a line break
+   * 
+   * @param node The node
+   * @return This writer
+   * @throws IOException If the channel throws
+   */
+  public XmlByteWriter write(XmlNode node) throws IOException {
+    XmlWriteListener l = listener;
+
+    if (l == null) {
+      writeNode(node);
+      return this;
+    }
+
+    long start = System.nanoTime(), before = transferred + count;
+    Exception error = null;
+
+    try {
+      writeNode(node);
+    } catch (IOException e) {
+      error = e;
+      throw e;
+    } catch (RuntimeException e) {
+      error = e;
+      throw e;
+    } finally {
+      l.completed(new XmlWriteMetrics(node.getName(), transferred + count - before, System.nanoTime() - start, error));
+    }
+
+    return this;
+  }
+
+  private void writeNode(XmlNode node) throws IOException {
+    if (retain && node.getParent() == null) {
+      writeRetained(node);
+    }
+    else {
+      node.writeTo(this, 0, null, -1, 0);
+    }
+
+    put(NEWLINE);
+  }
+
+  /**
+   * Hands everything written so far to the channel
+   * 
+   * @throws IOException If the channel throws
+   */
+  public void flush() throws IOException {
+    drain();
+    writeBuffers();
+  }
+
+  /**
+   * Flushes, and returns the buffers of this writer to the pool. The channel is not
+   * closed.
+   * 
+   * @throws IOException If the channel throws
+   */
+  public void close() throws IOException {
+    if (current == null)
+      return;
+
+    try {
+      flush();
+    } finally {
+      for (int i = 0; i < buffers.length; i++) {
+        if (buffers[i] != null) {
+          release(buffers[i]);
+          buffers[i] = null;
+        }
+      }
+
+      current = null;
+    }
+  }
+
+  /**
+   * Tells whether the node being written should record where its bytes lie
+   */
+  boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Getter for the number of bytes of the document being recorded so far
+   */
+  int position() {
+    return count;
+  }
+
+  /**
+   * Writes bytes retained from an earlier write
+   */
+  void copy(byte[] old, int offset, int length) throws IOException {
+    put(old, offset, length);
+  }
+
+  void indent(int depth) throws IOException {
+    for (int i = 0; i < depth; i++) {
+      put(indent);
+    }
+  }
+
+  void startTag(String name) throws IOException {
+    put(cached(openTags, name, "<", ""));
+  }
+
+  void attribute(String key, String value) throws IOException {
+    put(cached(attributeKeys, key, " ", "=\""));
+    escape(value, true);
+    put(QUOTE);
+  }
+
+  void endStartTag() throws IOException {
+    put(END_START_TAG);
+  }
+
+  void endEmptyTag() throws IOException {
+    put(END_EMPTY_TAG);
+  }
+
+  void endTag(String name) throws IOException {
+    put(cached(closeTags, name, "</", ">"));
+  }
+
+  void newline() throws IOException {
+    put(NEWLINE);
+  }
+
+  /**
+   * Writes element text, escaped as {@link XmlEntities#escapeText(String)} does
+   * 
+   * @param s The text
+   */
+  void text(CharSequence s) throws IOException {
+    escape(s, false);
+  }
+
+  /**
+   * Writes a document into a new record, reusing the record of its last write if that
+   * was laid out with the same indent
+   */
+  private void writeRetained(XmlNode node) throws IOException {
+    Output old = node.getOutput();
+    boolean reuse = old != null && Arrays.equals(old.indent, indent);
+    boolean written = false;
+
+    drain();
+    bytes = new byte[old == null ? scratch.length : old.bytes.length];
+    recording = true;
+
+    try {
+      node.writeTo(this, 0, reuse ? old.bytes : null, reuse ? 0 : -1, 0);
+      written = true;
+    } finally {
+      byte[] record = bytes;
+      int length = count;
+
+      recording = false;
+      bytes = scratch;
+      count = 0;
+
+      // Nodes written before a failure point into a record that is not kept
+      node.setOutput(written ? new Output(record, indent) : null);
+      transfer(record, 0, length);
+    }
+  }
+
+  private byte[] cached(Map<String, byte[]> cache, String name, String before, String after) {
+    byte[] bytes = cache.get(name);
+
+    if (bytes == null) {
+      bytes = encode(before + name + after);
+
+      if (cache.size() < MAX_CACHED_NAMES) {
+        cache.put(name, bytes);
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encodes s as UTF-8, escaping the characters that {@link XmlEntities} escapes
+   */
+  private void escape(CharSequence s, boolean attribute) throws IOException {
+    int length = s.length();
+
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+
+      // Room for the longest entity or character
+      if (count + 6 > bytes.length) {
+        reserve(6);
+      }
+
+      if (c < 0x80) {
+        if (c == '&') {
+          append(AMP);
+        }
+        else if (c == '<') {
+          append(LT);
+        }
+        else if (c == '>' && !attribute) {
+          append(GT);
+        }
+        else if (c == '"' && attribute) {
+          append(QUOT);
+        }
+        else {
+          bytes[count++] = (byte) c;
+        }
+      }
+      else if (c < 0x800) {
+        bytes[count++] = (byte) (0xC0 | c >> 6);
+        bytes[count++] = (byte) (0x80 | c & 0x3F);
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        bytes[count++] = (byte) (0xF0 | codePoint >> 18);
+        bytes[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        bytes[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        bytes[count++] = (byte) (0x80 | codePoint & 0x3F);
+      }
+      else if (Character.isSurrogate(c)) {
+        // An unpaired surrogate has no encoding; replaced as String.getBytes does
+        bytes[count++] = (byte) '?';
+      }
+      else {
+        bytes[count++] = (byte) (0xE0 | c >> 12);
+        bytes[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+        bytes[count++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+  }
+
+  private void append(byte[] entity) {
+    System.arraycopy(entity, 0, bytes, count, entity.length);
+    count += entity.length;
+  }
+
+  private void put(byte[] b) throws IOException {
+    put(b, 0, b.length);
+  }
+
+  private void put(byte[] b, int offset, int length) throws IOException {
+    if (!recording && count + length > bytes.length) {
+      drain();
+
+      if (length > bytes.length) {
+        transfer(b, offset, length);
+        return;
+      }
+    }
+
+    reserve(length);
+    System.arraycopy(b, offset, bytes, count, length);
+    count += length;
+  }
+
+  /**
+   * Makes room for n more bytes, growing the record or emptying the scratch buffer
+   */
+  private void reserve(int n) throws IOException {
+    if (count + n <= bytes.length)
+      return;
+
+    if (recording) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + n));
+    }
+    else {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    if (!recording && count > 0) {
+      transfer(bytes, 0, count);
+      count = 0;
+    }
+  }
+
+  /**
+   * Copies bytes into the buffers, handing full buffers to the channel
+   */
+  private void transfer(byte[] b, int offset, int length) throws IOException {
+    int end = offset + length;
+
+    while (offset < end) {
+      if (!current.hasRemaining()) {
+        next();
+      }
+
+      int n = Math.min(current.remaining(), end - offset);
+      current.put(b, offset, n);
+      offset += n;
+    }
+
+    transferred += length;
+  }
+
+  /**
+   * Moves on to the next buffer, writing them all out once every buffer is full
+   */
+  private void next() throws IOException {
+    if (used + 1 == buffers.length) {
+      writeBuffers();
+      return;
+    }
+
+    used++;
+
+    if (buffers[used] == null) {
+      buffers[used] = acquire();
+    }
+
+    current = buffers[used];
+  }
+
+  private void writeBuffers() throws IOException {
+    int n = used + 1;
+
+    for (int i = 0; i < n; i++) {
+      buffers[i].flip();
+    }
+
+    try {
+      if (channel instanceof GatheringByteChannel) {
+        GatheringByteChannel gathering = (GatheringByteChannel) channel;
+
+        while (buffers[n - 1].hasRemaining()) {
+          gathering.write(buffers, 0, n);
+        }
+      }
+      else {
+        for (int i = 0; i < n; i++) {
+          while (buffers[i].hasRemaining()) {
+            channel.write(buffers[i]);
+          }
+        }
+      }
+    } finally {
+      for (int i = 0; i < n; i++) {
+        buffers[i].clear();
+      }
+    }
+
+    used = 0;
+    current = buffers[0];
+  }
+
+  /**
+   * The bytes of a document as last written, and the indent they were laid out with
+   */
+  static final class Output {
+    Output(byte[] b, byte[] i) {
+      bytes = b;
+      indent = i;
+    }
+
+    final byte[] bytes, indent;
+  }
+
+  private static byte[] encode(String s) {
+    return s.getBytes(UTF_8);
+  }
+
+  private static ByteBuffer acquire() {
+    ByteBuffer buffer = POOL.poll();
+
+    if (buffer == null)
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    POOLED.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  private static void release(ByteBuffer buffer) {
+    if (POOLED.incrementAndGet() <= MAX_POOLED) {
+      POOL.offer(buffer);
+    }
+    else {
+      POOLED.decrementAndGet();
+    }
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024, BUFFERS_PER_WRITE = 8, MAX_POOLED = 64, MAX_CACHED_NAMES = 4096;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final byte[] NEWLINE = encode("\n"), QUOTE = encode("\""), END_START_TAG = encode(">\n"), END_EMPTY_TAG = encode(" />");
+  private static final byte[] AMP = encode("&amp;"), LT = encode("&lt;"), GT = encode("&gt;"), QUOT = encode("&quot;");
+  private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer[] buffers = new ByteBuffer[BUFFERS_PER_WRITE];
+  private final Map<String, byte[]> openTags = new HashMap<String, byte[]>(), closeTags = new HashMap<String, byte[]>(), attributeKeys = new HashMap<String, byte[]>();
+  private final byte[] scratch = new byte[8 * 1024];
+  private ByteBuffer current;
+  private byte[] bytes = scratch, indent = new byte[0];
+  private int used, count;
+  private long transferred;
+  private boolean retain, recording;
+  private XmlWriteListener listener;
+}
@@ -0,0 +1,151 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Arrays;
+
+/**
+ * One modification of a tree recorded by an {@link XmlJournal}. The node modified is
+ * addressed by its path from the root of the journal: the index of each node among
+ * its parent's children, from the top down.
+ */
+public final class XmlChange {
+  /**
+   * What a change did, named after the method of {@link XmlNode} that made it
+   */
+  public enum Type {
+    /** The node was renamed to {@link XmlChange#getValue()} */
+    SET_NAME,
+    /** The value of the node was set to {@link XmlChange#getValue()}, which may be null */
+    SET_VALUE,
+    /** The node was made self-closing if {@link XmlChange#getValue()} is "true", or not */
+    SET_SELF_CLOSING,
+    /** The attribute {@link XmlChange#getKey()} was added with {@link XmlChange#getValue()} */
+    ADD_ATTRIBUTE,
+    /** The attribute {@link XmlChange#getKey()} was removed */
+    REMOVE_ATTRIBUTE,
+    /** Every attribute was removed */
+    CLEAR_ATTRIBUTES,
+    /** {@link XmlChange#getChild()} was added after the last child */
+    ADD_CHILD,
+    /** The child at {@link XmlChange#getIndex()} was removed */
+    REMOVE_CHILD,
+    /** Every child was removed */
+    CLEAR_CHILDREN;
+  }
+
+  XmlChange(Type changeType, int[] nodePath, String changeKey, String changeValue, XmlNode addedChild, int childIndex) {
+    type = changeType;
+    path = nodePath;
+    key = changeKey;
+    value = changeValue;
+    child = addedChild;
+    index = childIndex;
+  }
+
+  /**
+   * Getter for what the change did
+   * 
+   * @return The type of change
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Getter for the path of the node changed
+   * 
+   * @return A new array of child indexes from the root of the journal
+   */
+  public int[] getPath() {
+    return path.clone();
+  }
+
+  /**
+   * Getter for the key of an attribute added or removed
+   * 
+   * @return The key, or null for other types of change
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Getter for the new name, value or attribute value
+   * 
+   * @return The value, or null if there is none
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Getter for a copy of the child added, as it was when added
+   * 
+   * @return The child, or null for other types of change
+   */
+  public XmlNode getChild() {
+    return child;
+  }
+
+  /**
+   * Getter for the index of the child removed
+   * 
+   * @return The index, or -1 for other types of change
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Makes the change to the tree rooted at root
+   * 
+   * @param root The root of a tree equal to the one the change was recorded in
+   * @throws XmlException If the path does not lead to a node, or the change cannot be made to it
+   */
+  void applyTo(XmlNode root) throws XmlException {
+    XmlNode node = root;
+
+    for (int i : path) {
+      node = node.childAt(i);
+    }
+
+    switch (type) {
+    case SET_NAME:
+      node.setName(value);
+      break;
+    case SET_VALUE:
+      node.setValue(value);
+      break;
+    case SET_SELF_CLOSING:
+      node.setSelfClosing(Boolean.parseBoolean(value));
+      break;
+    case ADD_ATTRIBUTE:
+      node.addAttribute(key, value);
+      break;
+    case REMOVE_ATTRIBUTE:
+      node.removeAttribute(key);
+      break;
+    case CLEAR_ATTRIBUTES:
+      node.clearAttributes();
+      break;
+    case ADD_CHILD:
+      node.addChild(child.copy());
+      break;
+    case REMOVE_CHILD:
+      node.removeChildAt(index);
+      break;
+    case CLEAR_CHILDREN:
+      node.clearChildren();
+      break;
+    }
+  }
+
+  public String toString() {
+    return type + " " + Arrays.toString(path) + (key != null ? " " + key : "") + (value != null ? " " + value : "") + (index >= 0 ? " " + index : "");
+  }
+
+  private final Type type;
+  private final int[] path;
+  private final String key, value;
+  private final XmlNode child;
+  private final int index;
+}
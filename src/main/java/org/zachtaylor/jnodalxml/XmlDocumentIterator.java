@@ -0,0 +1,421 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Reads a stream of many documents one after another, such as a message log or a
+ * socket, handing out each document as soon as its root element closes. Input is only
+ * read as documents are asked for, and only the document in progress is held, so an
+ * unbounded stream can be processed in bounded memory at the pace of the caller.
+ * <p>
+ * By default documents simply follow each other, and the stream is tokenized as one.
+ * With framing, each document is a frame of its own: ended by a delimiter, or preceded
+ * by its length in bytes as a 4-byte big-endian integer. A malformed frame throws from
+ * {@link #hasNext()} or {@link #next()}, after which iteration can go on with the next
+ * frame; without framing, a malformed document ends the iteration.
+ * <p>
+ * A document longer than {@link #setMaxFrameLength(int)} throws instead of being held,
+ * framed or not.
+ * <p>
+ * Processing instructions such as &lt;?xml ...?&gt; are skipped.
+ */
+public final class XmlDocumentIterator implements Iterator<XmlNode>, Closeable {
+  /**
+   * Constructor for an XmlDocumentIterator over UTF-8 documents
+   * 
+   * @param in The stream, which is closed once it is exhausted
+   */
+  public XmlDocumentIterator(InputStream in) {
+    this(in, Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Constructor for XmlDocumentIterator
+   * 
+   * @param in The stream, which is closed once it is exhausted
+   * @param charset Encoding of the documents
+   */
+  public XmlDocumentIterator(InputStream in, Charset charset) {
+    stream = in;
+    encoding = charset;
+  }
+
+  /**
+   * Setter for the delimiter that ends each frame. The last frame need not be ended.
+   * Must be set before the first document is read.
+   * 
+   * @param d The delimiter, such as "\n" or "\u0000", which must not occur inside a document
+   * @return This iterator
+   */
+  public XmlDocumentIterator setDelimiter(String d) {
+    checkNotStarted();
+    delimiter = d.getBytes(encoding);
+    lengthPrefixed = false;
+
+    if (delimiter.length == 0)
+      throw new XmlException("Empty delimiter");
+
+    return this;
+  }
+
+  /**
+   * Sets each frame to be preceded by its length in bytes, as a 4-byte big-endian
+   * integer. Must be set before the first document is read.
+   * 
+   * @return This iterator
+   */
+  public XmlDocumentIterator setLengthPrefixed() {
+    checkNotStarted();
+    lengthPrefixed = true;
+    delimiter = null;
+    return this;
+  }
+
+  /**
+   * Setter for the largest frame accepted, in bytes. A longer frame throws instead of
+   * being buffered. Without framing this bounds each document in characters instead,
+   * checked a block of input at a time.
+   * 
+   * @param n The limit, which is 16 MiB by default
+   * @return This iterator
+   */
+  public XmlDocumentIterator setMaxFrameLength(int n) {
+    if (n < 1)
+      throw new XmlException("Max frame length must be positive");
+
+    maxFrameLength = n;
+    return this;
+  }
+
+  /**
+   * Setter for limits on each document. Must be set before the first document is read.
+   * 
+   * @param l The limits, or null for none
+   * @return This iterator
+   */
+  public XmlDocumentIterator setLimits(XmlLimits l) {
+    checkNotStarted();
+    limits = l;
+    return this;
+  }
+
+  /**
+   * Reads until the next document is complete, blocking on the stream if need be
+   * 
+   * @return True if there is another document, false once the stream is exhausted
+   * @throws XmlException If the stream cannot be read, or the next document is malformed
+   */
+  public boolean hasNext() throws XmlException {
+    if (tokenizer == null) {
+      start();
+    }
+
+    while (ready.isEmpty() && !finished) {
+      if (delimiter != null || lengthPrefixed) {
+        readFrame();
+      }
+      else {
+        readTokens();
+      }
+    }
+
+    return !ready.isEmpty();
+  }
+
+  /**
+   * Takes the next document
+   * 
+   * @return The root element of the document
+   * @throws NoSuchElementException If the stream is exhausted
+   * @throws XmlException If the stream cannot be read, or the next document is malformed
+   */
+  public XmlNode next() throws XmlException {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    return ready.remove();
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stops iterating and closes the stream
+   * 
+   * @throws IOException If the stream cannot be closed
+   */
+  public void close() throws IOException {
+    finished = true;
+    ready.clear();
+    stream.close();
+  }
+
+  private void start() {
+    tokenizer = new XmlTokenizer();
+    builder = new XmlTreeBuilder(null, new ArrayDeque<XmlNode>() {
+      @Override
+      public boolean add(XmlNode node) {
+        return node.getName().startsWith("?") || ready.add(node);
+      }
+    });
+    events = new XmlEventParser(builder);
+    tokenizer.setLimits(limits);
+    events.setLimits(limits);
+
+    if (delimiter == null && !lengthPrefixed) {
+      counter = new CountingReader(new InputStreamReader(stream, encoding));
+      tokenizer.reset(counter);
+    }
+    else {
+      buffer = new byte[BUFFER_SIZE];
+      frame = new byte[BUFFER_SIZE];
+    }
+  }
+
+  /**
+   * Feeds tokens of an unframed stream until a document closes or the stream ends
+   */
+  private void readTokens() {
+    try {
+      while (ready.isEmpty() && tokenizer.hasNext()) {
+        XmlToken token = tokenizer.next();
+        events.accept(token.getType(), token.getValue());
+      }
+
+      if (ready.isEmpty()) {
+        finished = true;
+        events.end();
+      }
+      else {
+        // The next document is counted from here, less whatever block of it was already read
+        counter.count = 0;
+        tokenizer.resetCharsRead();
+        events.reset();
+      }
+    } catch (XmlException e) {
+      finished = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Reads and parses one frame, skipping frames that hold only whitespace
+   */
+  private void readFrame() {
+    int length = lengthPrefixed ? readPrefixedFrame() : readDelimitedFrame();
+
+    if (length < 0) {
+      finished = true;
+      return;
+    }
+
+    tokenizer.reset(new String(frame, 0, length, encoding));
+    events.reset();
+    builder.reset();
+
+    while (tokenizer.hasNext()) {
+      XmlToken token = tokenizer.next();
+      events.accept(token.getType(), token.getValue());
+    }
+
+    events.end();
+  }
+
+  /**
+   * @return The length of the frame read, or -1 at the end of the stream
+   */
+  private int readDelimitedFrame() {
+    int length = 0, b;
+    byte last = delimiter[delimiter.length - 1];
+
+    while ((b = read()) >= 0) {
+      if (length == frame.length) {
+        growFrame(length + 1);
+      }
+      frame[length++] = (byte) b;
+
+      if (b == (last & 0xFF) && endsWithDelimiter(length))
+        return length - delimiter.length;
+
+      // The delimiter is not part of the frame, but may be read past the limit before it is seen
+      if (length - delimiter.length == maxFrameLength) {
+        skipFrame();
+        throw new XmlException("Frame is over the limit of " + maxFrameLength + " bytes");
+      }
+    }
+
+    return length == 0 ? -1 : length;
+  }
+
+  /**
+   * @return The length of the frame read, or -1 at the end of the stream
+   */
+  private int readPrefixedFrame() {
+    int length = 0;
+
+    for (int i = 0; i < 4; i++) {
+      int b = read();
+
+      if (b < 0) {
+        if (i == 0)
+          return -1;
+        throw new XmlException("Stream ended inside a frame length");
+      }
+
+      length = length << 8 | b;
+    }
+
+    if (length < 0 || length > maxFrameLength) {
+      skip(length & 0xFFFFFFFFL);
+      throw new XmlException("Frame length " + (length & 0xFFFFFFFFL) + " is over the limit of " + maxFrameLength);
+    }
+
+    if (length > frame.length) {
+      frame = new byte[length];
+    }
+
+    for (int n = 0; n < length;) {
+      if (position == limit && !fillBuffer())
+        throw new XmlException("Stream ended inside a frame");
+
+      int count = Math.min(length - n, limit - position);
+      System.arraycopy(buffer, position, frame, n, count);
+      position += count;
+      n += count;
+    }
+
+    return length;
+  }
+
+  private boolean endsWithDelimiter(int length) {
+    if (length < delimiter.length)
+      return false;
+
+    for (int i = 0, j = length - delimiter.length; i < delimiter.length; i++, j++) {
+      if (frame[j] != delimiter[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  private void growFrame(int minimum) {
+    long size = Math.min(frame.length * 2L, (long) maxFrameLength + delimiter.length);
+
+    frame = Arrays.copyOf(frame, Math.max(minimum, (int) Math.min(size, Integer.MAX_VALUE - 8)));
+  }
+
+  /**
+   * Throws away the rest of an oversized delimited frame, so that iteration can go on
+   * after it
+   */
+  private void skipFrame() {
+    int matched = 0, b;
+
+    while ((b = read()) >= 0) {
+      if ((byte) b == delimiter[matched]) {
+        if (++matched == delimiter.length)
+          return;
+      }
+      else {
+        // Restart the match, allowing for a delimiter that begins with the byte just read
+        matched = (byte) b == delimiter[0] ? 1 : 0;
+      }
+    }
+  }
+
+  /**
+   * Throws away an oversized length-prefixed frame, so that iteration can go on after it
+   */
+  private void skip(long n) {
+    while (n > 0) {
+      if (position == limit && !fillBuffer())
+        throw new XmlException("Stream ended inside a frame");
+
+      int count = (int) Math.min(n, limit - position);
+      position += count;
+      n -= count;
+    }
+  }
+
+  /**
+   * @return The next byte of the stream, or -1 at its end
+   */
+  private int read() {
+    if (position == limit && !fillBuffer())
+      return -1;
+
+    return buffer[position++] & 0xFF;
+  }
+
+  private boolean fillBuffer() {
+    try {
+      int n = stream.read(buffer);
+
+      if (n < 0) {
+        stream.close();
+        return false;
+      }
+
+      position = 0;
+      limit = n;
+      return true;
+    } catch (IOException e) {
+      finished = true;
+      throw new XmlException("Cannot read stream", e);
+    }
+  }
+
+  private void checkNotStarted() {
+    if (tokenizer != null)
+      throw new XmlException("Framing and limits must be set before the first document is read");
+  }
+
+  /**
+   * Counts the characters read of the document in progress, failing once it passes
+   * the limit
+   */
+  private final class CountingReader extends FilterReader {
+    CountingReader(Reader r) {
+      super(r);
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      int n = super.read(chars, offset, length);
+
+      if (n > 0 && (count += n) > maxFrameLength)
+        throw new XmlException("Document is over the limit of " + maxFrameLength + " characters");
+
+      return n;
+    }
+
+    long count;
+  }
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final InputStream stream;
+  private final Charset encoding;
+  private final Queue<XmlNode> ready = new ArrayDeque<XmlNode>();
+  private XmlTokenizer tokenizer;
+  private XmlTreeBuilder builder;
+  private XmlEventParser events;
+  private CountingReader counter;
+  private XmlLimits limits;
+  private byte[] delimiter, buffer, frame;
+  private boolean lengthPrefixed, finished;
+  private int maxFrameLength = 16 * 1024 * 1024, position, limit;
+}
@@ -0,0 +1,240 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Escapes and unescapes the predefined XML entities and numeric character references.
+ * Every method scans its input first and hands back the original String or region
+ * untouched when there is nothing to replace.
+ */
+final class XmlEntities {
+  private XmlEntities() {
+  }
+
+  /**
+   * Escapes '&amp;', '&lt;' and '&gt;' for use as element text
+   * 
+   * @param s Text to escape
+   * @return s itself if nothing needed escaping, otherwise the escaped copy
+   */
+  static String escapeText(String s) {
+    return escape(s, false);
+  }
+
+  /**
+   * Escapes '&amp;', '&lt;' and '&quot;' for use inside a quoted attribute value
+   * 
+   * @param s Value to escape
+   * @return s itself if nothing needed escaping, otherwise the escaped copy
+   */
+  static String escapeAttribute(String s) {
+    return escape(s, true);
+  }
+
+  /**
+   * Appends element text to sb, escaping it as {@link #escapeText(String)} does
+   * 
+   * @param sb Destination
+   * @param s Text to escape
+   */
+  static void appendText(StringBuilder sb, CharSequence s) {
+    int i = firstSpecial(s, false);
+
+    if (i < 0) {
+      sb.append(s);
+    }
+    else {
+      appendEscaped(sb, s, i, false);
+    }
+  }
+
+  /**
+   * Appends an attribute value to sb, escaping it as {@link #escapeAttribute(String)}
+   * does
+   * 
+   * @param sb Destination
+   * @param s Value to escape
+   */
+  static void appendAttribute(StringBuilder sb, CharSequence s) {
+    int i = firstSpecial(s, true);
+
+    if (i < 0) {
+      sb.append(s);
+    }
+    else {
+      appendEscaped(sb, s, i, true);
+    }
+  }
+
+  /**
+   * Decodes entity and character references
+   * 
+   * @param s Text to decode
+   * @return s itself if it holds no references, otherwise the decoded copy
+   */
+  static String unescape(String s) {
+    if (s.indexOf('&') < 0) {
+      return s;
+    }
+
+    StringBuilder sb = new StringBuilder(s.length());
+    unescape(s, 0, s.length(), sb);
+    return sb.toString();
+  }
+
+  /**
+   * Appends a region of s to sb, decoding entity and character references. Unknown
+   * or malformed references are copied through as they are.
+   * 
+   * @param s Source text
+   * @param begin Start of the region
+   * @param end End of the region
+   * @param sb Destination
+   */
+  static void unescape(String s, int begin, int end, StringBuilder sb) {
+    int i = begin;
+
+    while (i < end) {
+      int amp = indexOf(s, '&', i, end);
+      int semi = amp < 0 ? -1 : indexOf(s, ';', amp + 1, end);
+
+      // Without a ';' left in the region, no reference can follow
+      if (semi < 0) {
+        sb.append(s, i, end);
+        return;
+      }
+
+      sb.append(s, i, amp);
+
+      int codePoint = decode(s, amp + 1, semi);
+
+      if (codePoint < 0) {
+        sb.append('&');
+        i = amp + 1;
+      }
+      else {
+        sb.appendCodePoint(codePoint);
+        i = semi + 1;
+      }
+    }
+  }
+
+  /**
+   * Finds a character within a region only, since s may be a whole document
+   * 
+   * @return Index of the first c in [begin, end), or -1
+   */
+  private static int indexOf(String s, char c, int begin, int end) {
+    for (int i = begin; i < end; i++) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static String escape(String s, boolean attribute) {
+    int i = firstSpecial(s, attribute);
+
+    if (i < 0) {
+      return s;
+    }
+
+    StringBuilder sb = new StringBuilder(s.length() + 16);
+    appendEscaped(sb, s, i, attribute);
+    return sb.toString();
+  }
+
+  private static int firstSpecial(CharSequence s, boolean attribute) {
+    for (int i = 0; i < s.length(); i++) {
+      if (isSpecial(s.charAt(i), attribute)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean isSpecial(char c, boolean attribute) {
+    return c == '&' || c == '<' || (attribute ? c == '"' : c == '>');
+  }
+
+  private static void appendEscaped(StringBuilder sb, CharSequence s, int first, boolean attribute) {
+    sb.append(s, 0, first);
+
+    for (int i = first; i < s.length(); i++) {
+      char c = s.charAt(i);
+
+      if (!isSpecial(c, attribute)) {
+        sb.append(c);
+      }
+      else if (c == '&') {
+        sb.append("&amp;");
+      }
+      else if (c == '<') {
+        sb.append("&lt;");
+      }
+      else if (c == '>') {
+        sb.append("&gt;");
+      }
+      else {
+        sb.append("&quot;");
+      }
+    }
+  }
+
+  /**
+   * Decodes the reference between '&amp;' and ';'
+   * 
+   * @return The code point, or -1 if the reference is not understood
+   */
+  private static int decode(String s, int begin, int end) {
+    if (begin < end && s.charAt(begin) == '#') {
+      int radix = 10;
+      int i = begin + 1;
+
+      if (i < end && (s.charAt(i) == 'x' || s.charAt(i) == 'X')) {
+        radix = 16;
+        i++;
+      }
+
+      if (i == end) {
+        return -1;
+      }
+
+      int codePoint = 0;
+
+      for (; i < end; i++) {
+        int digit = Character.digit(s.charAt(i), radix);
+
+        if (digit < 0) {
+          return -1;
+        }
+
+        codePoint = codePoint * radix + digit;
+
+        if (codePoint > Character.MAX_CODE_POINT) {
+          return -1;
+        }
+      }
+
+      return codePoint;
+    }
+
+    if (is(s, begin, end, "amp"))
+      return '&';
+    if (is(s, begin, end, "lt"))
+      return '<';
+    if (is(s, begin, end, "gt"))
+      return '>';
+    if (is(s, begin, end, "quot"))
+      return '"';
+    if (is(s, begin, end, "apos"))
+      return '\'';
+
+    return -1;
+  }
+
+  private static boolean is(String s, int begin, int end, String name) {
+    return end - begin == name.length() && s.startsWith(name, begin);
+  }
+}
@@ -0,0 +1,242 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Stack;
+
+import org.zachtaylor.jnodalxml.XmlLimitException.Limit;
+
+/**
+ * Turns tokens into {@link XmlHandler} events one token at a time, so that parsing can
+ * stop and resume at any token boundary
+ */
+final class XmlEventParser {
+  XmlEventParser(XmlHandler eventHandler) {
+    handler = eventHandler;
+  }
+
+  /**
+   * Parses the next token
+   * 
+   * @param type The type of the token
+   * @param text The text of a TEXT token
+   * @throws XmlException If the token cannot appear where it does
+   */
+  void accept(XmlTokenType type, String text) throws XmlException {
+    switch (state) {
+    case CONTENT:
+      if (type == XmlTokenType.OPEN_BRACKET) {
+        state = State.OPEN;
+      }
+      else if (type == XmlTokenType.TEXT) {
+        if (names.isEmpty())
+          throw new XmlException("Text outside of any element: " + text);
+
+        if (limits != null) {
+          textLength += textLength == 0 ? text.length() : text.length() + 1;
+          limits.check(Limit.TEXT_LENGTH, textLength);
+        }
+        handler.text(text);
+      }
+      else {
+        throw unexpected(type, text);
+      }
+      break;
+
+    case OPEN:
+      if (type == XmlTokenType.SLASH) {
+        state = State.CLOSE_NAME;
+      }
+      else if (type == XmlTokenType.TEXT) {
+        String name = text;
+
+        names.push(name);
+        if (metrics != null) {
+          metrics.element(names.size());
+        }
+        if (limits != null) {
+          limits.check(Limit.NAME_LENGTH, name.length());
+          limits.check(Limit.DEPTH, names.size());
+          limits.check(Limit.NODES, ++nodes);
+          attributes = 0;
+          textLength = 0;
+        }
+        handler.startElement(name);
+        state = name.startsWith("?") ? State.PROLOG : State.ATTRIBUTES;
+      }
+      else {
+        throw unexpected(type, text);
+      }
+      break;
+
+    case CLOSE_NAME:
+      if (type != XmlTokenType.TEXT)
+        throw unexpected(type, text);
+      if (names.isEmpty())
+        throw new XmlException("Closing tag " + text + " has no start tag");
+      if (!names.peek().equals(text))
+        throw new XmlException("Closing tag " + text + " does not match " + names.peek());
+
+      state = State.CLOSE_END;
+      break;
+
+    case CLOSE_END:
+      if (type != XmlTokenType.CLOSE_BRACKET)
+        throw unexpected(type, text);
+
+      handler.endElement(names.pop(), false);
+      textLength = 0;
+      state = State.CONTENT;
+      break;
+
+    case ATTRIBUTES:
+      if (type == XmlTokenType.TEXT) {
+        if (limits != null) {
+          limits.check(Limit.NAME_LENGTH, text.length());
+          limits.check(Limit.ATTRIBUTES, ++attributes);
+        }
+        key = text;
+        state = State.EQUALS;
+      }
+      else if (type == XmlTokenType.SLASH) {
+        state = State.EMPTY_END;
+      }
+      else if (type == XmlTokenType.CLOSE_BRACKET) {
+        state = State.CONTENT;
+      }
+      else {
+        throw unexpected(type, text);
+      }
+      break;
+
+    case EQUALS:
+      if (type != XmlTokenType.EQUALS)
+        throw unexpected(type, text);
+
+      state = State.VALUE_OPEN;
+      break;
+
+    case VALUE_OPEN:
+      if (type != XmlTokenType.QUOTE)
+        throw unexpected(type, text);
+
+      words = 0;
+      valueLength = 0;
+      state = State.VALUE;
+      break;
+
+    case VALUE:
+      if (type == XmlTokenType.TEXT) {
+        if (words == 0) {
+          word = text;
+        }
+        else {
+          if (words == 1) {
+            value.setLength(0);
+            value.append(word);
+          }
+          value.append(' ').append(text);
+        }
+        if (limits != null) {
+          valueLength += words == 0 ? text.length() : text.length() + 1;
+          limits.check(Limit.TEXT_LENGTH, valueLength);
+        }
+        words++;
+      }
+      else if (type == XmlTokenType.QUOTE) {
+        if (metrics != null) {
+          metrics.attribute();
+        }
+        handler.attribute(key, words == 0 ? "" : words == 1 ? word : value.toString());
+        state = State.ATTRIBUTES;
+      }
+      else {
+        throw unexpected(type, text);
+      }
+      break;
+
+    case EMPTY_END:
+      if (type != XmlTokenType.CLOSE_BRACKET)
+        throw unexpected(type, text);
+
+      handler.endElement(names.pop(), true);
+      state = State.CONTENT;
+      break;
+
+    case PROLOG:
+      // Processing instructions are kept as empty elements, without their content
+      if (type == XmlTokenType.CLOSE_BRACKET) {
+        handler.endElement(names.pop(), true);
+        state = State.CONTENT;
+      }
+      break;
+    }
+  }
+
+  /**
+   * Checks that the input ended between elements
+   * 
+   * @throws XmlException If an element or tag is still open
+   */
+  void end() throws XmlException {
+    if (!names.isEmpty())
+      throw new XmlException("Element " + names.peek() + " is not closed");
+    if (state != State.CONTENT)
+      throw new XmlException("Unexpected end of input inside a tag");
+  }
+
+  /**
+   * Forgets any partly parsed document
+   */
+  void reset() {
+    names.clear();
+    nodes = 0;
+    textLength = 0;
+    state = State.CONTENT;
+  }
+
+  /**
+   * Setter for the limits on the shape of the document
+   * 
+   * @param l The limits, or null for none
+   */
+  void setLimits(XmlLimits l) {
+    limits = l;
+  }
+
+  /**
+   * Setter for the metrics that this parser counts into
+   * 
+   * @param m The metrics, or null to count nothing
+   */
+  void setMetrics(XmlParseMetrics m) {
+    metrics = m;
+  }
+
+  /**
+   * Getter for the number of elements currently open
+   * 
+   * @return The nesting depth
+   */
+  int depth() {
+    return names.size();
+  }
+
+  private XmlException unexpected(XmlTokenType type, String text) {
+    String token = type == XmlTokenType.TEXT ? type.name() + " : " + text : type.name();
+    return new XmlException("Unexpected " + token + (names.isEmpty() ? "" : " in " + names.peek()));
+  }
+
+  private enum State {
+    CONTENT, OPEN, CLOSE_NAME, CLOSE_END, ATTRIBUTES, EQUALS, VALUE_OPEN, VALUE, EMPTY_END, PROLOG;
+  }
+
+  private final XmlHandler handler;
+  private final Stack<String> names = new Stack<String>();
+  private final StringBuilder value = new StringBuilder();
+  private State state = State.CONTENT;
+  private XmlParseMetrics metrics;
+  private XmlLimits limits;
+  private long nodes, textLength, valueLength;
+  private int attributes;
+  private String key, word;
+  private int words;
+}
@@ -5,5 +5,9 @@ public class XmlException extends RuntimeException {
     super(message);
   }
 
+  public XmlException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
   private static final long serialVersionUID = 1L;
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Receives the structure of a document as it is parsed, without a tree being built
+ */
+public interface XmlHandler {
+  /**
+   * Called when a start tag is opened. Its attributes follow.
+   * 
+   * @param name Name of the element
+   */
+  void startElement(String name);
+
+  /**
+   * Called for each attribute of the element most recently started
+   * 
+   * @param key Attribute name
+   * @param value Attribute value, with references decoded
+   */
+  void attribute(String key, String value);
+
+  /**
+   * Called for each whitespace-separated word of text in the current element. The
+   * value of an element is its words joined by single spaces.
+   * 
+   * @param word The word, with references decoded
+   */
+  void text(String word);
+
+  /**
+   * Called when an element is closed
+   * 
+   * @param name Name of the element
+   * @param selfClosing Whether the element was written as a self-closing tag
+   */
+  void endElement(String name, boolean selfClosing);
+}
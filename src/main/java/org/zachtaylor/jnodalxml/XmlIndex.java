@@ -0,0 +1,221 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds records of a large document by key without parsing the document, using an
+ * index written by {@link XmlIndexer}. The keys are held in memory; looking up a
+ * record reads just its bytes from the document and parses them.
+ * <p>
+ * Lookups are thread-safe. An index is tied to the length and modification time of its
+ * document, and cannot be opened once the document has changed.
+ */
+public final class XmlIndex implements Closeable {
+  private XmlIndex(File source, String[] indexKeys, long[] indexOffsets, int[] indexLengths) throws IOException {
+    keys = indexKeys;
+    offsets = indexOffsets;
+    lengths = indexLengths;
+    file = new RandomAccessFile(source, "r");
+    channel = file.getChannel();
+  }
+
+  /**
+   * Opens an index of a document
+   * 
+   * @param source The document
+   * @param index The index written for it
+   * @return The index
+   * @throws IOException If a file cannot be read
+   * @throws XmlException If the index is malformed, or the document has changed since it was written
+   */
+  public static XmlIndex open(File source, File index) throws IOException, XmlException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index), 64 * 1024));
+
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new XmlException(index + " is not an XmlIndex");
+      if (in.readLong() != source.length() || in.readLong() != source.lastModified())
+        throw new XmlException(index + " is out of date for " + source);
+
+      int count = in.readInt();
+      String[] keys = new String[count];
+      long[] offsets = new long[count];
+      int[] lengths = new int[count];
+
+      for (int i = 0; i < count; i++) {
+        byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        keys[i] = new String(key, XmlBinaryWriter.UTF_8);
+        offsets[i] = in.readLong();
+        lengths[i] = in.readInt();
+      }
+
+      return new XmlIndex(source, keys, offsets, lengths);
+    } catch (EOFException e) {
+      throw new XmlException(index + " is truncated", e);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Getter for the number of records indexed
+   * 
+   * @return The number of records
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Tells whether a record has a key
+   * 
+   * @param key The key
+   * @return True if at least one record has it
+   */
+  public boolean containsKey(String key) {
+    return first(key) >= 0;
+  }
+
+  /**
+   * Reads and parses the first record in the document with a key
+   * 
+   * @param key The key
+   * @return The record, or null if no record has the key
+   * @throws IOException If the document cannot be read
+   * @throws XmlException If the record is malformed
+   */
+  public XmlNode get(String key) throws IOException, XmlException {
+    int i = first(key);
+
+    return i < 0 ? null : read(i);
+  }
+
+  /**
+   * Reads and parses every record with a key, in document order
+   * 
+   * @param key The key
+   * @return The records, which is empty if no record has the key
+   * @throws IOException If the document cannot be read
+   * @throws XmlException If a record is malformed
+   */
+  public List<XmlNode> getAll(String key) throws IOException, XmlException {
+    List<XmlNode> records = new ArrayList<XmlNode>();
+
+    for (int i = first(key); i >= 0 && i < keys.length && keys[i].equals(key); i++) {
+      records.add(read(i));
+    }
+
+    return records;
+  }
+
+  /**
+   * Closes the document
+   * 
+   * @throws IOException If the document cannot be closed
+   */
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Writes an index
+   * 
+   * @param out Destination
+   * @param sourceLength Length of the document indexed
+   * @param sourceModified Modification time of the document indexed
+   * @param entries The records, sorted by key and then offset
+   */
+  static void write(DataOutputStream out, long sourceLength, long sourceModified, List<Entry> entries) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(sourceLength);
+    out.writeLong(sourceModified);
+    out.writeInt(entries.size());
+
+    for (Entry entry : entries) {
+      byte[] key = entry.key.getBytes(XmlBinaryWriter.UTF_8);
+      out.writeInt(key.length);
+      out.write(key);
+      out.writeLong(entry.offset);
+      out.writeInt(entry.length);
+    }
+  }
+
+  /**
+   * Finds the first of the records with a key
+   * 
+   * @return Its position in the index, or -1
+   */
+  private int first(String key) {
+    int low = 0, high = keys.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (keys[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+
+    return low < keys.length && keys[low].equals(key) ? low : -1;
+  }
+
+  private XmlNode read(int i) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(lengths[i]);
+    long position = offsets[i];
+
+    // Positional reads leave the channel position alone, so lookups can run at once
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new XmlException("Document ended inside a record at byte " + offsets[i]);
+    }
+
+    List<XmlNode> nodes = new ArrayList<XmlNode>();
+    XmlTokenizer tokens = new XmlTokenizer(new String(buffer.array(), XmlBinaryWriter.UTF_8));
+    XmlParser.parseInternal(tokens, new XmlEventParser(new XmlTreeBuilder(null, nodes)));
+
+    if (nodes.size() != 1)
+      throw new XmlException("Record at byte " + offsets[i] + " is not one element");
+
+    return nodes.get(0);
+  }
+
+  /**
+   * One record found by {@link XmlIndexer}
+   */
+  static final class Entry {
+    Entry(String k, long o, int l) {
+      key = k;
+      offset = o;
+      length = l;
+    }
+
+    final String key;
+    final long offset;
+    final int length;
+  }
+
+  private static final int MAGIC = 0x4A4E5849, VERSION = 1;
+
+  private final String[] keys;
+  private final long[] offsets;
+  private final int[] lengths;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+}
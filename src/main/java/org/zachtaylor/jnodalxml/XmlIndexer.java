@@ -0,0 +1,417 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds an {@link XmlIndex} over the records of a large document in one streaming
+ * pass. Records are the elements at a path of names from the root, such as
+ * "catalog/book", and each is indexed under one of its attributes or the value of one
+ * of its children.
+ * <p>
+ * The document is scanned as bytes rather than parsed, recording where each record
+ * begins and ends, so it must be in UTF-8 or another encoding that writes markup
+ * characters as single ASCII bytes. Only the key of each record is decoded.
+ */
+public final class XmlIndexer {
+  /**
+   * Constructor for XmlIndexer
+   * 
+   * @param recordPath Names of the elements from the root down to the records, separated by '/'
+   */
+  public XmlIndexer(String recordPath) {
+    String[] names = recordPath.split("/");
+    path = new byte[names.length][];
+
+    for (int i = 0; i < names.length; i++) {
+      path[i] = names[i].getBytes(XmlBinaryWriter.UTF_8);
+    }
+  }
+
+  /**
+   * Setter for the attribute of each record that it is indexed under
+   * 
+   * @param key The attribute key
+   * @return This indexer
+   */
+  public XmlIndexer setKeyAttribute(String key) {
+    keyAttribute = key.getBytes(XmlBinaryWriter.UTF_8);
+    keyChild = null;
+    return this;
+  }
+
+  /**
+   * Setter for the child of each record whose value it is indexed under, the first if
+   * there are several
+   * 
+   * @param name The child name
+   * @return This indexer
+   */
+  public XmlIndexer setKeyChild(String name) {
+    keyChild = name.getBytes(XmlBinaryWriter.UTF_8);
+    keyAttribute = null;
+    return this;
+  }
+
+  /**
+   * Scans a document and writes the index of its records. Records without a key are
+   * not indexed.
+   * 
+   * @param source The document
+   * @param index Where to write the index
+   * @return The index, open for lookups
+   * @throws IOException If a file cannot be read or written
+   * @throws XmlException If no key is set, or the document is malformed
+   */
+  public XmlIndex build(File source, File index) throws IOException, XmlException {
+    if (keyAttribute == null && keyChild == null)
+      throw new XmlException("No key attribute or child set");
+
+    long length = source.length(), modified = source.lastModified();
+    Scan scan = new Scan();
+    InputStream in = new FileInputStream(source);
+
+    try {
+      scan.run(in);
+    } finally {
+      in.close();
+    }
+
+    List<XmlIndex.Entry> entries = scan.entries;
+    Collections.sort(entries, new Comparator<XmlIndex.Entry>() {
+      public int compare(XmlIndex.Entry a, XmlIndex.Entry b) {
+        int c = a.key.compareTo(b.key);
+        return c != 0 ? c : Long.compare(a.offset, b.offset);
+      }
+    });
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), 64 * 1024));
+
+    try {
+      XmlIndex.write(out, length, modified, entries);
+    } finally {
+      out.close();
+    }
+
+    return XmlIndex.open(source, index);
+  }
+
+  /**
+   * The state of one scan: a byte-level state machine that collects each tag before
+   * looking at it
+   */
+  private final class Scan {
+    void run(InputStream in) throws IOException {
+      byte[] buffer = new byte[64 * 1024];
+      long base = 0;
+
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        for (int i = 0; i < n; i++) {
+          consume(buffer[i], base + i);
+        }
+
+        base += n;
+      }
+
+      if (state != TEXT || depth != 0)
+        throw new XmlException("Document ended inside an element");
+    }
+
+    private void consume(byte b, long offset) {
+      switch (state) {
+      case TEXT:
+        if (b == '<') {
+          state = TAG;
+          tagStart = offset;
+          tagLength = 0;
+          quote = 0;
+          brackets = 0;
+        }
+        else if (capturing) {
+          key.add(b);
+        }
+        break;
+
+      case TAG:
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        }
+        else if (b == '"' || b == '\'') {
+          quote = b;
+        }
+        else if (b == '[' && tagLength > 0 && tag[0] == '!') {
+          brackets++;
+        }
+        else if (b == ']' && brackets > 0) {
+          brackets--;
+        }
+        else if (b == '>' && brackets == 0) {
+          state = TEXT;
+          tag(offset + 1);
+          break;
+        }
+
+        if (tagLength == tag.length) {
+          tag = Arrays.copyOf(tag, tag.length * 2);
+        }
+        tag[tagLength++] = b;
+
+        if (tagLength == 3 && startsWith(COMMENT_OPEN)) {
+          state = COMMENT;
+          ends = 0;
+        }
+        else if (tagLength == 8 && startsWith(CDATA_OPEN)) {
+          state = CDATA;
+          ends = 0;
+        }
+        break;
+
+      case COMMENT:
+        if (b == '>' && ends >= 2) {
+          state = TEXT;
+        }
+        ends = b == '-' ? ends + 1 : 0;
+        break;
+
+      case CDATA:
+        if (b == '>' && ends >= 2) {
+          state = TEXT;
+          // The first "]]" was captured before the end was seen
+          key.length -= capturing ? 2 : 0;
+        }
+        else if (capturing) {
+          key.add(b);
+        }
+        ends = b == ']' ? ends + 1 : 0;
+        break;
+      }
+    }
+
+    /**
+     * Looks at a complete tag
+     * 
+     * @param end Offset just after its '&gt;'
+     */
+    private void tag(long end) {
+      if (tagLength == 0)
+        throw new XmlException("Empty tag at byte " + tagStart);
+
+      byte first = tag[0];
+
+      if (first == '?' || first == '!')
+        return;
+
+      if (first == '/') {
+        endTag(end);
+        return;
+      }
+
+      int nameEnd = nameEnd(0);
+      boolean selfClosing = tag[tagLength - 1] == '/';
+
+      if (matched == depth && depth < path.length && equals(0, nameEnd, path[depth])) {
+        matched++;
+
+        if (matched == path.length) {
+          recordStart = tagStart;
+          recordKey = keyAttribute != null ? attribute(nameEnd, keyAttribute) : null;
+        }
+      }
+      else if (matched == path.length && depth == path.length && keyChild != null && recordKey == null && equals(0, nameEnd, keyChild)) {
+        if (selfClosing) {
+          recordKey = "";
+        }
+        else {
+          capturing = true;
+          key.length = 0;
+        }
+      }
+
+      depth++;
+
+      if (selfClosing) {
+        close(end);
+      }
+    }
+
+    private void endTag(long end) {
+      if (depth == 0)
+        throw new XmlException("Unmatched end tag at byte " + tagStart);
+
+      if (capturing && depth == path.length + 1) {
+        capturing = false;
+        recordKey = key.text();
+      }
+
+      close(end);
+    }
+
+    private void close(long end) {
+      depth--;
+
+      if (matched == depth + 1) {
+        matched--;
+
+        if (matched == path.length - 1 && recordKey != null) {
+          long length = end - recordStart;
+
+          if (length > Integer.MAX_VALUE)
+            throw new XmlException("Record at byte " + recordStart + " is too large to index");
+
+          entries.add(new XmlIndex.Entry(recordKey, recordStart, (int) length));
+          recordKey = null;
+        }
+      }
+    }
+
+    /**
+     * Finds an attribute of the tag
+     * 
+     * @return Its value with references decoded, or null if the tag does not have it
+     */
+    private String attribute(int i, byte[] name) {
+      while (i < tagLength) {
+        while (i < tagLength && isSpace(tag[i])) {
+          i++;
+        }
+
+        int nameBegin = i;
+        while (i < tagLength && tag[i] != '=' && !isSpace(tag[i]) && tag[i] != '/') {
+          i++;
+        }
+        int nameEnd = i;
+
+        while (i < tagLength && isSpace(tag[i])) {
+          i++;
+        }
+
+        if (i == tagLength || tag[i] != '=') {
+          i++;
+          continue;
+        }
+
+        i++;
+        while (i < tagLength && isSpace(tag[i])) {
+          i++;
+        }
+
+        if (i == tagLength)
+          break;
+
+        byte q = tag[i];
+        int valueBegin = ++i;
+
+        while (i < tagLength && tag[i] != q) {
+          i++;
+        }
+
+        if (equals(nameBegin, nameEnd, name))
+          return XmlEntities.unescape(new String(tag, valueBegin, i - valueBegin, XmlBinaryWriter.UTF_8));
+
+        i++;
+      }
+
+      return null;
+    }
+
+    private int nameEnd(int i) {
+      while (i < tagLength && !isSpace(tag[i]) && tag[i] != '/') {
+        i++;
+      }
+
+      return i;
+    }
+
+    private boolean equals(int begin, int end, byte[] name) {
+      if (end - begin != name.length)
+        return false;
+
+      for (int i = 0; i < name.length; i++) {
+        if (tag[begin + i] != name[i])
+          return false;
+      }
+
+      return true;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+      return equals(0, prefix.length, prefix);
+    }
+
+    private final List<XmlIndex.Entry> entries = new ArrayList<XmlIndex.Entry>();
+    private final Key key = new Key();
+    private byte[] tag = new byte[256];
+    private int state = TEXT, tagLength, depth, matched, ends, brackets;
+    private byte quote;
+    private long tagStart, recordStart;
+    private String recordKey;
+    private boolean capturing;
+  }
+
+  /**
+   * The bytes of a key child's text
+   */
+  private static final class Key {
+    void add(byte b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+
+      bytes[length++] = b;
+    }
+
+    /**
+     * Decodes the text, collapsing whitespace as the tokenizer does
+     */
+    String text() {
+      StringBuilder sb = new StringBuilder();
+      int i = 0;
+
+      while (i < length) {
+        while (i < length && isSpace(bytes[i])) {
+          i++;
+        }
+
+        int begin = i;
+        while (i < length && !isSpace(bytes[i])) {
+          i++;
+        }
+
+        if (i > begin) {
+          if (sb.length() > 0) {
+            sb.append(' ');
+          }
+
+          sb.append(XmlEntities.unescape(new String(bytes, begin, i - begin, XmlBinaryWriter.UTF_8)));
+        }
+      }
+
+      return sb.toString();
+    }
+
+    byte[] bytes = new byte[64];
+    int length;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  private static final int TEXT = 0, TAG = 1, COMMENT = 2, CDATA = 3;
+  private static final byte[] COMMENT_OPEN = { '!', '-', '-' }, CDATA_OPEN = { '!', '[', 'C', 'D', 'A', 'T', 'A', '[' };
+
+  private final byte[][] path;
+  private byte[] keyAttribute, keyChild;
+}
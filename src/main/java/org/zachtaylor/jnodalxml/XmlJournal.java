@@ -0,0 +1,269 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the modifications made to a tree, so that they can be sent to and made to a
+ * copy of it elsewhere instead of sending the whole tree. Once a journal is attached
+ * to a root, every mutator of {@link XmlNode} called on a node of its tree records an
+ * {@link XmlChange}. Changes wait until {@link #commit()}, which encodes them as one
+ * compact delta and hands it to the listeners; {@link #apply(XmlNode, byte[])} makes
+ * the changes of a delta to a replica.
+ * <p>
+ * Like the nodes it watches, a journal is not thread-safe. Nodes detached from the tree
+ * are no longer recorded.
+ */
+public final class XmlJournal {
+  /**
+   * Attaches a new journal to the tree rooted at root, replacing any attached before
+   * 
+   * @param root The root of the tree
+   */
+  public XmlJournal(XmlNode root) {
+    this.root = root;
+    root.setJournal(this);
+  }
+
+  /**
+   * Getter for the root of the tree this journal records
+   * 
+   * @return The root
+   */
+  public XmlNode getRoot() {
+    return root;
+  }
+
+  /**
+   * Adds a listener told of every batch committed
+   * 
+   * @param listener The listener
+   * @return This journal
+   */
+  public XmlJournal addListener(XmlJournalListener listener) {
+    listeners.add(listener);
+    return this;
+  }
+
+  /**
+   * Removes a listener added before
+   * 
+   * @param listener The listener
+   * @return This journal
+   */
+  public XmlJournal removeListener(XmlJournalListener listener) {
+    listeners.remove(listener);
+    return this;
+  }
+
+  /**
+   * Getter for the changes recorded since the last commit
+   * 
+   * @return An unmodifiable list of changes
+   */
+  public List<XmlChange> getPending() {
+    return Collections.unmodifiableList(pending);
+  }
+
+  /**
+   * Ends the current batch: encodes the changes recorded since the last commit, tells
+   * the listeners, and starts a new batch
+   * 
+   * @return The encoded changes, which is an empty batch if nothing changed
+   */
+  public byte[] commit() {
+    List<XmlChange> changes = pending;
+    pending = new ArrayList<XmlChange>();
+
+    byte[] delta = encode(changes);
+    changes = Collections.unmodifiableList(changes);
+
+    for (XmlJournalListener listener : listeners) {
+      listener.committed(changes, delta);
+    }
+
+    return delta;
+  }
+
+  /**
+   * Stops recording, dropping the changes not committed
+   */
+  public void detach() {
+    root.setJournal(null);
+    pending.clear();
+  }
+
+  /**
+   * Makes the changes of a delta to a replica
+   * 
+   * @param root The root of a tree equal to the recorded tree as it was before the changes
+   * @param delta Changes encoded by {@link #commit()} or {@link #encode(List)}
+   * @throws XmlException If the delta is malformed or does not fit the tree
+   */
+  public static void apply(XmlNode root, byte[] delta) throws XmlException {
+    for (XmlChange change : decode(delta)) {
+      change.applyTo(root);
+    }
+  }
+
+  /**
+   * Encodes changes compactly: numbers as variable-length integers and strings as UTF-8
+   * 
+   * @param changes The changes
+   * @return The delta
+   */
+  public static byte[] encode(List<XmlChange> changes) {
+    XmlBinaryWriter out = new XmlBinaryWriter();
+
+    out.write(VERSION);
+    out.number(changes.size());
+
+    for (XmlChange change : changes) {
+      int[] path = change.getPath();
+
+      out.write(change.getType().ordinal());
+      out.number(path.length);
+      for (int i : path) {
+        out.number(i);
+      }
+
+      switch (change.getType()) {
+      case SET_NAME:
+      case SET_VALUE:
+      case SET_SELF_CLOSING:
+        out.string(change.getValue());
+        break;
+      case ADD_ATTRIBUTE:
+        out.string(change.getKey());
+        out.string(change.getValue());
+        break;
+      case REMOVE_ATTRIBUTE:
+        out.string(change.getKey());
+        break;
+      case ADD_CHILD:
+        out.node(change.getChild());
+        break;
+      case REMOVE_CHILD:
+        out.number(change.getIndex());
+        break;
+      default:
+        break;
+      }
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a delta
+   * 
+   * @param delta Changes encoded by {@link #encode(List)}
+   * @return The changes
+   * @throws XmlException If the delta is malformed
+   */
+  public static List<XmlChange> decode(byte[] delta) throws XmlException {
+    XmlBinaryReader in = new XmlBinaryReader(delta);
+
+    if (in.read() != VERSION)
+      throw new XmlException("Unknown journal delta version");
+
+    int count = in.number();
+    List<XmlChange> changes = new ArrayList<XmlChange>(Math.min(count, delta.length));
+    XmlChange.Type[] types = XmlChange.Type.values();
+
+    for (int c = 0; c < count; c++) {
+      int type = in.read();
+
+      if (type >= types.length)
+        throw new XmlException("Unknown journal change type " + type);
+
+      int[] path = new int[in.number()];
+      for (int i = 0; i < path.length; i++) {
+        path[i] = in.number();
+      }
+
+      String key = null, value = null;
+      XmlNode child = null;
+      int index = -1;
+
+      switch (types[type]) {
+      case SET_NAME:
+      case SET_VALUE:
+      case SET_SELF_CLOSING:
+        value = in.string();
+        break;
+      case ADD_ATTRIBUTE:
+        key = in.string();
+        value = in.string();
+        break;
+      case REMOVE_ATTRIBUTE:
+        key = in.string();
+        break;
+      case ADD_CHILD:
+        child = in.node();
+        break;
+      case REMOVE_CHILD:
+        index = in.number();
+        break;
+      default:
+        break;
+      }
+
+      changes.add(new XmlChange(types[type], path, key, value, child, index));
+    }
+
+    if (!in.isAtEnd())
+      throw new XmlException("Trailing bytes in journal delta");
+
+    return changes;
+  }
+
+  /**
+   * Records a change to node, if node is still in the tree of this journal
+   */
+  void record(XmlNode node, XmlChange.Type type, String key, String value) {
+    record(node, type, key, value, null, -1);
+  }
+
+  void childAdded(XmlNode parent, XmlNode child) {
+    record(parent, XmlChange.Type.ADD_CHILD, null, null, child.copy(), -1);
+  }
+
+  void childRemoved(XmlNode parent, int index) {
+    record(parent, XmlChange.Type.REMOVE_CHILD, null, null, null, index);
+  }
+
+  private void record(XmlNode node, XmlChange.Type type, String key, String value, XmlNode child, int index) {
+    int depth = 0;
+    XmlNode top = node;
+
+    while (top != root && top.getParent() != null) {
+      top = top.getParent();
+      depth++;
+    }
+
+    if (top != root)
+      return;
+
+    int[] path = new int[depth];
+
+    for (XmlNode n = node; n != root; n = n.getParent()) {
+      int position = n.getParent().indexOfChild(n);
+
+      // A node its parent no longer holds has left the tree
+      if (position < 0)
+        return;
+
+      path[--depth] = position;
+    }
+
+    pending.add(new XmlChange(type, path, key, value, child, index));
+  }
+
+  private static final int VERSION = 1;
+
+  private final XmlNode root;
+  private final List<XmlJournalListener> listeners = new ArrayList<XmlJournalListener>();
+  private List<XmlChange> pending = new ArrayList<XmlChange>();
+}
@@ -0,0 +1,16 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.List;
+
+/**
+ * Receives each batch of changes committed by an {@link XmlJournal}
+ */
+public interface XmlJournalListener {
+  /**
+   * Called by {@link XmlJournal#commit()} on the thread that commits
+   * 
+   * @param changes The changes of the batch, in the order they were made
+   * @param delta The same changes encoded for {@link XmlJournal#apply(XmlNode, byte[])}
+   */
+  void committed(List<XmlChange> changes, byte[] delta);
+}
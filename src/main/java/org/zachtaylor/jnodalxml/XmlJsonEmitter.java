@@ -0,0 +1,310 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Writes JSON from {@link XmlHandler} events, in the conventions of an
+ * {@link XmlJsonTranscoder}. What an element becomes is only known once its
+ * attributes, text or first child arrive, so each open element keeps the state of
+ * the JSON written for it so far.
+ * <p>
+ * An array stays open until its parent closes, since another member may still come.
+ * Siblings of other names that follow it are written to a buffer per name instead,
+ * and the buffers are appended to the parent after the array is closed.
+ */
+final class XmlJsonEmitter implements XmlHandler {
+  XmlJsonEmitter(XmlJsonTranscoder jsonOptions, Appendable output) {
+    options = jsonOptions;
+    out = output;
+  }
+
+  /**
+   * Opens the object that holds the top-level elements
+   */
+  void begin() throws XmlException {
+    Frame document = new Frame(null, out);
+    document.state = State.OBJECT;
+    frames.push(document);
+    write('{');
+  }
+
+  /**
+   * Closes the object that holds the top-level elements
+   */
+  void end() throws XmlException {
+    closeArray(frames.pop());
+    write('}');
+  }
+
+  /**
+   * Writes the opening of a child, choosing where the child is written
+   * 
+   * @return Where the child is written
+   */
+  private Appendable openChild(Frame parent, String name) {
+    boolean array = options.isArray(name);
+
+    if (name.equals(parent.openArray)) {
+      write(',');
+      return parent.sink;
+    }
+
+    if (parent.openArray == null) {
+      if (parent.seen == null) {
+        parent.seen = new HashSet<String>();
+      }
+      if (!parent.seen.add(name))
+        throw new XmlException("Element " + name + " repeats but is not declared as an array");
+
+      if (parent.entries++ > 0) {
+        write(',');
+      }
+      writeString(name);
+      write(':');
+
+      if (array) {
+        write('[');
+        parent.openArray = name;
+      }
+
+      return parent.sink;
+    }
+
+    // An array is open, so this sibling is held until the parent closes
+    if (parent.groups == null) {
+      parent.groups = new LinkedHashMap<String, StringBuilder>();
+    }
+
+    StringBuilder group = parent.groups.get(name);
+
+    if (group != null) {
+      if (!array)
+        throw new XmlException("Element " + name + " repeats but is not declared as an array");
+
+      group.append(',');
+    }
+    else {
+      if (parent.seen != null && parent.seen.contains(name))
+        throw new XmlException("Element " + name + " repeats but is not declared as an array");
+
+      group = new StringBuilder();
+      parent.groups.put(name, group);
+      out = group;
+      writeString(name);
+      write(':');
+
+      if (array) {
+        write('[');
+      }
+    }
+
+    return group;
+  }
+
+  public void startElement(String name) {
+    if (skipped > 0 || name.startsWith("?")) {
+      // Processing instructions are not part of the JSON
+      skipped++;
+      return;
+    }
+
+    Frame parent = frames.peek();
+
+    if (parent.state == State.TEXT || parent.state == State.TEXT_IN_OBJECT)
+      throw new XmlException("Element " + parent.name + " has both text and children");
+
+    openObject(parent);
+
+    Appendable sink = openChild(parent, name);
+
+    parent.children = true;
+    frames.push(new Frame(name, sink));
+    out = sink;
+  }
+
+  public void attribute(String key, String value) {
+    if (skipped > 0) {
+      return;
+    }
+
+    Frame frame = frames.peek();
+
+    openObject(frame);
+
+    if (frame.entries++ > 0) {
+      write(',');
+    }
+    writeString(options.getAttributePrefix() + key);
+    write(':');
+    writeString(value);
+  }
+
+  public void text(String word) {
+    if (skipped > 0) {
+      return;
+    }
+
+    Frame frame = frames.peek();
+
+    switch (frame.state) {
+    case PENDING:
+      write('"');
+      frame.state = State.TEXT;
+      break;
+
+    case OBJECT:
+      if (frame.children)
+        throw new XmlException("Element " + frame.name + " has both text and children");
+
+      write(',');
+      writeString(options.getTextKey());
+      write(":\"");
+      frame.state = State.TEXT_IN_OBJECT;
+      break;
+
+    default:
+      write(' ');
+    }
+
+    escape(word);
+  }
+
+  public void endElement(String name, boolean selfClosing) {
+    if (skipped > 0) {
+      skipped--;
+      return;
+    }
+
+    Frame frame = frames.pop();
+
+    switch (frame.state) {
+    case PENDING:
+      write("null");
+      break;
+
+    case TEXT:
+      write('"');
+      break;
+
+    case TEXT_IN_OBJECT:
+      write("\"}");
+      break;
+
+    case OBJECT:
+      closeArray(frame);
+      write('}');
+      break;
+    }
+
+    out = frames.peek().sink;
+  }
+
+  private void openObject(Frame frame) {
+    if (frame.state == State.PENDING) {
+      write('{');
+      frame.state = State.OBJECT;
+    }
+  }
+
+  /**
+   * Closes the open array of a frame, then appends the siblings held after it
+   */
+  private void closeArray(Frame frame) {
+    if (frame.openArray != null) {
+      write(']');
+      frame.openArray = null;
+    }
+
+    if (frame.groups != null) {
+      for (Map.Entry<String, StringBuilder> group : frame.groups.entrySet()) {
+        write(',');
+        write(group.getValue());
+
+        if (options.isArray(group.getKey())) {
+          write(']');
+        }
+      }
+
+      frame.groups = null;
+    }
+  }
+
+  private void writeString(String s) {
+    write('"');
+    escape(s);
+    write('"');
+  }
+
+  private void escape(String s) {
+    int start = 0;
+
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+
+      if (c == '"' || c == '\\' || c < 0x20 || c == 0x2028 || c == 0x2029) {
+        write(s, start, i);
+        start = i + 1;
+
+        if (c == '"' || c == '\\') {
+          write('\\');
+          write(c);
+        }
+        else {
+          write(String.format("\\u%04x", (int) c));
+        }
+      }
+    }
+
+    write(s, start, s.length());
+  }
+
+  private void write(char c) {
+    try {
+      out.append(c);
+    } catch (IOException e) {
+      throw new XmlException("Cannot write JSON", e);
+    }
+  }
+
+  private void write(CharSequence s) {
+    write(s, 0, s.length());
+  }
+
+  private void write(CharSequence s, int begin, int end) {
+    try {
+      out.append(s, begin, end);
+    } catch (IOException e) {
+      throw new XmlException("Cannot write JSON", e);
+    }
+  }
+
+  private enum State {
+    PENDING, OBJECT, TEXT, TEXT_IN_OBJECT;
+  }
+
+  private static final class Frame {
+    Frame(String elementName, Appendable output) {
+      name = elementName;
+      sink = output;
+    }
+
+    final String name;
+    final Appendable sink;
+    State state = State.PENDING;
+    Set<String> seen;
+    Map<String, StringBuilder> groups;
+    String openArray;
+    int entries;
+    boolean children;
+  }
+
+  private final XmlJsonTranscoder options;
+  private Appendable out;
+  private final Stack<Frame> frames = new Stack<Frame>();
+  private int skipped;
+}
@@ -0,0 +1,124 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Converts a document to JSON as it is tokenized, without building a tree, so memory
+ * use depends on the nesting depth of the document and not its size. The exception is
+ * an element with an array among its children: siblings that follow the first member
+ * are held in memory until the element closes, so that later members can still join
+ * the array.
+ * <p>
+ * The document becomes one object keyed by its top-level element names. An element
+ * with neither attributes nor children becomes its value as a string, or null if it
+ * has none; any other element becomes an object holding its attributes, under the
+ * attribute prefix, and its children, or its value under the text key. Since output
+ * cannot be revised once written, children that repeat must be declared as arrays, by
+ * name or all at once.
+ */
+public class XmlJsonTranscoder {
+  /**
+   * Setter for the prefix of attribute keys, by default "@"
+   * 
+   * @param prefix The prefix
+   * @return This transcoder
+   */
+  public XmlJsonTranscoder setAttributePrefix(String prefix) {
+    attributePrefix = prefix;
+    return this;
+  }
+
+  /**
+   * Setter for the key of the value of an element that also has attributes, by
+   * default "#text"
+   * 
+   * @param key The key
+   * @return This transcoder
+   */
+  public XmlJsonTranscoder setTextKey(String key) {
+    textKey = key;
+    return this;
+  }
+
+  /**
+   * Declares element names that are always written as arrays, with all siblings of
+   * the name grouped into one array even when other elements come between them
+   * 
+   * @param names The element names
+   * @return This transcoder
+   */
+  public XmlJsonTranscoder addArrayNames(Collection<String> names) {
+    arrayNames.addAll(names);
+    return this;
+  }
+
+  /**
+   * Setter for whether every element is written as an array, so that any document can
+   * be converted without declaring names
+   * 
+   * @param b Whether all elements are arrays
+   * @return This transcoder
+   */
+  public XmlJsonTranscoder setAlwaysArrays(boolean b) {
+    alwaysArrays = b;
+    return this;
+  }
+
+  /**
+   * Converts a document to JSON
+   * 
+   * @param tokens The document
+   * @param out Destination for the JSON
+   * @throws XmlException If the document is malformed, has an undeclared repeated element, or out throws
+   */
+  public void transcode(XmlTokenizer tokens, Appendable out) throws XmlException {
+    XmlJsonEmitter emitter = new XmlJsonEmitter(this, out);
+
+    emitter.begin();
+    XmlParser.parse(tokens, new XmlEventParser(emitter));
+    emitter.end();
+  }
+
+  /**
+   * Converts a document to JSON encoded as UTF-8. The stream is flushed but not closed.
+   * 
+   * @param tokens The document
+   * @param out Destination for the JSON
+   * @throws XmlException If the document is malformed, has an undeclared repeated element, or out throws
+   */
+  public void transcode(XmlTokenizer tokens, OutputStream out) throws XmlException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+
+    transcode(tokens, writer);
+
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new XmlException("Cannot write JSON", e);
+    }
+  }
+
+  String getAttributePrefix() {
+    return attributePrefix;
+  }
+
+  String getTextKey() {
+    return textKey;
+  }
+
+  boolean isArray(String name) {
+    return alwaysArrays || arrayNames.contains(name);
+  }
+
+  private final Set<String> arrayNames = new HashSet<String>();
+  private String attributePrefix = "@", textKey = "#text";
+  private boolean alwaysArrays = false;
+}
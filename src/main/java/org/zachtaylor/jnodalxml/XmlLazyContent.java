@@ -0,0 +1,331 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.zachtaylor.jnodalxml.XmlLimitException.Limit;
+
+/**
+ * Records the extent of an element's content within the source document, so that
+ * its children and value are only built when they are first asked for
+ */
+final class XmlLazyContent {
+  XmlLazyContent(String sourceString, int beginIndex, int endIndex, XmlLimits contentLimits) {
+    source = sourceString;
+    begin = beginIndex;
+    end = endIndex;
+    limits = contentLimits;
+  }
+
+  /**
+   * Scans the recorded content one level deep
+   * 
+   * @param text Receives the content text, whitespace collapsed as the tokenizer would
+   * @return The child elements, each of which is itself lazy
+   * @throws XmlLimitException If the content exceeds the limits it was scanned with
+   */
+  List<XmlNode> scan(StringBuilder text) {
+    return scan(source, begin, end, text, limits);
+  }
+
+  /**
+   * Skip-scans a region of a document, building only the start tags of the elements
+   * found at the top level of the region. The content of every element found is
+   * recorded as a new XmlLazyContent rather than parsed.
+   * 
+   * @param s The document
+   * @param begin Index to start scanning at
+   * @param end Index to stop scanning at
+   * @param text Receives the text found between the elements
+   * @param limits Limits that every tag is checked against for depth and count as it is skipped, and the elements found
+   *          for the rest, which are kept with their content for when it is scanned; or null for none
+   * @return The elements found at the top level of the region
+   * @throws XmlLimitException If the region exceeds a limit
+   * @throws XmlException If a start tag is malformed or an element is not closed
+   */
+  static List<XmlNode> scan(String s, int begin, int end, StringBuilder text, XmlLimits limits) throws XmlException {
+    List<XmlNode> nodes = new ArrayList<XmlNode>();
+    // Start tags found so far, among the elements found and within their content
+    long[] count = { 0 };
+    int i = begin;
+
+    while (i < end) {
+      int open = s.indexOf('<', i);
+
+      if (open < 0 || open >= end) {
+        open = end;
+      }
+
+      appendText(s, i, open, text, true);
+
+      if (open == end) {
+        break;
+      }
+
+      if (s.startsWith("<!--", open)) {
+        i = skipComment(s, open, end);
+      }
+      else if (s.startsWith(CDATA, open)) {
+        int close = skipCData(s, open, end);
+        appendText(s, open + CDATA.length(), close - 3, text, false);
+        i = close;
+      }
+      else {
+        i = scanElement(s, open, end, nodes, limits, count);
+      }
+    }
+
+    if (limits != null) {
+      limits.check(Limit.TEXT_LENGTH, text.length());
+    }
+
+    return nodes;
+  }
+
+  private static int scanElement(String s, int open, int end, List<XmlNode> nodes, XmlLimits limits, long[] count) {
+    int i = skipWhitespace(s, open + 1, end);
+    int nameEnd = nameEnd(s, i, end);
+
+    if (nameEnd == i)
+      throw new XmlException("Missing element name at offset " + open);
+    if (limits != null) {
+      limits.check(Limit.NAME_LENGTH, nameEnd - i);
+      limits.check(Limit.NODES, ++count[0]);
+    }
+
+    XmlNode node = new XmlNode(s.substring(i, nameEnd));
+    nodes.add(node);
+
+    if (s.charAt(i) == '?') {
+      node.setSelfClosing(true);
+      return tagEnd(s, nameEnd, end) + 1;
+    }
+
+    i = nameEnd;
+    int attributes = 0;
+
+    while (true) {
+      i = skipWhitespace(s, i, end);
+
+      if (i >= end)
+        throw new XmlException("Unterminated start tag at offset " + open);
+
+      char c = s.charAt(i);
+
+      if (c == '>') {
+        i++;
+        break;
+      }
+      else if (c == '/') {
+        i = skipWhitespace(s, i + 1, end);
+        expect(s, i, end, '>');
+        node.setSelfClosing(true);
+        return i + 1;
+      }
+
+      int keyEnd = nameEnd(s, i, end);
+      if (keyEnd == i)
+        throw new XmlException("Missing attribute name at offset " + i);
+
+      String key = s.substring(i, keyEnd);
+
+      if (limits != null) {
+        limits.check(Limit.NAME_LENGTH, keyEnd - i);
+        limits.check(Limit.ATTRIBUTES, ++attributes);
+      }
+
+      i = skipWhitespace(s, keyEnd, end);
+      expect(s, i, end, '=');
+      i = skipWhitespace(s, i + 1, end);
+      expect(s, i, end, '"');
+
+      int quote = s.indexOf('"', i + 1);
+      if (quote < 0 || quote >= end)
+        throw new XmlException("Unterminated attribute value at offset " + i);
+
+      StringBuilder value = new StringBuilder(quote - i);
+      appendText(s, i + 1, quote, value, true);
+      if (limits != null) {
+        limits.check(Limit.TEXT_LENGTH, value.length());
+      }
+      node.addAttribute(key, value.toString());
+
+      i = quote + 1;
+    }
+
+    return skipContent(s, node, i, end, limits, count);
+  }
+
+  /**
+   * Finds the end tag matching the element whose content starts at contentBegin by
+   * counting nesting depth only. Nested tags are checked when they are materialized,
+   * apart from their depth and count; the depth is relative to the element, so it is
+   * exact for top-level elements and no more than the real depth for the rest.
+   */
+  private static int skipContent(String s, XmlNode node, int contentBegin, int end, XmlLimits limits, long[] count) {
+    int depth = 1;
+    int i = contentBegin;
+
+    while (true) {
+      int open = s.indexOf('<', i);
+
+      if (open < 0 || open >= end)
+        throw new XmlException("Element " + node.getName() + " is not closed");
+
+      if (s.startsWith("<!--", open)) {
+        i = skipComment(s, open, end);
+        continue;
+      }
+      else if (s.startsWith(CDATA, open)) {
+        i = skipCData(s, open, end);
+        continue;
+      }
+
+      int j = skipWhitespace(s, open + 1, end);
+      int close = tagEnd(s, j, end);
+
+      if (j < end && s.charAt(j) == '/') {
+        if (--depth == 0) {
+          int nameBegin = skipWhitespace(s, j + 1, close);
+          String name = node.getName();
+
+          if (nameEnd(s, nameBegin, close) - nameBegin != name.length() || !s.startsWith(name, nameBegin))
+            throw new XmlException("Closing tag at offset " + open + " does not match " + name);
+
+          node.setLazyContent(new XmlLazyContent(s, contentBegin, open, limits));
+          return close + 1;
+        }
+      }
+      else if (j < end && s.charAt(j) != '?' && s.charAt(j) != '!') {
+        if (limits != null) {
+          limits.check(Limit.DEPTH, depth + 1);
+          limits.check(Limit.NODES, ++count[0]);
+        }
+        if (!isSelfClosing(s, j, close)) {
+          depth++;
+        }
+      }
+
+      i = close + 1;
+    }
+  }
+
+  /**
+   * Appends the whitespace-separated words of a region to text, separated by single
+   * spaces and with references optionally decoded, which is how the tokenizer and
+   * parser join text
+   */
+  private static void appendText(String s, int begin, int end, StringBuilder text, boolean decode) {
+    int i = begin;
+
+    while (i < end) {
+      i = skipWhitespace(s, i, end);
+
+      int wordEnd = i;
+      while (wordEnd < end && !Character.isWhitespace(s.charAt(wordEnd))) {
+        wordEnd++;
+      }
+
+      if (wordEnd > i) {
+        if (text.length() > 0) {
+          text.append(' ');
+        }
+        if (decode) {
+          XmlEntities.unescape(s, i, wordEnd, text);
+        }
+        else {
+          text.append(s, i, wordEnd);
+        }
+      }
+
+      i = wordEnd;
+    }
+  }
+
+  private static int skipComment(String s, int open, int end) {
+    int close = s.indexOf("-->", open + 4);
+
+    if (close < 0 || close + 3 > end)
+      throw new XmlException("Unterminated comment at offset " + open);
+
+    return close + 3;
+  }
+
+  private static int skipCData(String s, int open, int end) {
+    int close = s.indexOf("]]>", open + CDATA.length());
+
+    if (close < 0 || close + 3 > end)
+      throw new XmlException("Unterminated character data at offset " + open);
+
+    return close + 3;
+  }
+
+  private static int skipWhitespace(String s, int i, int end) {
+    while (i < end && Character.isWhitespace(s.charAt(i))) {
+      i++;
+    }
+
+    return i;
+  }
+
+  private static int nameEnd(String s, int i, int end) {
+    while (i < end) {
+      char c = s.charAt(i);
+
+      if (Character.isWhitespace(c) || c == '/' || c == '>' || c == '<' || c == '=' || c == '"') {
+        break;
+      }
+
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Finds the '>' ending a tag, skipping over quoted attribute values
+   */
+  private static int tagEnd(String s, int i, int end) {
+    while (i < end) {
+      char c = s.charAt(i);
+
+      if (c == '>') {
+        return i;
+      }
+      else if (c == '"') {
+        int quote = s.indexOf('"', i + 1);
+
+        if (quote < 0 || quote >= end) {
+          break;
+        }
+
+        i = quote;
+      }
+
+      i++;
+    }
+
+    throw new XmlException("Unterminated tag at offset " + i);
+  }
+
+  private static boolean isSelfClosing(String s, int begin, int close) {
+    int i = close - 1;
+
+    while (i > begin && Character.isWhitespace(s.charAt(i))) {
+      i--;
+    }
+
+    return s.charAt(i) == '/';
+  }
+
+  private static void expect(String s, int i, int end, char c) {
+    if (i >= end || s.charAt(i) != c)
+      throw new XmlException("Expected '" + c + "' at offset " + i);
+  }
+
+  private static final String CDATA = "<![CDATA[";
+
+  private final String source;
+  private final int begin, end;
+  private final XmlLimits limits;
+}
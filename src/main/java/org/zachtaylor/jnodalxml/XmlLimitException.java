@@ -0,0 +1,54 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Thrown when a document exceeds one of its {@link XmlLimits}. Parsing stops as soon
+ * as the limit is passed, so the rest of the input is never read.
+ */
+public class XmlLimitException extends XmlException {
+  /**
+   * The limits that a document can exceed
+   */
+  public enum Limit {
+    CHARS("characters of input"), DEPTH("element depth"), ATTRIBUTES("attributes per element"),
+    NAME_LENGTH("name length"), TEXT_LENGTH("text length"), NODES("elements");
+
+    private Limit(String d) {
+      description = d;
+    }
+
+    public String toString() {
+      return description;
+    }
+
+    private final String description;
+  }
+
+  XmlLimitException(Limit exceeded, long max) {
+    super("Document exceeds the limit of " + max + " " + exceeded);
+    limit = exceeded;
+    maximum = max;
+  }
+
+  /**
+   * Getter for the limit that was exceeded
+   * 
+   * @return The limit
+   */
+  public Limit getLimit() {
+    return limit;
+  }
+
+  /**
+   * Getter for the value of the limit that was exceeded
+   * 
+   * @return The maximum that was allowed
+   */
+  public long getMaximum() {
+    return maximum;
+  }
+
+  private final Limit limit;
+  private final long maximum;
+
+  private static final long serialVersionUID = 1L;
+}
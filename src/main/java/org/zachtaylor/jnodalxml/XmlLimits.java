@@ -0,0 +1,114 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Arrays;
+
+import org.zachtaylor.jnodalxml.XmlLimitException.Limit;
+
+/**
+ * Bounds on the size and shape of a document, for
+ * {@link XmlParser#parse(XmlTokenizer, XmlLimits)} and the other parsers that take
+ * limits. Every limit is unbounded until set. Limits are checked as the document is read, input characters and word lengths
+ * once per block of input and the rest at every element, attribute and word.
+ */
+public class XmlLimits {
+  public XmlLimits() {
+    Arrays.fill(max, Long.MAX_VALUE);
+  }
+
+  /**
+   * Setter for the most characters of input read. This counts characters after
+   * decoding, not bytes; in UTF-8 a character takes up to three bytes.
+   * 
+   * @param n The limit
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxChars(long n) throws XmlException {
+    return set(Limit.CHARS, n);
+  }
+
+  /**
+   * Setter for the deepest nesting of elements
+   * 
+   * @param n The limit, 1 allowing only top-level elements
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxDepth(int n) throws XmlException {
+    return set(Limit.DEPTH, n);
+  }
+
+  /**
+   * Setter for the most attributes of one element
+   * 
+   * @param n The limit
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxAttributes(int n) throws XmlException {
+    return set(Limit.ATTRIBUTES, n);
+  }
+
+  /**
+   * Setter for the longest element or attribute name
+   * 
+   * @param n The limit
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxNameLength(int n) throws XmlException {
+    return set(Limit.NAME_LENGTH, n);
+  }
+
+  /**
+   * Setter for the longest value of an element or attribute
+   * 
+   * @param n The limit
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxTextLength(int n) throws XmlException {
+    return set(Limit.TEXT_LENGTH, n);
+  }
+
+  /**
+   * Setter for the most elements in the document
+   * 
+   * @param n The limit
+   * @return These limits
+   * @throws XmlException If n is less than 1
+   */
+  public XmlLimits setMaxNodes(long n) throws XmlException {
+    return set(Limit.NODES, n);
+  }
+
+  /**
+   * Getter for one limit
+   * 
+   * @param limit The limit
+   * @return Its value, Long.MAX_VALUE if unbounded
+   */
+  public long get(Limit limit) {
+    return max[limit.ordinal()];
+  }
+
+  /**
+   * Fails if n passes a limit
+   * 
+   * @throws XmlLimitException If n is over the limit
+   */
+  void check(Limit limit, long n) throws XmlLimitException {
+    if (n > max[limit.ordinal()])
+      throw new XmlLimitException(limit, max[limit.ordinal()]);
+  }
+
+  private XmlLimits set(Limit limit, long n) throws XmlException {
+    if (n < 1)
+      throw new XmlException("Limit on " + limit + " must be at least 1");
+
+    max[limit.ordinal()] = n;
+    return this;
+  }
+
+  private final long[] max = new long[Limit.values().length];
+}
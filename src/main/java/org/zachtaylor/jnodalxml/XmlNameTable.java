@@ -0,0 +1,58 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * A fixed map from names to small ids, open-addressed so that a lookup is one hash and
+ * usually one comparison
+ */
+final class XmlNameTable {
+  /**
+   * Constructor for XmlNameTable
+   * 
+   * @param names The names, each of which gets its index as its id
+   */
+  XmlNameTable(String[] names) {
+    int size = 4;
+    while (size < names.length * 2) {
+      size *= 2;
+    }
+
+    keys = new String[size];
+    ids = new int[size];
+    mask = size - 1;
+
+    for (int id = 0; id < names.length; id++) {
+      int i = names[id].hashCode() & mask;
+
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+
+      keys[i] = names[id];
+      ids[i] = id;
+    }
+  }
+
+  /**
+   * Looks up the id of a name
+   * 
+   * @param name The name
+   * @return Its id, or -1 if the name is not in the table
+   */
+  int id(String name) {
+    int i = name.hashCode() & mask;
+    String key;
+
+    while ((key = keys[i]) != null) {
+      if (key.equals(name))
+        return ids[i];
+
+      i = (i + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private final String[] keys;
+  private final int[] ids;
+  private final int mask;
+}
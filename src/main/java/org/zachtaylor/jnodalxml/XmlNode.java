@@ -1,9 +1,14 @@
 package org.zachtaylor.jnodalxml;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,7 +50,13 @@ public class XmlNode {
    * @return This XmlNode
    */
   public XmlNode setName(String nodeName) {
+    modify();
     name = nodeName;
+
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.SET_NAME, null, nodeName);
+    }
+
     return this;
   }
 
@@ -67,8 +78,14 @@ public class XmlNode {
    * @throws XmlException If the parent cannot have a child, for instance if this parent is self-closing or has value
    */
   public XmlNode setParent(XmlNode parentNode) throws XmlException {
+    checkShared();
+
     if (parent != null) {
-      parent.removeChild(this);
+      int index = parent.indexOfChild(this);
+
+      if (index >= 0) {
+        parent.removeChildAt(index);
+      }
     }
 
     if (parentNode != null) {
@@ -84,6 +101,8 @@ public class XmlNode {
    * @return An unmodifiable collection of nodes
    */
   public Collection<XmlNode> getAllChildren() {
+    materialize();
+
     if (children == null)
       return Collections.unmodifiableCollection(new ArrayList<XmlNode>());
 
@@ -99,6 +118,8 @@ public class XmlNode {
   public List<XmlNode> getChildren(String nodeName) {
     List<XmlNode> val = new ArrayList<XmlNode>();
 
+    materialize();
+
     if (children == null)
       return val;
 
@@ -129,18 +150,39 @@ public class XmlNode {
    * @throws XmlException If the child cannot be added, for instance if this node is self-closing or has value
    */
   public XmlNode addChild(XmlNode n) throws XmlException {
+    materialize();
+    modify();
+
     if (selfClosing)
       throw new XmlException("Cannot add children to self-closing XMLNode");
-    if (value != null)
+    if (hasValue())
       throw new XmlException("Cannot add children to XMLNode with value");
 
-    n.parent = this;
+    // A shared node keeps the parent it was first added to
+    if (!n.shared || n.parent == null) {
+      n.parent = this;
+    }
+    if (!n.shared) {
+      // Its retained output was laid out for another place
+      n.printedLength = -1;
+      n.output = null;
+    }
 
     if (children == null) {
-      children = new ArrayList<XmlNode>();
+      children = recycledChildren != null ? recycledChildren : new ArrayList<XmlNode>();
+      recycledChildren = null;
     }
 
     children.add(n);
+
+    if (journal != null) {
+      if (!n.shared) {
+        n.setJournal(journal);
+      }
+
+      journal.childAdded(this, n);
+    }
+
     return this;
   }
 
@@ -172,18 +214,46 @@ public class XmlNode {
    * Removes a child from this XmlNode. The child's parent will be set to null.
    * 
    * @param node The XmlNode to remove, as equivalent by {@link #equals(Object)}
-   * @return The removed XmlNode
+   * @return The removed XmlNode, which is the child itself rather than node, or node if there was no such child
    */
   public XmlNode removeChild(XmlNode node) {
-    node.parent = null;
+    materialize();
+
+    int index = children == null ? -1 : children.indexOf(node);
+
+    return index < 0 ? node : removeChildAt(index);
+  }
+
+  /**
+   * Removes the child at an index, detaching it from this tree and its journal
+   * 
+   * @param index The index of the child
+   * @return The removed child
+   * @throws XmlException If there is no child at index
+   */
+  XmlNode removeChildAt(int index) throws XmlException {
+    childAt(index);
+    modify();
+
+    XmlNode child = children.remove(index);
+
+    if (!child.shared) {
+      child.parent = null;
+
+      if (child.journal != null) {
+        child.setJournal(null);
+      }
+    }
 
-    children.remove(node);
+    if (journal != null) {
+      journal.childRemoved(this, index);
+    }
 
     if (children.isEmpty()) {
       children = null;
     }
 
-    return node;
+    return child;
   }
 
   /**
@@ -192,12 +262,21 @@ public class XmlNode {
    * @return This XmlNode
    */
   public XmlNode clearChildren() {
+    materialize();
+    modify();
+
     for (XmlNode child : children) {
-      child.parent = null;
+      if (!child.shared) {
+        child.parent = null;
+      }
     }
 
     children = null;
 
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.CLEAR_CHILDREN, null, null);
+    }
+
     return this;
   }
 
@@ -247,12 +326,18 @@ public class XmlNode {
    * @throws XmlException If the attribute key has already been assigned on this node
    */
   public XmlNode addAttribute(XmlAttribute attribute) throws XmlException {
+    modify();
+
     if (attributes.containsKey(attribute.getKey())) {
       throw new XmlException("Cannot reset attribute value");
     }
 
     attributes.put(attribute.getKey(), attribute);
 
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.ADD_ATTRIBUTE, attribute.getKey(), attribute.getValue());
+    }
+
     return this;
   }
 
@@ -316,9 +401,15 @@ public class XmlNode {
    * @throws XmlException If there was no such attribute assigned on this node, or key is null
    */
   public XmlAttribute removeAttribute(String key) throws XmlException {
+    modify();
+
     if (key == null || attributes.get(key) == null)
       throw new XmlException("Attribute does not exist");
 
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.REMOVE_ATTRIBUTE, key, null);
+    }
+
     return attributes.remove(key);
   }
 
@@ -328,7 +419,13 @@ public class XmlNode {
    * @return This XmlNode
    */
   public XmlNode clearAttributes() {
+    modify();
     attributes = new HashMap<String, XmlAttribute>();
+
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.CLEAR_ATTRIBUTES, null, null);
+    }
+
     return this;
   }
 
@@ -340,12 +437,20 @@ public class XmlNode {
    * @throws XmlException If this node has children, or a value, and b is true
    */
   public XmlNode setSelfClosing(boolean b) throws XmlException {
+    materialize();
+    modify();
+
     if (children != null && b)
       throw new XmlException("Cannot set self closing of XMLNode with children");
-    if (value != null && b)
+    if (hasValue() && b)
       throw new XmlException("Cannot set self closing of XMLNode with value");
 
     selfClosing = b;
+
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.SET_SELF_CLOSING, null, Boolean.toString(b));
+    }
+
     return this;
   }
 
@@ -359,12 +464,137 @@ public class XmlNode {
   }
 
   /**
-   * Getter for the value of this node
+   * Getter for the value of this node. A large parsed value is joined into a new String
+   * on each call; {@link #openValueReader()} and {@link #writeValueTo(Appendable)} avoid
+   * that.
    * 
    * @return The value, or null if one has not been assigned
    */
   public String getValue() {
-    return value;
+    materialize();
+
+    // Not cached, so that readers sharing an unmodified tree never write to it
+    return chunkedValue != null ? chunkedValue.toString() : value;
+  }
+
+  /**
+   * Getter for the value of this node as an int
+   * 
+   * @param defaultValue Returned if there is no value or it is not an int
+   * @return The value as Integer
+   */
+  public int getIntValue(int defaultValue) {
+    long n = getLongValue(defaultValue);
+
+    return n < Integer.MIN_VALUE || n > Integer.MAX_VALUE ? defaultValue : (int) n;
+  }
+
+  /**
+   * Getter for the value of this node as a long
+   * 
+   * @param defaultValue Returned if there is no value or it is not a long
+   * @return The value as Long
+   */
+  public long getLongValue(long defaultValue) {
+    String s = getValue();
+
+    if (s == null)
+      return defaultValue;
+
+    try {
+      return XmlNumbers.parseLong(s, 0, s.length());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Getter for the value of this node as a double
+   * 
+   * @param defaultValue Returned if there is no value or it is not a number
+   * @return The value as Double
+   */
+  public double getDoubleValue(double defaultValue) {
+    String s = getValue();
+
+    if (s == null)
+      return defaultValue;
+
+    try {
+      return XmlNumbers.parseDouble(s, 0, s.length());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Getter for the value of this node as a boolean, ignoring case
+   * 
+   * @param defaultValue Returned if the value is neither "true" nor "false"
+   * @return The value as Boolean
+   */
+  public boolean getBoolValue(boolean defaultValue) {
+    return XmlNumbers.parseBoolean(getValue(), defaultValue);
+  }
+
+  /**
+   * Getter for the value of this node as a constant of an enum
+   * 
+   * @param type The enum
+   * @param defaultValue Returned if there is no value or type has no constant named by it
+   * @return The constant named by the value
+   */
+  public <E extends Enum<E>> E getEnumValue(Class<E> type, E defaultValue) {
+    String s = getValue();
+
+    if (s == null)
+      return defaultValue;
+
+    try {
+      return Enum.valueOf(type, s);
+    } catch (IllegalArgumentException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Opens a Reader over the value of this node. Large values are read straight out
+   * of the buffer they were parsed into, without building one String.
+   * 
+   * @return A new Reader, or null if a value has not been assigned
+   */
+  public Reader openValueReader() {
+    materialize();
+
+    if (chunkedValue != null)
+      return chunkedValue.reader();
+    if (value != null)
+      return new StringReader(value);
+
+    return null;
+  }
+
+  /**
+   * Writes the value of this node to out, unescaped. Large values are written a chunk
+   * at a time, without building one String.
+   * 
+   * @param out Destination for the value
+   * @return Whether a value has been assigned
+   * @throws IOException If out throws
+   */
+  public boolean writeValueTo(Appendable out) throws IOException {
+    materialize();
+
+    if (chunkedValue != null) {
+      chunkedValue.writeTo(out);
+      return true;
+    }
+    if (value != null) {
+      out.append(value);
+      return true;
+    }
+
+    return false;
   }
 
   /**
@@ -375,15 +605,170 @@ public class XmlNode {
    * @throws XmlException If this node is self-closing or has children
    */
   public XmlNode setValue(String s) throws XmlException {
+    materialize();
+    modify();
+
     if (selfClosing)
       throw new XmlException("Cannot set value of self closing XMLNode");
     if (children != null)
       throw new XmlException("Cannot set value of XMLNode which has children");
 
     value = s;
+    chunkedValue = null;
+
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.SET_VALUE, null, s);
+    }
+
     return this;
   }
 
+  /**
+   * Setter for the value of this node, keeping large values in their chunks
+   * 
+   * @param text Value to set
+   * @return This node
+   * @throws XmlException If this node is self-closing or has children
+   */
+  XmlNode setValue(XmlText text) throws XmlException {
+    if (text.isSmall())
+      return setValue(text.toString());
+
+    materialize();
+    modify();
+
+    if (selfClosing)
+      throw new XmlException("Cannot set value of self closing XMLNode");
+    if (children != null)
+      throw new XmlException("Cannot set value of XMLNode which has children");
+
+    value = null;
+    chunkedValue = text;
+
+    if (journal != null) {
+      journal.record(this, XmlChange.Type.SET_VALUE, null, text.toString());
+    }
+
+    return this;
+  }
+
+  /**
+   * Tells whether this node is shared between several places in its tree, as done by
+   * {@link XmlParser#parseShared(XmlTokenizer)}. A shared node and everything below it
+   * cannot be modified, and its parent is the first one it was parsed under.
+   * 
+   * @return Whether this node is shared
+   */
+  public boolean isShared() {
+    return shared;
+  }
+
+  /**
+   * Copies the tree rooted at this node. The copy has no parent and is never shared,
+   * so it can be modified even if this node cannot.
+   * 
+   * @return The new node
+   */
+  public XmlNode copy() {
+    materialize();
+
+    XmlNode copy = new XmlNode(name);
+
+    copy.attributes.putAll(attributes);
+    copy.selfClosing = selfClosing;
+    copy.value = value;
+    copy.chunkedValue = chunkedValue;
+
+    if (children != null) {
+      for (XmlNode child : children) {
+        copy.addChild(child.copy());
+      }
+    }
+
+    return copy;
+  }
+
+  /**
+   * Looks this node up among the subtrees built so far. Nodes holding a large value in
+   * chunks are left unique.
+   * 
+   * @param table The subtrees built so far
+   * @return This node, or an equal node built before it
+   */
+  XmlNode canonicalIn(XmlSubtreeTable table) {
+    if (chunkedValue != null)
+      return this;
+
+    return table.canonical(this, value, attributes, children, selfClosing);
+  }
+
+  /**
+   * Marks the tree rooted at this node as shared, stopping at subtrees already marked
+   */
+  void share() {
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(this);
+
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+
+      if (node.shared) {
+        continue;
+      }
+
+      node.shared = true;
+
+      if (node.children != null) {
+        stack.addAll(node.children);
+      }
+    }
+  }
+
+  /**
+   * Measures the tree rooted at this node in one pass, without recursion. Lazily
+   * parsed content is parsed. A shared subtree is counted once, however many places
+   * hold it.
+   * 
+   * @return Counts and the estimated retained size of the tree
+   */
+  public XmlNodeStats stats() {
+    XmlNodeStats stats = new XmlNodeStats();
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    Map<XmlNode, Boolean> counted = new IdentityHashMap<XmlNode, Boolean>();
+    int[] depths = new int[16];
+
+    stack.add(this);
+    depths[0] = 1;
+
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      XmlNode node = stack.remove(top);
+      int depth = depths[top];
+
+      // Only shared nodes can be reached twice
+      if (node.shared && counted.put(node, Boolean.TRUE) != null) {
+        continue;
+      }
+
+      node.materialize();
+      stats.node(node.name, depth, node.attributes, node.children);
+      stats.value(node.value, node.chunkedValue);
+
+      if (node.children != null) {
+        if (top + node.children.size() > depths.length) {
+          depths = Arrays.copyOf(depths, Math.max(depths.length * 2, top + node.children.size()));
+        }
+
+        for (XmlNode child : node.children) {
+          depths[stack.size()] = depth + 1;
+          stack.add(child);
+        }
+      }
+    }
+
+    return stats;
+  }
+
   public String toString() {
     StringBuilder sb = new StringBuilder();
 
@@ -409,8 +794,122 @@ public class XmlNode {
   }
 
   public String printToString(int depth, String tab) {
+    XmlWriteListener l = writeListener;
     StringBuilder sb = new StringBuilder();
 
+    if (l == null) {
+      printTo(sb, depth, tab);
+      return sb.toString();
+    }
+
+    long start = System.nanoTime();
+    RuntimeException error = null;
+
+    try {
+      printTo(sb, depth, tab);
+    } catch (RuntimeException e) {
+      error = e;
+      throw e;
+    } finally {
+      l.completed(new XmlWriteMetrics(name, sb.length(), System.nanoTime() - start, error));
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Setter for the listener told the metrics of every {@link #printToString(int, String)},
+   * and of every write by an {@link XmlByteWriter} created while it is set. It is shared
+   * by all threads. Without a listener nothing is measured.
+   * 
+   * @param l The listener, or null to stop measuring
+   */
+  public static void setWriteListener(XmlWriteListener l) {
+    writeListener = l;
+  }
+
+  /**
+   * Getter for the listener told the metrics of every serialization
+   * 
+   * @return The listener, or null
+   */
+  static XmlWriteListener getWriteListener() {
+    return writeListener;
+  }
+
+  /**
+   * Writes this node as UTF-8, laid out as {@link #printToString(int, String)} lays it
+   * out. While out is recording, a node not modified since its bytes in old were written
+   * is copied from them, and each node written records where its bytes lie relative to
+   * its parent's.
+   * 
+   * @param out Destination for the bytes
+   * @param depth The depth of this node
+   * @param old The document as last written, or null
+   * @param oldStart Index of this node's bytes in old, or -1 if they are not there
+   * @param parentStart Position in out of the parent's bytes
+   * @throws IOException If the channel of out throws
+   */
+  void writeTo(XmlByteWriter out, int depth, byte[] old, int oldStart, int parentStart) throws IOException {
+    int start = out.position();
+
+    if (oldStart >= 0 && !dirty) {
+      out.copy(old, oldStart, printedLength);
+    }
+    else {
+      writeContentTo(out, depth, old, oldStart, start);
+    }
+
+    if (out.isRecording() && !shared) {
+      printedOffset = start - parentStart;
+      printedLength = out.position() - start;
+      dirty = false;
+    }
+  }
+
+  private void writeContentTo(XmlByteWriter out, int depth, byte[] old, int oldStart, int start) throws IOException {
+    materialize();
+
+    out.indent(depth);
+    out.startTag(name);
+
+    for (XmlAttribute attribute : attributes.values()) {
+      out.attribute(attribute.getKey(), attribute.getValue());
+    }
+
+    if (isSelfClosing()) {
+      out.endEmptyTag();
+      return;
+    }
+
+    out.endStartTag();
+
+    if (children != null) {
+      for (XmlNode node : children) {
+        node.writeTo(out, depth + 1, old, oldStart >= 0 && node.printedLength >= 0 ? oldStart + node.printedOffset : -1, start);
+        out.newline();
+      }
+    }
+    else {
+      out.indent(depth + 1);
+
+      if (chunkedValue != null) {
+        chunkedValue.writeEscapedTo(out);
+        out.newline();
+      }
+      else if (value != null) {
+        out.text(value);
+        out.newline();
+      }
+    }
+
+    out.indent(depth);
+    out.endTag(name);
+  }
+
+  private void printTo(StringBuilder sb, int depth, String tab) {
+    materialize();
+
     for (int i = 0; i < depth; i++)
       sb.append(tab);
 
@@ -419,19 +918,19 @@ public class XmlNode {
 
     for (XmlAttribute attribute : attributes.values()) {
       sb.append(' ');
-      sb.append(attribute.printToString());
+      attribute.appendTo(sb);
     }
 
     if (isSelfClosing()) {
       sb.append(" />");
-      return sb.toString();
+      return;
     }
 
     sb.append(">\n");
 
     if (children != null) {
       for (XmlNode node : children) {
-        sb.append(node.printToString(depth + 1, tab));
+        node.printTo(sb, depth + 1, tab);
         sb.append('\n');
       }
     }
@@ -440,8 +939,12 @@ public class XmlNode {
         sb.append(tab);
       }
 
-      if (value != null) {
-        sb.append(value);
+      if (chunkedValue != null) {
+        chunkedValue.appendEscapedTo(sb);
+        sb.append('\n');
+      }
+      else if (value != null) {
+        XmlEntities.appendText(sb, value);
         sb.append('\n');
       }
     }
@@ -453,8 +956,6 @@ public class XmlNode {
     sb.append("</");
     sb.append(name);
     sb.append('>');
-
-    return sb.toString();
   }
 
   public boolean equals(Object o) {
@@ -463,11 +964,12 @@ public class XmlNode {
 
     XmlNode node = (XmlNode) o;
 
+    materialize();
+    node.materialize();
+
     if (!name.equals(node.name))
       return false;
-    if (value != null && !value.equals(node.value))
-      return false;
-    if (value == null && node.value != null)
+    if (!sameValue(node))
       return false;
     if (children != null && !children.equals(node.children))
       return false;
@@ -483,9 +985,200 @@ public class XmlNode {
     return name.hashCode();
   }
 
+  /**
+   * Compares the values of two nodes without joining a chunked value into one String
+   */
+  private boolean sameValue(XmlNode node) {
+    if (chunkedValue != null)
+      return node.chunkedValue != null ? chunkedValue.contentEquals(node.chunkedValue) : node.value != null && chunkedValue.contentEquals(node.value);
+    if (node.chunkedValue != null)
+      return value != null && node.chunkedValue.contentEquals(value);
+
+    return value == null ? node.value == null : value.equals(node.value);
+  }
+
+  /**
+   * Clears this node for reuse by an {@link XmlParseContext}, keeping its collections
+   * 
+   * @return This node
+   */
+  XmlNode recycle() {
+    if (children != null) {
+      children.clear();
+      recycledChildren = children;
+    }
+
+    name = null;
+    value = null;
+    chunkedValue = null;
+    selfClosing = false;
+    children = null;
+    parent = null;
+    attributes.clear();
+    lazyContent = null;
+    dirty = true;
+    printedLength = -1;
+    output = null;
+    journal = null;
+    return this;
+  }
+
+  /**
+   * Defers building the children and value of this node until they are first accessed
+   * 
+   * @param content The extent of this node's content in the source document
+   * @return This node
+   */
+  XmlNode setLazyContent(XmlLazyContent content) {
+    lazyContent = content;
+    return this;
+  }
+
+  /**
+   * Getter for a child by its position
+   * 
+   * @param i The index of the child
+   * @return The child
+   * @throws XmlException If there is no child at i
+   */
+  XmlNode childAt(int i) throws XmlException {
+    materialize();
+
+    if (children == null || i < 0 || i >= children.size())
+      throw new XmlException("XMLNode " + name + " has no child at " + i);
+
+    return children.get(i);
+  }
+
+  /**
+   * Finds a child by identity rather than by {@link #equals(Object)}
+   * 
+   * @param child The child
+   * @return Its index, or -1 if it is not a child of this node
+   */
+  int indexOfChild(XmlNode child) {
+    if (children != null) {
+      for (int i = 0; i < children.size(); i++) {
+        if (children.get(i) == child)
+          return i;
+      }
+    }
+
+    return -1;
+  }
+
+  List<XmlNode> childList() {
+    materialize();
+    return children;
+  }
+
+  Map<String, XmlAttribute> attributeMap() {
+    return attributes;
+  }
+
+  /**
+   * Attaches a journal to the tree rooted at this node, without recursion
+   * 
+   * @param j The journal, or null to detach
+   */
+  void setJournal(XmlJournal j) {
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(this);
+
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      node.journal = j;
+
+      if (node.children != null) {
+        stack.addAll(node.children);
+      }
+    }
+  }
+
+  /**
+   * Getter for the bytes this node was last written as by a writer retaining output
+   * 
+   * @return The output, or null if there is none
+   */
+  XmlByteWriter.Output getOutput() {
+    return output;
+  }
+
+  void setOutput(XmlByteWriter.Output o) {
+    output = o;
+  }
+
+  private void checkShared() throws XmlException {
+    if (shared)
+      throw new XmlException("Cannot modify shared XMLNode " + name + "; modify a copy instead");
+  }
+
+  /**
+   * Checks that this node can be modified, and marks it and its ancestors as differing
+   * from their retained output. An ancestor of a modified node is always modified
+   * itself, so marking stops at the first one already marked.
+   * 
+   * @throws XmlException If this node is shared
+   */
+  private void modify() throws XmlException {
+    checkShared();
+
+    for (XmlNode node = this; node != null && !node.dirty; node = node.parent) {
+      node.dirty = true;
+    }
+  }
+
+  private boolean hasValue() {
+    return value != null || chunkedValue != null;
+  }
+
+  /**
+   * Builds the children and value of a lazily parsed node. Safe to call from many
+   * threads; the content is scanned exactly once.
+   * 
+   * @throws XmlException If the content is malformed
+   */
+  private void materialize() throws XmlException {
+    if (lazyContent == null)
+      return;
+
+    synchronized (this) {
+      if (lazyContent == null)
+        return;
+
+      StringBuilder text = new StringBuilder();
+      List<XmlNode> nodes = lazyContent.scan(text);
+
+      if (!nodes.isEmpty() && text.length() > 0)
+        throw new XmlException("Cannot add children to XMLNode with value");
+
+      for (XmlNode node : nodes) {
+        node.parent = this;
+
+        if (journal != null) {
+          node.setJournal(journal);
+        }
+      }
+
+      if (!nodes.isEmpty())
+        children = nodes;
+      if (text.length() > 0)
+        value = text.toString();
+
+      lazyContent = null;
+    }
+  }
+
+  private static volatile XmlWriteListener writeListener;
+
   private String name, value = null;
-  private boolean selfClosing = false;
-  private List<XmlNode> children = null;
+  private XmlText chunkedValue = null;
+  private boolean selfClosing = false, shared = false, dirty = true;
+  private int printedOffset = 0, printedLength = -1;
+  private XmlByteWriter.Output output = null;
+  private XmlJournal journal = null;
+  private List<XmlNode> children = null, recycledChildren = null;
   private XmlNode parent = null;
   private Map<String, XmlAttribute> attributes = new HashMap<String, XmlAttribute>();
+  private volatile XmlLazyContent lazyContent = null;
 }
@@ -0,0 +1,178 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Counts over a tree of XmlNodes, as returned by {@link XmlNode#stats()}. The retained
+ * size is an estimate for a 64-bit JVM with compressed references and compact strings:
+ * it adds up every node, attribute, map, list and String the tree refers to, counting
+ * a String once for each reference to it.
+ */
+public class XmlNodeStats {
+  /**
+   * Getter for the number of nodes
+   * 
+   * @return The node count, including the root
+   */
+  public long getNodeCount() {
+    return nodes;
+  }
+
+  /**
+   * Getter for the number of attributes of all nodes
+   * 
+   * @return The attribute count
+   */
+  public long getAttributeCount() {
+    return attributes;
+  }
+
+  /**
+   * Getter for the deepest nesting of nodes
+   * 
+   * @return The depth, 1 for a root without children
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Getter for the most children of any node
+   * 
+   * @return The largest fan-out
+   */
+  public int getMaxFanOut() {
+    return fanOut.isEmpty() ? 0 : fanOut.lastKey();
+  }
+
+  /**
+   * Getter for the distribution of fan-out
+   * 
+   * @return For each number of children, how many nodes have that many
+   */
+  public SortedMap<Integer, Long> getFanOutCounts() {
+    return Collections.unmodifiableSortedMap(fanOut);
+  }
+
+  /**
+   * Getter for the length of all values
+   * 
+   * @return The number of characters
+   */
+  public long getTextChars() {
+    return textChars;
+  }
+
+  /**
+   * Getter for the number of different node names
+   * 
+   * @return The distinct name count
+   */
+  public int getDistinctNameCount() {
+    return names.size();
+  }
+
+  /**
+   * Getter for the estimated heap used by the tree
+   * 
+   * @return The estimate in bytes
+   */
+  public long getEstimatedRetainedBytes() {
+    return retainedBytes;
+  }
+
+  public String toString() {
+    return String.format("%d nodes, %d attributes, depth %d, fan-out %d, %d text chars, %d names, ~%d bytes", nodes,
+        attributes, maxDepth, getMaxFanOut(), textChars, names.size(), retainedBytes);
+  }
+
+  /**
+   * Counts one node, its attributes and its list of children
+   */
+  void node(String name, int depth, Map<String, XmlAttribute> attributeMap, List<XmlNode> children) {
+    int n = children == null ? 0 : children.size();
+    Long count = fanOut.get(n);
+
+    nodes++;
+    maxDepth = Math.max(maxDepth, depth);
+    fanOut.put(n, count == null ? 1 : count + 1);
+    names.add(name);
+
+    retainedBytes += NODE_BYTES + string(name) + map(attributeMap.size());
+
+    for (XmlAttribute attribute : attributeMap.values()) {
+      retainedBytes += ATTRIBUTE_BYTES + string(attribute.getKey()) + string(attribute.getValue());
+    }
+    attributes += attributeMap.size();
+
+    if (children != null) {
+      retainedBytes += list(n);
+    }
+  }
+
+  /**
+   * Counts the value of a node, held either as a String or in chunks
+   */
+  void value(String value, XmlText chunks) {
+    if (value != null) {
+      textChars += value.length();
+      retainedBytes += string(value);
+    }
+    else if (chunks != null) {
+      int length = chunks.length();
+
+      textChars += length;
+      retainedBytes += OBJECT_HEADER + align(ARRAY_HEADER + 2L * length) + (length / 8192 + 1) * ARRAY_HEADER;
+    }
+  }
+
+  private static long string(String s) {
+    boolean latin1 = true;
+
+    for (int i = 0; i < s.length() && latin1; i++) {
+      latin1 = s.charAt(i) < 256;
+    }
+
+    return STRING_BYTES + align(ARRAY_HEADER + (latin1 ? 1L : 2L) * s.length());
+  }
+
+  private static long map(int size) {
+    if (size == 0)
+      return HASH_MAP_BYTES;
+
+    int capacity = 16;
+    while (size > capacity * 3 / 4) {
+      capacity *= 2;
+    }
+
+    return HASH_MAP_BYTES + align(ARRAY_HEADER + REFERENCE * capacity) + (long) HASH_ENTRY_BYTES * size;
+  }
+
+  private static long list(int size) {
+    int capacity = 10;
+    while (size > capacity) {
+      capacity += capacity >> 1;
+    }
+
+    return ARRAY_LIST_BYTES + align(ARRAY_HEADER + REFERENCE * capacity);
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  private static final int OBJECT_HEADER = 12, ARRAY_HEADER = 16, REFERENCE = 4;
+  private static final int NODE_BYTES = 64, ATTRIBUTE_BYTES = 48, STRING_BYTES = 24, HASH_MAP_BYTES = 48,
+      HASH_ENTRY_BYTES = 32, ARRAY_LIST_BYTES = 24;
+
+  private final SortedMap<Integer, Long> fanOut = new TreeMap<Integer, Long>();
+  private final Set<String> names = new HashSet<String>();
+  private long nodes, attributes, textChars, retainedBytes;
+  private int maxDepth;
+}
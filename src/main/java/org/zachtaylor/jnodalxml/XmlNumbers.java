@@ -0,0 +1,152 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Parses numbers straight out of a region of characters, without copying the region
+ * into a String of its own
+ */
+final class XmlNumbers {
+  private XmlNumbers() {
+  }
+
+  /**
+   * Parses a decimal integer, as Long.parseLong does
+   * 
+   * @param s Characters holding the number
+   * @param begin Index of the first character
+   * @param end Index after the last character
+   * @return The number
+   * @throws NumberFormatException If the region is not a decimal integer that fits in a long
+   */
+  static long parseLong(CharSequence s, int begin, int end) throws NumberFormatException {
+    int i = begin;
+    boolean negative = false;
+
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+
+    if (i == end)
+      throw invalid(s, begin, end);
+
+    // Accumulated negatively, since Long.MIN_VALUE has no positive counterpart
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long result = 0;
+
+    for (; i < end; i++) {
+      int digit = s.charAt(i) - '0';
+
+      if (digit < 0 || digit > 9)
+        throw invalid(s, begin, end);
+      if (result < limit / 10)
+        throw invalid(s, begin, end);
+
+      result *= 10;
+
+      if (result < limit + digit)
+        throw invalid(s, begin, end);
+
+      result -= digit;
+    }
+
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a floating-point number, as Double.parseDouble does. Plain decimals of up to
+   * 15 significant digits are parsed without allocating; anything else, such as an
+   * exponent, is handed to Double.parseDouble.
+   * 
+   * @param s Characters holding the number
+   * @param begin Index of the first character
+   * @param end Index after the last character
+   * @return The number
+   * @throws NumberFormatException If the region is not a number
+   */
+  static double parseDouble(CharSequence s, int begin, int end) throws NumberFormatException {
+    int i = begin;
+    boolean negative = false, point = false, any = false;
+
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0, scale = 0;
+
+    for (; i < end; i++) {
+      char c = s.charAt(i);
+
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        any = true;
+
+        if (mantissa != 0) {
+          digits++;
+        }
+        if (point) {
+          scale++;
+        }
+        if (digits > 15 || scale >= POWERS_OF_TEN.length)
+          return slowParseDouble(s, begin, end);
+      }
+      else if (c == '.' && !point) {
+        point = true;
+      }
+      else {
+        return slowParseDouble(s, begin, end);
+      }
+    }
+
+    if (!any)
+      throw invalid(s, begin, end);
+
+    // Both operands are exact, so the quotient is correctly rounded
+    double d = mantissa / POWERS_OF_TEN[scale];
+    return negative ? -d : d;
+  }
+
+  /**
+   * Parses a boolean, ignoring case
+   * 
+   * @param s The text
+   * @return The boolean
+   * @throws NumberFormatException If s is neither "true" nor "false"
+   */
+  static boolean parseBoolean(String s) throws NumberFormatException {
+    if ("true".equalsIgnoreCase(s))
+      return true;
+    if ("false".equalsIgnoreCase(s))
+      return false;
+
+    throw new NumberFormatException("For input string: \"" + s + "\"");
+  }
+
+  /**
+   * Parses a boolean, ignoring case
+   * 
+   * @param s The text
+   * @param defaultValue Returned if s is neither "true" nor "false"
+   * @return The boolean
+   */
+  static boolean parseBoolean(String s, boolean defaultValue) {
+    if ("true".equalsIgnoreCase(s))
+      return true;
+    if ("false".equalsIgnoreCase(s))
+      return false;
+
+    return defaultValue;
+  }
+
+  private static double slowParseDouble(CharSequence s, int begin, int end) throws NumberFormatException {
+    return Double.parseDouble(s.subSequence(begin, end).toString());
+  }
+
+  private static NumberFormatException invalid(CharSequence s, int begin, int end) {
+    return new NumberFormatException("For input string: \"" + s.subSequence(begin, end) + "\"");
+  }
+
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+}
@@ -0,0 +1,122 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable state for parsing many small documents on one thread. A context keeps its
+ * tokenizer and parser buffers between documents, and hands out XmlNodes from a pool.
+ * Every node parsed since the last {@link #reset(String)} belongs to the current scope,
+ * and goes back to the pool when the scope is closed.
+ */
+public class XmlParseContext implements Closeable {
+  /**
+   * Constructor for XmlParseContext, pooling up to 4096 nodes
+   */
+  public XmlParseContext() {
+    this(DEFAULT_MAX_POOLED_NODES);
+  }
+
+  /**
+   * Constructor for XmlParseContext
+   * 
+   * @param maxPooledNodes Most nodes to keep for reuse; nodes released beyond this are left to the garbage collector
+   */
+  public XmlParseContext(int maxPooledNodes) {
+    maxPooled = maxPooledNodes;
+  }
+
+  /**
+   * Getter for the context belonging to the current thread
+   * 
+   * @return The context of this thread
+   */
+  public static XmlParseContext get() {
+    return CONTEXTS.get();
+  }
+
+  /**
+   * Setter for limits on each document parsed
+   * 
+   * @param limits The limits, or null for none
+   * @return This context
+   */
+  public XmlParseContext setLimits(XmlLimits limits) {
+    tokenizer.setLimits(limits);
+    events.setLimits(limits);
+    return this;
+  }
+
+  /**
+   * Closes the current scope and starts a new one for the given document
+   * 
+   * @param input The document
+   * @return This context
+   */
+  public XmlParseContext reset(String input) {
+    close();
+    tokenizer.reset(input);
+    return this;
+  }
+
+  /**
+   * Parses the document given to {@link #reset(String)}
+   * 
+   * @return The top-level nodes. The list and the nodes belong to the current scope, and must not be used after it is closed.
+   */
+  public List<XmlNode> parse() {
+    topLevel.clear();
+    builder.reset();
+    events.reset();
+
+    XmlParser.parse(tokenizer, events);
+
+    return topLevel;
+  }
+
+  /**
+   * Closes the current scope, returning every node parsed in it to the pool. Nodes
+   * from the scope must not be used afterwards, including any that were attached to
+   * trees outside of it.
+   */
+  public void close() {
+    for (XmlNode node : scope) {
+      if (pool.size() < maxPooled) {
+        pool.add(node.recycle());
+      }
+    }
+
+    scope.clear();
+    topLevel.clear();
+    builder.reset();
+  }
+
+  /**
+   * Takes a node from the pool, or creates one if the pool is empty
+   * 
+   * @param name Name of the node
+   * @return A node in the current scope
+   */
+  XmlNode node(String name) {
+    XmlNode node = pool.isEmpty() ? new XmlNode(name) : pool.remove(pool.size() - 1).setName(name);
+
+    scope.add(node);
+    return node;
+  }
+
+  private static final int DEFAULT_MAX_POOLED_NODES = 4096;
+
+  private static final ThreadLocal<XmlParseContext> CONTEXTS = new ThreadLocal<XmlParseContext>() {
+    protected XmlParseContext initialValue() {
+      return new XmlParseContext();
+    }
+  };
+
+  private final int maxPooled;
+  private final XmlTokenizer tokenizer = new XmlTokenizer();
+  private final List<XmlNode> topLevel = new ArrayList<XmlNode>();
+  private final XmlTreeBuilder builder = new XmlTreeBuilder(this, topLevel);
+  private final XmlEventParser events = new XmlEventParser(builder);
+  private final List<XmlNode> scope = new ArrayList<XmlNode>(), pool = new ArrayList<XmlNode>();
+}
@@ -0,0 +1,15 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Receives the metrics of every parse once it ends. Set with
+ * {@link XmlParser#setParseListener(XmlParseListener)}; called from the thread that
+ * parsed, so implementations must be thread-safe.
+ */
+public interface XmlParseListener {
+  /**
+   * Called once for every parse, whether it succeeded or failed
+   * 
+   * @param metrics Counts and timings of the parse
+   */
+  void completed(XmlParseMetrics metrics);
+}
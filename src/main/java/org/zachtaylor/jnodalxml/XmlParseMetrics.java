@@ -0,0 +1,163 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Counts and timings of one parse, as reported to an {@link XmlParseListener}. Time
+ * spent reading input, tokenizing it and building the result is measured a block of
+ * input at a time, so measuring costs a few clock reads per block.
+ */
+public class XmlParseMetrics {
+  /**
+   * Getter for the characters of input read
+   * 
+   * @return The number of characters
+   */
+  public long getCharsRead() {
+    return charsRead;
+  }
+
+  /**
+   * Getter for the tokens of one type
+   * 
+   * @param type The token type
+   * @return The number of tokens
+   */
+  public long getTokenCount(XmlTokenType type) {
+    return tokens[type.ordinal()];
+  }
+
+  /**
+   * Getter for the tokens of all types
+   * 
+   * @return The number of tokens
+   */
+  public long getTokenCount() {
+    long n = 0;
+
+    for (long count : tokens) {
+      n += count;
+    }
+
+    return n;
+  }
+
+  /**
+   * Getter for the elements started
+   * 
+   * @return The number of elements
+   */
+  public long getElementCount() {
+    return elements;
+  }
+
+  /**
+   * Getter for the attributes parsed
+   * 
+   * @return The number of attributes
+   */
+  public long getAttributeCount() {
+    return attributes;
+  }
+
+  /**
+   * Getter for the deepest nesting of elements
+   * 
+   * @return The depth, 1 for a top-level element
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Getter for the time spent waiting for input
+   * 
+   * @return The time in nanoseconds
+   */
+  public long getReadNanos() {
+    return readNanos;
+  }
+
+  /**
+   * Getter for the time spent splitting input into tokens
+   * 
+   * @return The time in nanoseconds
+   */
+  public long getTokenizeNanos() {
+    return fillNanos - readNanos;
+  }
+
+  /**
+   * Getter for the time spent parsing tokens and building the result. When tokens are
+   * read on a thread of their own, as by {@link XmlParser#parsePipelined(XmlTokenizer)},
+   * this is the time the building thread spent on them, not counting waits for them.
+   * 
+   * @return The time in nanoseconds
+   */
+  public long getBuildNanos() {
+    return pipelined ? buildNanos : totalNanos - fillNanos;
+  }
+
+  /**
+   * Getter for the time of the whole parse
+   * 
+   * @return The time in nanoseconds
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * Getter for the failure of the parse
+   * 
+   * @return The exception, or null if the parse succeeded
+   */
+  public XmlException getError() {
+    return error;
+  }
+
+  public String toString() {
+    return String.format("%d chars, %d tokens, %d elements, %d attributes, depth %d; read %dus, tokenize %dus, build %dus%s",
+        charsRead, getTokenCount(), elements, attributes, maxDepth, readNanos / 1000, getTokenizeNanos() / 1000,
+        getBuildNanos() / 1000, error == null ? "" : "; failed: " + error.getMessage());
+  }
+
+  void read(int chars, long nanos) {
+    charsRead += chars;
+    readNanos += nanos;
+  }
+
+  void filled(long nanos) {
+    fillNanos += nanos;
+  }
+
+  void built(long nanos) {
+    buildNanos += nanos;
+    pipelined = true;
+  }
+
+  void token(XmlTokenType type) {
+    tokens[type.ordinal()]++;
+  }
+
+  void element(int depth) {
+    elements++;
+
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+  }
+
+  void attribute() {
+    attributes++;
+  }
+
+  void finish(long nanos, XmlException failure) {
+    totalNanos = nanos;
+    error = failure;
+  }
+
+  private final long[] tokens = new long[XmlTokenType.values().length];
+  private long charsRead, elements, attributes, readNanos, fillNanos, buildNanos, totalNanos;
+  private int maxDepth;
+  private boolean pipelined;
+  private XmlException error;
+}
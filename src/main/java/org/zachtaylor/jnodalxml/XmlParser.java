@@ -1,118 +1,387 @@
 package org.zachtaylor.jnodalxml;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Stack;
 
 public class XmlParser {
   public static List<XmlNode> parse(File f) throws FileNotFoundException {
-    return parse(new XmlTokenizer(f));
+    XmlTokenizer tokens = new XmlTokenizer(f);
+
+    try {
+      return parse(tokens);
+    } finally {
+      tokens.close();
+    }
   }
 
   public static List<XmlNode> parse(String s) {
     return parse(new XmlTokenizer(s));
   }
 
+  /**
+   * Parses a gzip-compressed document in the platform encoding, as
+   * {@link #parseGzip(InputStream, Charset)} does
+   * 
+   * @param f The compressed document
+   * @return The top-level elements
+   * @throws FileNotFoundException If the file cannot be opened
+   * @throws XmlException If the document is malformed or cannot be decompressed
+   */
+  public static List<XmlNode> parseGzip(File f) throws FileNotFoundException {
+    return parseGzip(new FileInputStream(f), Charset.defaultCharset());
+  }
+
+  /**
+   * Parses a gzip-compressed document. Decompression runs on a thread of its own and
+   * hands buffers to the tokenizer through a bounded queue, so decompressing and
+   * parsing overlap without the decompressed document ever being held in full.
+   * 
+   * @param in The compressed document, which is closed once it is exhausted
+   * @param charset Encoding of the decompressed document
+   * @return The top-level elements
+   * @throws XmlException If the document is malformed or cannot be decompressed
+   */
+  public static List<XmlNode> parseGzip(InputStream in, Charset charset) {
+    return parseGzip(in, charset, null);
+  }
+
+  /**
+   * Parses a gzip-compressed document within limits, as
+   * {@link #parseGzip(InputStream, Charset)} does. The limit on characters bounds the
+   * decompressed document, so a small input that decompresses to a huge one fails as
+   * soon as it passes the limit.
+   * 
+   * @param in The compressed document, which is closed once it is exhausted
+   * @param charset Encoding of the decompressed document
+   * @param limits The limits, or null for none
+   * @return The top-level elements
+   * @throws XmlLimitException If the document exceeds a limit
+   * @throws XmlException If the document is malformed or cannot be decompressed
+   */
+  public static List<XmlNode> parseGzip(InputStream in, Charset charset, XmlLimits limits) {
+    XmlPipelinedReader reader = new XmlPipelinedReader(in, true, charset);
+
+    try {
+      return parse(new XmlTokenizer(reader), limits);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Parses only the start tags of the top-level elements. The content of each element
+   * is skip-scanned to find its extent, and is parsed the first time its children or
+   * value are accessed.
+   * 
+   * @param f The document
+   * @return The top-level elements
+   * @throws IOException If the file cannot be read
+   * @throws XmlException If the top-level structure is malformed
+   */
+  public static List<XmlNode> parseLazy(File f) throws IOException {
+    return parseLazy(read(f));
+  }
+
+  /**
+   * Parses only the start tags of the top-level elements. The content of each element
+   * is skip-scanned to find its extent, and is parsed the first time its children or
+   * value are accessed.
+   * 
+   * @param s The document
+   * @return The top-level elements
+   * @throws XmlException If the top-level structure is malformed
+   */
+  public static List<XmlNode> parseLazy(String s) {
+    return parseLazy(s, null);
+  }
+
+  /**
+   * Parses only the start tags of the top-level elements within limits, as
+   * {@link #parseLazy(String)} does. The size of the document, and the depth and
+   * number of its elements, are checked as it is skip-scanned; the other limits are
+   * checked for each element as its parent's content is parsed.
+   * 
+   * @param s The document
+   * @param limits The limits, or null for none
+   * @return The top-level elements
+   * @throws XmlLimitException If the document exceeds a limit
+   * @throws XmlException If the top-level structure is malformed
+   */
+  public static List<XmlNode> parseLazy(String s, XmlLimits limits) {
+    if (limits != null) {
+      limits.check(XmlLimitException.Limit.CHARS, s.length());
+    }
+
+    StringBuilder text = new StringBuilder();
+    List<XmlNode> topLevel = XmlLazyContent.scan(s, 0, s.length(), text, limits);
+
+    if (text.length() > 0)
+      throw new XmlException("Text outside of any element");
+
+    return topLevel;
+  }
+
   public static List<XmlNode> parse(XmlTokenizer tokens) {
     List<XmlNode> topLevel = new ArrayList<XmlNode>();
-    Stack<XmlNode> nodes = new Stack<XmlNode>();
 
-    XmlToken token;
+    parse(tokens, new XmlEventParser(new XmlTreeBuilder(null, topLevel)));
 
-    while (tokens.hasNext()) {
-      token = tokens.next();
-
-      if (token.getType() == XmlTokenType.OPEN_BRACKET) {
-        token = tokens.next();
-
-        if (token.getType() == XmlTokenType.SLASH) {
-          token = tokens.next();
-          if (!token.getValue().equals(nodes.peek().getName()))
-            throw new RuntimeException(" uh oh ");
-
-          token = tokens.next();
-          if (!(token.getType() == XmlTokenType.CLOSE_BRACKET))
-            throw new RuntimeException(" oh no ");
-
-          XmlNode node = nodes.pop();
-          if (nodes.isEmpty()) {
-            topLevel.add(node);
-          }
-          else {
-            nodes.peek().addChild(node);
-          }
-        }
-        else {
-          nodes.push(new XmlNode(token.getValue()));
-          token = tokens.next();
-
-          while (token.getType() == XmlTokenType.TEXT) {
-            String attrName = token.getValue();
-
-            if (nodes.peek().getName().startsWith("?")) {
-              do {
-                token = tokens.next();
-              } while (token.getType() != XmlTokenType.TEXT || !token.getValue().equals("?"));
-              token = new XmlToken(XmlTokenType.SLASH);
-              break;
-            }
-
-            token = tokens.next();
-            if (!(token.getType() == XmlTokenType.EQUALS))
-              throw new RuntimeException(" awkward ");
-
-            token = tokens.next();
-            if (!(token.getType() == XmlTokenType.QUOTE))
-              throw new RuntimeException(" foo ");
-
-            token = tokens.next();
-            if (!(token.getType() == XmlTokenType.TEXT))
-              throw new RuntimeException(" bar ");
-
-            String attrValue = token.getValue();
-            token = tokens.next();
-            while (token.getType() == XmlTokenType.TEXT) {
-              attrValue = attrValue.concat(" ").concat(token.getValue());
-              token = tokens.next();
-            }
-
-            if (!(token.getType() == XmlTokenType.QUOTE))
-              throw new RuntimeException(" foo ");
-
-            nodes.peek().addAttribute(attrName, attrValue);
-            token = tokens.next();
-          }
-
-          if (token.getType() == XmlTokenType.SLASH) {
-            nodes.peek().setSelfClosing(true);
-
-            token = tokens.next();
-            if (!(token.getType() == XmlTokenType.CLOSE_BRACKET))
-              throw new RuntimeException(" bar ");
-
-            XmlNode node = nodes.pop();
-            if (nodes.isEmpty()) {
-              topLevel.add(node);
-            }
-            else {
-              nodes.peek().addChild(node);
-            }
-          }
-        }
+    return topLevel;
+  }
+
+  /**
+   * Parses a document on two threads. A thread of its own tokenizes the document and
+   * hands batches of tokens through a lock-free ring to the calling thread, which
+   * builds the tree, so tokenizing and tree building overlap on separate cores.
+   * 
+   * @param f The document
+   * @return The top-level elements
+   * @throws FileNotFoundException If the file cannot be opened
+   * @throws XmlException If the document is malformed or cannot be read
+   */
+  public static List<XmlNode> parsePipelined(File f) throws FileNotFoundException {
+    return parsePipelined(new XmlTokenizer(f));
+  }
+
+  /**
+   * Parses a document on two threads, as {@link #parsePipelined(File)} does
+   * 
+   * @param tokens The document, which must not be used by the caller until parsing is done, and is closed if parsing fails
+   * @return The top-level elements
+   * @throws XmlException If the document is malformed or cannot be read
+   */
+  public static List<XmlNode> parsePipelined(XmlTokenizer tokens) {
+    return parsePipelined(tokens, null);
+  }
+
+  /**
+   * Parses a document on two threads within limits, as
+   * {@link #parsePipelined(File)} does
+   * 
+   * @param tokens The document, which must not be used by the caller until parsing is done, and is closed if parsing fails
+   * @param limits The limits, or null for none
+   * @return The top-level elements
+   * @throws XmlLimitException If the document exceeds a limit
+   * @throws XmlException If the document is malformed or cannot be read
+   */
+  public static List<XmlNode> parsePipelined(final XmlTokenizer tokens, XmlLimits limits) {
+    XmlParseListener l = listenerFor(tokens);
+    List<XmlNode> topLevel = new ArrayList<XmlNode>();
+    XmlEventParser events = new XmlEventParser(new XmlTreeBuilder(null, topLevel));
+
+    // Set before the tokenizer is handed to the producer thread
+    tokens.setLimits(limits);
+    events.setLimits(limits);
+    XmlParseMetrics metrics = l == null ? null : measure(tokens, events);
+    long start = System.nanoTime();
+    XmlException error = null;
+
+    final XmlTokenPipe pipe = new XmlTokenPipe(PIPE_SLOTS, PIPE_BATCH_SIZE);
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        pipe.produce(tokens);
       }
-      else {
-        String val = token.getValue();
+    }, "jnodalxml-tokenizer");
 
-        while (tokens.peek().getType() == XmlTokenType.TEXT) {
-          val = val.concat(" ").concat(tokens.next().getValue());
-        }
+    producer.setDaemon(true);
+    producer.start();
 
-        nodes.peek().setValue(val);
+    try {
+      pipe.drainTo(events, metrics);
+      events.end();
+    } catch (XmlException e) {
+      error = e;
+      throw e;
+    } finally {
+      if (l != null) {
+        report(l, metrics, tokens, events, System.nanoTime() - start, error);
       }
     }
 
     return topLevel;
   }
+
+  /**
+   * Parses a document, storing identical subtrees once. Each element is compared with
+   * those built before it as it closes, and if one matches in name, attributes, value
+   * and children, that one is used in its place. Shared nodes cannot be modified; see
+   * {@link XmlNode#isShared()}.
+   * 
+   * @param tokens The document
+   * @return The top-level elements
+   * @throws XmlException If the document is malformed
+   */
+  public static List<XmlNode> parseShared(XmlTokenizer tokens) throws XmlException {
+    List<XmlNode> topLevel = new ArrayList<XmlNode>();
+
+    parse(tokens, new XmlEventParser(new XmlTreeBuilder(null, topLevel, new XmlSubtreeTable())));
+
+    return topLevel;
+  }
+
+  /**
+   * Parses a document within limits on its size and shape. A document that passes a
+   * limit fails as soon as it does, without the rest of it being read.
+   * 
+   * @param tokens The document
+   * @param limits The limits
+   * @return The top-level elements
+   * @throws XmlLimitException If the document exceeds a limit
+   * @throws XmlException If the document is malformed
+   */
+  public static List<XmlNode> parse(XmlTokenizer tokens, XmlLimits limits) throws XmlException {
+    List<XmlNode> topLevel = new ArrayList<XmlNode>();
+    XmlEventParser events = new XmlEventParser(new XmlTreeBuilder(null, topLevel));
+
+    tokens.setLimits(limits);
+    events.setLimits(limits);
+
+    try {
+      parse(tokens, events);
+    } finally {
+      tokens.setLimits(null);
+    }
+
+    return topLevel;
+  }
+
+  /**
+   * Parses many files concurrently. A file that fails to parse does not stop the
+   * others; its result holds the exception instead.
+   * 
+   * @param paths The files
+   * @param options Executor, limits and encoding for the batch
+   * @return One result per file, in the order of paths
+   * @throws InterruptedException If interrupted while waiting for the batch
+   */
+  public static List<XmlBatchResult> parseAll(Collection<Path> paths, XmlBatchOptions options) throws InterruptedException {
+    XmlBatchResult[] results = new XmlBatchResult[paths.size()];
+
+    new XmlBatch(options).run(paths, null, results);
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Parses many files concurrently, handing each result to listener as soon as it
+   * completes rather than holding every tree until the batch is done
+   * 
+   * @param paths The files
+   * @param options Executor, limits and encoding for the batch
+   * @param listener Receives each result, from the thread that parsed it
+   * @throws InterruptedException If interrupted while waiting for the batch
+   */
+  public static void parseAll(Collection<Path> paths, XmlBatchOptions options, XmlBatchListener listener) throws InterruptedException {
+    new XmlBatch(options).run(paths, listener, null);
+  }
+
+  /**
+   * Setter for the listener told the metrics of every parse, which is shared by all
+   * threads. Without a listener no metrics are kept. Parses this library makes for its
+   * own use, such as {@link XmlSorter} reading its input, are not reported to it; a
+   * listener set with {@link XmlTokenizer#setParseListener(XmlParseListener)} is told of
+   * those too.
+   * 
+   * @param l The listener, or null to stop measuring
+   */
+  public static void setParseListener(XmlParseListener l) {
+    listener = l;
+  }
+
+  /**
+   * Feeds every token to events, then checks that the document was complete
+   */
+  static void parse(XmlTokenizer tokens, XmlEventParser events) throws XmlException {
+    parse(tokens, events, listenerFor(tokens));
+  }
+
+  /**
+   * Feeds every token to events, as {@link #parse(XmlTokenizer, XmlEventParser)} does,
+   * for a parse made by this library for its own use. Only a listener set on tokens is
+   * told of it.
+   */
+  static void parseInternal(XmlTokenizer tokens, XmlEventParser events) throws XmlException {
+    parse(tokens, events, tokens.getParseListener());
+  }
+
+  private static void parse(XmlTokenizer tokens, XmlEventParser events, XmlParseListener l) throws XmlException {
+    if (l == null) {
+      feed(tokens, events);
+      return;
+    }
+
+    XmlParseMetrics metrics = measure(tokens, events);
+    long start = System.nanoTime();
+    XmlException error = null;
+
+    try {
+      feed(tokens, events);
+    } catch (XmlException e) {
+      error = e;
+      throw e;
+    } finally {
+      report(l, metrics, tokens, events, System.nanoTime() - start, error);
+    }
+  }
+
+  private static void feed(XmlTokenizer tokens, XmlEventParser events) throws XmlException {
+    while (tokens.hasNext()) {
+      XmlToken token = tokens.next();
+      events.accept(token.getType(), token.getValue());
+    }
+
+    events.end();
+  }
+
+  private static XmlParseListener listenerFor(XmlTokenizer tokens) {
+    XmlParseListener l = tokens.getParseListener();
+    return l == null ? listener : l;
+  }
+
+  private static XmlParseMetrics measure(XmlTokenizer tokens, XmlEventParser events) {
+    XmlParseMetrics metrics = new XmlParseMetrics();
+
+    tokens.setMetrics(metrics);
+    events.setMetrics(metrics);
+
+    return metrics;
+  }
+
+  private static void report(XmlParseListener l, XmlParseMetrics metrics, XmlTokenizer tokens, XmlEventParser events, long nanos, XmlException error) {
+    tokens.setMetrics(null);
+    events.setMetrics(null);
+    metrics.finish(nanos, error);
+    l.completed(metrics);
+  }
+
+  private static String read(File f) throws IOException {
+    FileReader reader = new FileReader(f);
+    StringBuilder sb = new StringBuilder((int) f.length());
+    char[] buffer = new char[8192];
+
+    try {
+      int n;
+      while ((n = reader.read(buffer)) >= 0) {
+        sb.append(buffer, 0, n);
+      }
+    } finally {
+      reader.close();
+    }
+
+    return sb.toString();
+  }
+
+  private static final int PIPE_SLOTS = 16, PIPE_BATCH_SIZE = 1024;
+
+  private static volatile XmlParseListener listener;
 }
\ No newline at end of file
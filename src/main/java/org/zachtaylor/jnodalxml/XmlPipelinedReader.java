@@ -0,0 +1,152 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A Reader whose bytes are read, and optionally decompressed, on a thread of its own.
+ * Filled buffers are handed over through a bounded queue and recycled once decoded, so
+ * reading overlaps with whatever consumes the characters, in constant memory.
+ */
+final class XmlPipelinedReader extends Reader {
+  /**
+   * Constructor for XmlPipelinedReader, starting the reading thread
+   * 
+   * @param source The bytes, closed when exhausted or when this Reader is closed
+   * @param gzip Whether source is gzip-compressed
+   * @param charset Encoding of the decompressed bytes, which must be well-formed in it
+   */
+  XmlPipelinedReader(final InputStream source, final boolean gzip, Charset charset) {
+    decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    bytes.flip();
+
+    for (int i = 0; i < BUFFERS; i++) {
+      free.add(ByteBuffer.allocate(BUFFER_SIZE));
+    }
+
+    producer = new Thread(new Runnable() {
+      public void run() {
+        produce(source, gzip);
+      }
+    }, "jnodalxml-reader");
+    producer.setDaemon(true);
+    producer.start();
+  }
+
+  public int read(char[] buffer, int offset, int count) throws IOException, XmlException {
+    if (count == 0) {
+      return 0;
+    }
+
+    CharBuffer out = CharBuffer.wrap(buffer, offset, count);
+
+    while (true) {
+      CoderResult result = decoder.decode(bytes, out, ended);
+
+      if (result.isError())
+        throw new XmlException("Malformed input: " + result);
+      if (ended && !flushed) {
+        decoder.flush(out);
+        flushed = true;
+      }
+      if (out.position() > offset) {
+        return out.position() - offset;
+      }
+      if (ended) {
+        return -1;
+      }
+
+      ByteBuffer next = take();
+
+      if (next == END) {
+        ended = true;
+
+        if (error != null)
+          throw error;
+      }
+      else {
+        bytes.compact();
+        bytes.put(next);
+        bytes.flip();
+        free.add(next);
+      }
+    }
+  }
+
+  public void close() {
+    ended = true;
+    producer.interrupt();
+  }
+
+  private ByteBuffer take() throws IOException {
+    try {
+      return full.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for input");
+    }
+  }
+
+  private void produce(InputStream source, boolean gzip) {
+    InputStream in = source;
+
+    try {
+      if (gzip) {
+        in = new GZIPInputStream(source, BUFFER_SIZE);
+      }
+
+      while (true) {
+        ByteBuffer buffer = free.take();
+        byte[] array = buffer.array();
+        int n = 0, r = 0;
+
+        while (n < array.length && (r = in.read(array, n, array.length - n)) >= 0) {
+          n += r;
+        }
+
+        if (n > 0) {
+          buffer.clear();
+          buffer.limit(n);
+          full.put(buffer);
+        }
+        if (r < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      error = e;
+    } catch (InterruptedException e) {
+      // Closed by the consumer
+      return;
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+      }
+    }
+
+    full.add(END);
+  }
+
+  private static final int BUFFERS = 4, BUFFER_SIZE = 64 * 1024;
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+  private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+  private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE + 16);
+  private final CharsetDecoder decoder;
+  private final Thread producer;
+  private volatile IOException error;
+  private boolean ended, flushed;
+}
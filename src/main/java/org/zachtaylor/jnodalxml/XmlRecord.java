@@ -0,0 +1,172 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An element parsed by an {@link XmlSchemaParser}. Its attributes and value are held in
+ * typed slots, numbered as they were defined on its {@link XmlSchema.Element}.
+ */
+public class XmlRecord {
+  XmlRecord(XmlSchema.Element elementType) {
+    element = elementType;
+    types = elementType.slotTypes();
+    numbers = new long[types.length];
+    strings = new String[types.length];
+    present = new boolean[types.length];
+  }
+
+  /**
+   * Getter for the kind of element this is
+   * 
+   * @return The schema element
+   */
+  public XmlSchema.Element getElement() {
+    return element;
+  }
+
+  /**
+   * Tells whether a slot was given in the document
+   * 
+   * @param slot The slot
+   * @return Whether it has a value
+   */
+  public boolean has(int slot) {
+    return present[slot];
+  }
+
+  /**
+   * Getter for a STRING slot
+   * 
+   * @param slot The slot
+   * @return The value, or null if it was not given
+   * @throws XmlException If the slot is of another type
+   */
+  public String getString(int slot) throws XmlException {
+    check(slot, XmlSchema.Type.STRING);
+    return strings[slot];
+  }
+
+  /**
+   * Getter for a LONG slot
+   * 
+   * @param slot The slot
+   * @return The value, or 0 if it was not given
+   * @throws XmlException If the slot is of another type
+   */
+  public long getLong(int slot) throws XmlException {
+    check(slot, XmlSchema.Type.LONG);
+    return numbers[slot];
+  }
+
+  /**
+   * Getter for a DOUBLE slot
+   * 
+   * @param slot The slot
+   * @return The value, or 0 if it was not given
+   * @throws XmlException If the slot is of another type
+   */
+  public double getDouble(int slot) throws XmlException {
+    check(slot, XmlSchema.Type.DOUBLE);
+    return Double.longBitsToDouble(numbers[slot]);
+  }
+
+  /**
+   * Getter for a BOOLEAN slot
+   * 
+   * @param slot The slot
+   * @return The value, or false if it was not given
+   * @throws XmlException If the slot is of another type
+   */
+  public boolean getBoolean(int slot) throws XmlException {
+    check(slot, XmlSchema.Type.BOOLEAN);
+    return numbers[slot] != 0;
+  }
+
+  /**
+   * Getter for all of the children
+   * 
+   * @return An unmodifiable list of records, in document order
+   */
+  public List<XmlRecord> getChildren() {
+    if (children == null)
+      return Collections.emptyList();
+
+    return Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Getter for children of one kind
+   * 
+   * @param type The schema element
+   * @return A newly constructed list of the children of that kind
+   */
+  public List<XmlRecord> getChildren(XmlSchema.Element type) {
+    List<XmlRecord> val = new ArrayList<XmlRecord>();
+
+    if (children == null)
+      return val;
+
+    for (XmlRecord child : children) {
+      if (child.element == type)
+        val.add(child);
+    }
+
+    return val;
+  }
+
+  public String toString() {
+    return element.getName() + (children == null ? "" : " (" + children.size() + " children)");
+  }
+
+  /**
+   * Converts text into a slot
+   * 
+   * @throws XmlException If the text is not of the type of the slot
+   */
+  void set(int slot, String text) throws XmlException {
+    try {
+      switch (types[slot]) {
+      case STRING:
+        strings[slot] = text;
+        break;
+      case LONG:
+        numbers[slot] = XmlNumbers.parseLong(text, 0, text.length());
+        break;
+      case DOUBLE:
+        numbers[slot] = Double.doubleToRawLongBits(XmlNumbers.parseDouble(text, 0, text.length()));
+        break;
+      case BOOLEAN:
+        if (!"true".equals(text) && !"false".equals(text))
+          throw new NumberFormatException("Not a boolean: " + text);
+        numbers[slot] = "true".equals(text) ? 1 : 0;
+        break;
+      }
+    } catch (NumberFormatException e) {
+      throw new XmlException("Cannot read " + text + " as " + types[slot] + " in " + element.getName(), e);
+    }
+
+    present[slot] = true;
+  }
+
+  void addChild(XmlRecord child) {
+    if (children == null) {
+      children = new ArrayList<XmlRecord>();
+    }
+
+    children.add(child);
+  }
+
+  private void check(int slot, XmlSchema.Type type) throws XmlException {
+    if (types[slot] != type)
+      throw new XmlException("Slot " + slot + " of " + element.getName() + " is " + types[slot] + ", not " + type);
+  }
+
+  private final XmlSchema.Element element;
+  private final XmlSchema.Type[] types;
+  private final long[] numbers;
+  private final String[] strings;
+  private final boolean[] present;
+  private List<XmlRecord> children = null;
+}
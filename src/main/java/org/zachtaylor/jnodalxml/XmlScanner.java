@@ -0,0 +1,73 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Finds the next character that a state of {@link XmlTokenizer} must look at, so that
+ * the runs of ordinary characters between them can be handled in bulk.
+ * <p>
+ * Every structural character is ASCII below '@', so four characters at a time are
+ * packed into a long and skipped together when each lies between '@' and DEL. Only a
+ * group that fails this test is looked at one character at a time.
+ */
+final class XmlScanner {
+  /**
+   * Constructor for XmlScanner
+   * 
+   * @param specials The ASCII characters to stop at, all below '@'
+   * @param stopAtWhitespace Whether to stop at whitespace as well
+   */
+  XmlScanner(String specials, boolean stopAtWhitespace) {
+    whitespace = stopAtWhitespace;
+
+    for (int i = 0; i < specials.length(); i++) {
+      char c = specials.charAt(i);
+
+      if (c >= PLAIN_MIN)
+        throw new IllegalArgumentException("Special character " + c + " is not below '@'");
+
+      stops[c] = true;
+    }
+
+    if (whitespace) {
+      for (char c = 0; c < PLAIN_MIN; c++) {
+        stops[c] |= Character.isWhitespace(c);
+      }
+    }
+  }
+
+  /**
+   * Finds the next character to stop at
+   * 
+   * @param chars Buffer holding the characters
+   * @param from Index to start at
+   * @param to Index to end before
+   * @return Index of the first character to stop at, or to if there is none
+   */
+  int next(char[] chars, int from, int to) {
+    int i = from;
+
+    while (i < to) {
+      for (int last = to - 4; i <= last; i += 4) {
+        long word = chars[i] | (long) chars[i + 1] << 16 | (long) chars[i + 2] << 32 | (long) chars[i + 3] << 48;
+
+        // Zero when every lane is 0x0040-0x007F
+        if (((word & LANE_HIGH_BITS) ^ LANE_PLAIN) != 0)
+          break;
+      }
+
+      for (int end = Math.min(i + 4, to); i < end; i++) {
+        char c = chars[i];
+
+        if (c < 128 ? stops[c] : whitespace && Character.isWhitespace(c))
+          return i;
+      }
+    }
+
+    return to;
+  }
+
+  private static final int PLAIN_MIN = 0x40;
+  private static final long LANE_HIGH_BITS = 0xFFC0FFC0FFC0FFC0L, LANE_PLAIN = 0x0040004000400040L;
+
+  private final boolean[] stops = new boolean[128];
+  private final boolean whitespace;
+}
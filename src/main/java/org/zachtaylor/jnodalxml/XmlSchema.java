@@ -0,0 +1,221 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes documents of one fixed shape: which elements may appear inside which, and
+ * which attributes and values they have and of what type. A schema compiles into an
+ * {@link XmlSchemaParser} that parses such documents into {@link XmlRecord}s, looking
+ * names up by precomputed ids and storing values into typed slots, and rejecting any
+ * document that does not fit.
+ */
+public class XmlSchema {
+  /**
+   * The types a slot can hold
+   */
+  public enum Type {
+    STRING, LONG, DOUBLE, BOOLEAN;
+  }
+
+  /**
+   * Constructor for XmlSchema
+   * 
+   * @param rootName Name of the element every document must have at its root
+   */
+  public XmlSchema(String rootName) {
+    root = new Element(this, rootName);
+  }
+
+  /**
+   * Getter for the root element of documents
+   * 
+   * @return The root element
+   */
+  public Element getRoot() {
+    return root;
+  }
+
+  /**
+   * Compiles the schema. The schema cannot be changed afterwards.
+   * 
+   * @return A parser for documents of this schema
+   */
+  public XmlSchemaParser compile() {
+    if (!compiled) {
+      for (Element element : elements) {
+        element.compile();
+      }
+
+      compiled = true;
+    }
+
+    return new XmlSchemaParser(root);
+  }
+
+  /**
+   * One kind of element of a schema. Its attributes and value are numbered as slots,
+   * which are used to read them from an {@link XmlRecord}.
+   */
+  public static final class Element {
+    private Element(XmlSchema owner, String elementName) {
+      schema = owner;
+      name = elementName;
+      id = owner.elements.size();
+      owner.elements.add(this);
+    }
+
+    /**
+     * Getter for the name of this element
+     * 
+     * @return The element name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Getter for the id of this element, unique within its schema
+     * 
+     * @return The id
+     */
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * Allows a child element, defining it if it is new
+     * 
+     * @param childName Name of the child
+     * @return The child element, for defining its own contents
+     * @throws XmlException If the schema is compiled
+     */
+    public Element child(String childName) throws XmlException {
+      checkOpen();
+
+      for (Element child : children) {
+        if (child.name.equals(childName))
+          return child;
+      }
+
+      Element child = new Element(schema, childName);
+      children.add(child);
+      return child;
+    }
+
+    /**
+     * Allows an attribute
+     * 
+     * @param key Attribute name
+     * @param type Type the value is converted to
+     * @return The slot of the attribute
+     * @throws XmlException If the attribute is already defined or the schema is compiled
+     */
+    public int attribute(String key, Type type) throws XmlException {
+      checkOpen();
+
+      if (attributeNames.contains(key))
+        throw new XmlException("Attribute " + key + " of " + name + " is already defined");
+
+      attributeNames.add(key);
+      attributeSlots.add(slotTypes.size());
+      slotTypes.add(type);
+      return slotTypes.size() - 1;
+    }
+
+    /**
+     * Allows this element to have a value
+     * 
+     * @param type Type the value is converted to
+     * @return The slot of the value
+     * @throws XmlException If the value is already defined or the schema is compiled
+     */
+    public int value(Type type) throws XmlException {
+      checkOpen();
+
+      if (valueSlot >= 0)
+        throw new XmlException("Value of " + name + " is already defined");
+
+      valueSlot = slotTypes.size();
+      slotTypes.add(type);
+      return valueSlot;
+    }
+
+    /**
+     * Getter for the slot of an attribute
+     * 
+     * @param key Attribute name
+     * @return The slot, or -1 if the attribute is not defined
+     */
+    public int getSlot(String key) {
+      int i = attributeNames.indexOf(key);
+
+      return i < 0 ? -1 : attributeSlots.get(i);
+    }
+
+    public String toString() {
+      return name;
+    }
+
+    Element compiledChild(String childName) {
+      int i = childTable.id(childName);
+
+      return i < 0 ? null : childArray[i];
+    }
+
+    int attributeSlot(String key) {
+      int i = attributeTable.id(key);
+
+      return i < 0 ? -1 : attributeSlotArray[i];
+    }
+
+    int valueSlot() {
+      return valueSlot;
+    }
+
+    Type[] slotTypes() {
+      return slotTypeArray;
+    }
+
+    private void compile() {
+      childArray = children.toArray(new Element[children.size()]);
+      String[] childNames = new String[childArray.length];
+
+      for (int i = 0; i < childArray.length; i++) {
+        childNames[i] = childArray[i].name;
+      }
+
+      childTable = new XmlNameTable(childNames);
+      attributeTable = new XmlNameTable(attributeNames.toArray(new String[attributeNames.size()]));
+      attributeSlotArray = new int[attributeSlots.size()];
+
+      for (int i = 0; i < attributeSlotArray.length; i++) {
+        attributeSlotArray[i] = attributeSlots.get(i);
+      }
+
+      slotTypeArray = slotTypes.toArray(new Type[slotTypes.size()]);
+    }
+
+    private void checkOpen() throws XmlException {
+      if (schema.compiled)
+        throw new XmlException("Schema is already compiled");
+    }
+
+    private final XmlSchema schema;
+    private final String name;
+    private final int id;
+    private final List<Element> children = new ArrayList<Element>();
+    private final List<String> attributeNames = new ArrayList<String>();
+    private final List<Integer> attributeSlots = new ArrayList<Integer>();
+    private final List<Type> slotTypes = new ArrayList<Type>();
+    private int valueSlot = -1;
+    private Element[] childArray;
+    private XmlNameTable childTable, attributeTable;
+    private int[] attributeSlotArray;
+    private Type[] slotTypeArray;
+  }
+
+  private final List<Element> elements = new ArrayList<Element>();
+  private final Element root;
+  private boolean compiled = false;
+}
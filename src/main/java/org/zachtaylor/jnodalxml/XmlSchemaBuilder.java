@@ -0,0 +1,117 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds XmlRecords from {@link XmlHandler} events, failing on the first element,
+ * attribute or text that the schema does not allow
+ */
+final class XmlSchemaBuilder implements XmlHandler {
+  XmlSchemaBuilder(XmlSchema.Element rootElement) {
+    root = rootElement;
+  }
+
+  /**
+   * Getter for the root record
+   * 
+   * @return The record, or null if the root has not closed yet
+   */
+  XmlRecord getResult() {
+    return result;
+  }
+
+  public void startElement(String name) {
+    if (records.isEmpty() && name.startsWith("?")) {
+      // Processing instructions are not part of the schema
+      skipped++;
+      return;
+    }
+
+    flushText();
+
+    XmlSchema.Element element;
+
+    if (records.isEmpty()) {
+      if (result != null)
+        throw new XmlException("Element " + name + " follows the root element");
+      if (!root.getName().equals(name))
+        throw new XmlException("Root element must be " + root.getName() + ", not " + name);
+
+      element = root;
+    }
+    else {
+      XmlRecord parent = records.get(records.size() - 1);
+      element = parent.getElement().compiledChild(name);
+
+      if (element == null)
+        throw new XmlException("Element " + name + " is not allowed in " + parent.getElement().getName());
+    }
+
+    XmlRecord record = new XmlRecord(element);
+
+    if (!records.isEmpty()) {
+      records.get(records.size() - 1).addChild(record);
+    }
+
+    records.add(record);
+  }
+
+  public void attribute(String key, String value) {
+    if (skipped > 0) {
+      return;
+    }
+
+    XmlRecord record = records.get(records.size() - 1);
+    int slot = record.getElement().attributeSlot(key);
+
+    if (slot < 0)
+      throw new XmlException("Attribute " + key + " is not allowed in " + record.getElement().getName());
+
+    record.set(slot, value);
+  }
+
+  public void text(String word) {
+    if (text.length() > 0) {
+      text.append(' ');
+    }
+
+    text.append(word);
+  }
+
+  public void endElement(String name, boolean selfClosing) {
+    if (skipped > 0) {
+      skipped--;
+      return;
+    }
+
+    flushText();
+
+    XmlRecord record = records.remove(records.size() - 1);
+
+    if (records.isEmpty()) {
+      result = record;
+    }
+  }
+
+  private void flushText() {
+    if (text.length() == 0) {
+      return;
+    }
+
+    XmlRecord record = records.get(records.size() - 1);
+    int slot = record.getElement().valueSlot();
+
+    if (slot < 0)
+      throw new XmlException("Text is not allowed in " + record.getElement().getName());
+
+    record.set(slot, text.toString());
+    text.setLength(0);
+  }
+
+  private final XmlSchema.Element root;
+  private final List<XmlRecord> records = new ArrayList<XmlRecord>();
+  private final StringBuilder text = new StringBuilder();
+  private XmlRecord result;
+  private int skipped;
+}
@@ -0,0 +1,43 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Parses documents of one {@link XmlSchema}, as compiled by {@link XmlSchema#compile()}.
+ * A parser holds no state between documents, so one can be shared by any number of
+ * threads.
+ */
+public final class XmlSchemaParser {
+  XmlSchemaParser(XmlSchema.Element rootElement) {
+    root = rootElement;
+  }
+
+  /**
+   * Parses a document
+   * 
+   * @param tokens The document
+   * @return The root record
+   * @throws XmlException If the document is malformed or does not fit the schema
+   */
+  public XmlRecord parse(XmlTokenizer tokens) throws XmlException {
+    XmlSchemaBuilder builder = new XmlSchemaBuilder(root);
+
+    XmlParser.parseInternal(tokens, new XmlEventParser(builder));
+
+    if (builder.getResult() == null)
+      throw new XmlException("Document has no " + root.getName() + " element");
+
+    return builder.getResult();
+  }
+
+  /**
+   * Parses a document
+   * 
+   * @param s The document
+   * @return The root record
+   * @throws XmlException If the document is malformed or does not fit the schema
+   */
+  public XmlRecord parse(String s) throws XmlException {
+    return parse(new XmlTokenizer(s));
+  }
+
+  private final XmlSchema.Element root;
+}
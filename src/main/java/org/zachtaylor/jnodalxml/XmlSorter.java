@@ -0,0 +1,707 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts the records of a document by key, for documents too large to hold in memory.
+ * The document is a root element holding only record elements, such as
+ * <code>&lt;records&gt;&lt;record id="2"/&gt;&lt;record id="1"/&gt;&lt;/records&gt;</code>;
+ * the key of each record is one of its attributes or the value of one of its children.
+ * <p>
+ * Records are read in runs that fit the memory budget. Each run is sorted and written
+ * to a temporary file in a compact binary form, and the files are then merged into the
+ * output, which has the same root and the records in order. A document that fits in
+ * one run never touches the disk. The sort is stable: records with equal keys keep
+ * the order they were read in.
+ */
+public final class XmlSorter {
+  /**
+   * Constructor for XmlSorter
+   * 
+   * @param recordName The name of the record elements
+   */
+  public XmlSorter(String recordName) {
+    record = recordName;
+  }
+
+  /**
+   * Setter for the attribute of each record that it is sorted by. Records without it
+   * sort as if it were empty.
+   * 
+   * @param key The attribute key
+   * @return This sorter
+   */
+  public XmlSorter setKeyAttribute(String key) {
+    keyAttribute = key;
+    keyChild = null;
+    return this;
+  }
+
+  /**
+   * Setter for the child of each record whose value it is sorted by, the first if
+   * there are several. Records without it sort as if it were empty.
+   * 
+   * @param name The child name
+   * @return This sorter
+   */
+  public XmlSorter setKeyChild(String name) {
+    keyChild = name;
+    keyAttribute = null;
+    return this;
+  }
+
+  /**
+   * Setter for the order of keys, by default {@link String#compareTo(String)}
+   * 
+   * @param c The order
+   * @return This sorter
+   */
+  public XmlSorter setComparator(Comparator<String> c) {
+    comparator = c;
+    return this;
+  }
+
+  /**
+   * Setter for roughly the most memory that records being sorted take up, by default
+   * 64 MiB
+   * 
+   * @param n The budget in bytes
+   * @return This sorter
+   * @throws XmlException If n is less than 1
+   */
+  public XmlSorter setMemoryBudget(long n) throws XmlException {
+    if (n < 1)
+      throw new XmlException("Memory budget must be at least 1");
+
+    budget = n;
+    return this;
+  }
+
+  /**
+   * Setter for how many runs are sorted and written at once on other threads while the
+   * next run is read, by default 1. The memory budget is shared between them.
+   * 
+   * @param n The number of threads
+   * @return This sorter
+   * @throws XmlException If n is less than 1
+   */
+  public XmlSorter setParallelism(int n) throws XmlException {
+    if (n < 1)
+      throw new XmlException("Parallelism must be at least 1");
+
+    parallelism = n;
+    return this;
+  }
+
+  /**
+   * Setter for where runs are written
+   * 
+   * @param dir The directory, or null for the default temporary directory
+   * @return This sorter
+   */
+  public XmlSorter setTempDirectory(File dir) {
+    tempDirectory = dir;
+    return this;
+  }
+
+  /**
+   * Sorts the records of a UTF-8 file into another file, written as UTF-8
+   * 
+   * @param in The document to sort
+   * @param out Where to write the sorted document
+   * @return The number of records
+   * @throws IOException If a file cannot be read or written
+   * @throws XmlException If the document is malformed, or holds anything other than records under its root
+   */
+  public long sort(File in, File out) throws IOException, XmlException {
+    return sort(in, XmlBinaryWriter.UTF_8, out);
+  }
+
+  /**
+   * Sorts the records of a file into another file, written as UTF-8
+   * 
+   * @param in The document to sort
+   * @param charset Encoding of the document to sort
+   * @param out Where to write the sorted document
+   * @return The number of records
+   * @throws IOException If a file cannot be read or written
+   * @throws XmlException If the document is malformed, or holds anything other than records under its root
+   */
+  public long sort(File in, Charset charset, File out) throws IOException, XmlException {
+    XmlTokenizer tokens = new XmlTokenizer(new InputStreamReader(new FileInputStream(in), charset));
+
+    try {
+      return sort(tokens, out);
+    } finally {
+      tokens.close();
+    }
+  }
+
+  /**
+   * Sorts the records of a document into a file, written as UTF-8
+   * 
+   * @param in The document to sort
+   * @param out Where to write the sorted document
+   * @return The number of records
+   * @throws IOException If a file cannot be read or written
+   * @throws XmlException If the document is malformed, or holds anything other than records under its root
+   */
+  public long sort(XmlTokenizer in, File out) throws IOException, XmlException {
+    Sort sort = new Sort();
+
+    try {
+      XmlParser.parseInternal(in, new XmlEventParser(sort));
+
+      if (sort.rootName == null)
+        throw new XmlException("Document has no root element");
+
+      if (sort.futures.isEmpty()) {
+        Collections.sort(sort.run, sort.order);
+        sort.write(out, sort.run);
+      }
+      else {
+        sort.spill();
+        sort.merge(out);
+      }
+
+      return sort.count;
+    } finally {
+      sort.close();
+    }
+  }
+
+  /**
+   * A record read, as its key and its binary form
+   */
+  private static final class Entry {
+    Entry(String k, byte[] b) {
+      key = k;
+      bytes = b;
+    }
+
+    final String key;
+    final byte[] bytes;
+  }
+
+  /**
+   * The state of one call to sort, which receives the records as they are parsed
+   */
+  private final class Sort implements XmlHandler {
+    Sort() {
+      runBudget = Math.max(1, budget / (parallelism == 1 ? 1 : parallelism + 1));
+      slots = new Semaphore(parallelism);
+      executor = parallelism == 1 ? null : Executors.newFixedThreadPool(parallelism);
+      order = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+          return comparator.compare(a.key, b.key);
+        }
+      };
+    }
+
+    public void startElement(String name) {
+      if (depth == 0 && name.startsWith("?")) {
+        // Processing instructions such as <?xml ...?> are not records
+        skipped++;
+        return;
+      }
+
+      if (depth == 0) {
+        if (rootName != null)
+          throw new XmlException("Document has more than one root element");
+
+        rootName = name;
+      }
+      else if (depth == 1 && !name.equals(record))
+        throw new XmlException("Unexpected element " + name + " among " + record + " records");
+
+      if (depth > 0) {
+        builder.startElement(name);
+      }
+
+      depth++;
+    }
+
+    public void attribute(String key, String value) {
+      if (skipped > 0) {
+        return;
+      }
+
+      if (depth == 1) {
+        rootAttributes.add(new XmlAttribute(key, value));
+      }
+      else {
+        builder.attribute(key, value);
+      }
+    }
+
+    public void text(String word) {
+      if (depth < 2)
+        throw new XmlException("Unexpected text among " + record + " records");
+
+      builder.text(word);
+    }
+
+    public void endElement(String name, boolean selfClosing) {
+      if (skipped > 0) {
+        skipped--;
+        return;
+      }
+
+      depth--;
+
+      if (depth > 0) {
+        builder.endElement(name, selfClosing);
+      }
+    }
+
+    void add(XmlNode node) {
+      String key = key(node);
+
+      encoder.reset();
+      encoder.node(node);
+
+      Entry entry = new Entry(key, encoder.toByteArray());
+      run.add(entry);
+      runSize += entry.bytes.length + 2L * key.length() + ENTRY_OVERHEAD;
+      count++;
+
+      if (runSize >= runBudget) {
+        try {
+          spill();
+        } catch (IOException e) {
+          throw new XmlException("Cannot write run", e);
+        }
+      }
+    }
+
+    private String key(XmlNode node) {
+      String key = null;
+
+      if (keyAttribute != null) {
+        XmlAttribute attribute = node.getAttribute(keyAttribute);
+        key = attribute == null ? null : attribute.getValue();
+      }
+      else if (keyChild != null) {
+        List<XmlNode> children = node.getChildren(keyChild);
+        key = children.isEmpty() ? null : children.get(0).getValue();
+      }
+
+      return key == null ? "" : key;
+    }
+
+    /**
+     * Sorts the current run and writes it to a file, on another thread if there are
+     * several
+     */
+    void spill() throws IOException {
+      final List<Entry> entries = run;
+      run = new ArrayList<Entry>();
+      runSize = 0;
+
+      Callable<File> task = new Callable<File>() {
+        public File call() throws IOException {
+          try {
+            Collections.sort(entries, order);
+            return writeRun(entries);
+          } finally {
+            slots.release();
+          }
+        }
+      };
+
+      slots.acquireUninterruptibly();
+
+      if (executor == null) {
+        try {
+          futures.add(new Done(task.call()));
+        } catch (IOException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new XmlException("Cannot write run", e);
+        }
+      }
+      else {
+        futures.add(executor.submit(task));
+      }
+    }
+
+    /**
+     * Merges the runs, a limited number at a time, into out. Each round merges every
+     * group of consecutive runs once, so the records are rewritten once per round.
+     */
+    void merge(File out) throws IOException {
+      for (Future<File> future : futures) {
+        runs.add(get(future));
+      }
+
+      while (runs.size() > MERGE_WIDTH) {
+        for (int i = 0; i < runs.size(); i++) {
+          List<File> group = runs.subList(i, Math.min(i + MERGE_WIDTH, runs.size()));
+
+          if (group.size() > 1) {
+            File merged = mergeRuns(group);
+
+            // Replaces the group in place, keeping runs in the order they were read
+            group.clear();
+            runs.add(i, merged);
+          }
+        }
+      }
+
+      final List<RunReader> readers = openAll(runs);
+
+      try {
+        final PriorityQueue<RunReader> queue = queue(readers);
+
+        write(out, new Records() {
+          public byte[] next() throws IOException {
+            if (queue.isEmpty())
+              return null;
+
+            RunReader reader = queue.remove();
+            byte[] bytes = reader.bytes;
+
+            if (reader.next()) {
+              queue.add(reader);
+            }
+
+            return bytes;
+          }
+        });
+      } finally {
+        closeAll(readers);
+      }
+    }
+
+    void write(File out, final List<Entry> entries) throws IOException {
+      write(out, new Records() {
+        public byte[] next() {
+          return i < entries.size() ? entries.get(i++).bytes : null;
+        }
+
+        private int i = 0;
+      });
+    }
+
+    private void write(File out, Records records) throws IOException {
+      FileOutputStream stream = new FileOutputStream(out);
+      XmlByteWriter writer = new XmlByteWriter(stream.getChannel()).setWriteListener(null);
+
+      try {
+        writer.startTag(rootName);
+        for (XmlAttribute attribute : rootAttributes) {
+          writer.attribute(attribute.getKey(), attribute.getValue());
+        }
+        writer.endStartTag();
+
+        for (byte[] bytes = records.next(); bytes != null; bytes = records.next()) {
+          writer.write(new XmlBinaryReader(bytes).node());
+        }
+
+        writer.endTag(rootName);
+        writer.newline();
+      } finally {
+        try {
+          writer.close();
+        } finally {
+          stream.close();
+        }
+      }
+    }
+
+    void close() {
+      if (executor != null) {
+        executor.shutdownNow();
+
+        try {
+          // A run being written cannot be interrupted, so its file is only known once it finishes
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      for (Future<File> future : futures) {
+        try {
+          if (future.isDone()) {
+            future.get().delete();
+          }
+        } catch (Exception e) {
+          // The run was never written
+        }
+      }
+
+      for (File f : runs) {
+        f.delete();
+      }
+    }
+
+    /**
+     * Merges a group of runs into a new run, deleting the group
+     * 
+     * @return The new run
+     */
+    private File mergeRuns(List<File> group) throws IOException {
+      File merged = newRun();
+      DataOutputStream data = open(merged);
+
+      try {
+        int total = 0;
+        List<RunReader> readers = openAll(group);
+
+        try {
+          for (RunReader reader : readers) {
+            total += reader.remaining;
+          }
+
+          data.writeInt(total);
+          PriorityQueue<RunReader> queue = queue(readers);
+
+          while (!queue.isEmpty()) {
+            RunReader reader = queue.remove();
+            writeEntry(data, reader.key, reader.bytes);
+
+            if (reader.next()) {
+              queue.add(reader);
+            }
+          }
+        } finally {
+          closeAll(readers);
+        }
+      } finally {
+        data.close();
+      }
+
+      for (File f : group) {
+        f.delete();
+      }
+
+      return merged;
+    }
+
+    private File writeRun(List<Entry> entries) throws IOException {
+      File f = newRun();
+      DataOutputStream data = open(f);
+      boolean written = false;
+
+      try {
+        data.writeInt(entries.size());
+
+        for (Entry entry : entries) {
+          writeEntry(data, entry.key, entry.bytes);
+        }
+        written = true;
+      } finally {
+        data.close();
+
+        if (!written) {
+          f.delete();
+        }
+      }
+
+      return f;
+    }
+
+    private File newRun() throws IOException {
+      return File.createTempFile("jnodalxml-run", ".bin", tempDirectory);
+    }
+
+    private DataOutputStream open(File f) throws FileNotFoundException {
+      return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), IO_BUFFER_SIZE));
+    }
+
+    private void writeEntry(DataOutputStream data, String key, byte[] bytes) throws IOException {
+      byte[] k = key.getBytes(XmlBinaryWriter.UTF_8);
+
+      data.writeInt(k.length);
+      data.write(k);
+      data.writeInt(bytes.length);
+      data.write(bytes);
+    }
+
+    private List<RunReader> openAll(List<File> files) throws IOException {
+      List<RunReader> readers = new ArrayList<RunReader>();
+
+      try {
+        for (int i = 0; i < files.size(); i++) {
+          readers.add(new RunReader(files.get(i), i));
+        }
+      } catch (IOException e) {
+        closeAll(readers);
+        throw e;
+      }
+
+      return readers;
+    }
+
+    private void closeAll(List<RunReader> readers) {
+      for (RunReader reader : readers) {
+        try {
+          reader.in.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    private PriorityQueue<RunReader> queue(List<RunReader> readers) throws IOException {
+      PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, readers.size()), new Comparator<RunReader>() {
+        public int compare(RunReader a, RunReader b) {
+          int c = comparator.compare(a.key, b.key);
+          // Earlier runs first among equal keys, for a stable sort
+          return c != 0 ? c : a.index - b.index;
+        }
+      });
+
+      for (RunReader reader : readers) {
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+
+      return queue;
+    }
+
+    private File get(Future<File> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new XmlException("Interrupted while sorting", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+
+        throw new XmlException("Cannot write run", e.getCause());
+      }
+    }
+
+    private final long runBudget;
+    private final Semaphore slots;
+    private final ExecutorService executor;
+    private final Comparator<Entry> order;
+    private final XmlBinaryWriter encoder = new XmlBinaryWriter();
+    private final XmlTreeBuilder builder = new XmlTreeBuilder(null, new ArrayList<XmlNode>() {
+      public boolean add(XmlNode node) {
+        Sort.this.add(node);
+        return true;
+      }
+    });
+    private final List<XmlAttribute> rootAttributes = new ArrayList<XmlAttribute>();
+    private final List<Future<File>> futures = new ArrayList<Future<File>>();
+    private final List<File> runs = new ArrayList<File>();
+    private List<Entry> run = new ArrayList<Entry>();
+    private String rootName;
+    private long runSize, count;
+    private int depth, skipped;
+  }
+
+  /**
+   * Reads the entries of one run in order
+   */
+  private static final class RunReader {
+    RunReader(File f, int runIndex) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), IO_BUFFER_SIZE));
+      index = runIndex;
+      remaining = in.readInt();
+    }
+
+    /**
+     * Reads the next entry
+     * 
+     * @return False if the run is exhausted
+     */
+    boolean next() throws IOException {
+      if (remaining == 0)
+        return false;
+
+      byte[] k = new byte[in.readInt()];
+      in.readFully(k);
+      bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      key = new String(k, XmlBinaryWriter.UTF_8);
+      remaining--;
+      return true;
+    }
+
+    final DataInputStream in;
+    final int index;
+    int remaining;
+    String key;
+    byte[] bytes;
+  }
+
+  /**
+   * The records to write, in order
+   */
+  private interface Records {
+    byte[] next() throws IOException;
+  }
+
+  /**
+   * A run written on the calling thread
+   */
+  private static final class Done implements Future<File> {
+    Done(File f) {
+      file = f;
+    }
+
+    public boolean cancel(boolean mayInterrupt) {
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public boolean isDone() {
+      return true;
+    }
+
+    public File get() {
+      return file;
+    }
+
+    public File get(long timeout, TimeUnit unit) {
+      return file;
+    }
+
+    private final File file;
+  }
+
+  private static final int MERGE_WIDTH = 64, ENTRY_OVERHEAD = 64, IO_BUFFER_SIZE = 64 * 1024;
+
+  private final String record;
+  private String keyAttribute, keyChild;
+  private Comparator<String> comparator = new Comparator<String>() {
+    public int compare(String a, String b) {
+      return a.compareTo(b);
+    }
+  };
+  private long budget = 64L * 1024 * 1024;
+  private int parallelism = 1;
+  private File tempDirectory;
+}
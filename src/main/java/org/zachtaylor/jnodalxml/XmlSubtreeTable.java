@@ -0,0 +1,90 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash-conses subtrees as they are built: a node whose name, attributes, value and
+ * children match a node seen before is replaced by that node. Nodes are offered
+ * children first, so their children are already canonical and are compared by
+ * identity, making each lookup proportional to the size of one node.
+ */
+final class XmlSubtreeTable {
+  /**
+   * Finds the canonical node equal to node, registering node if it is the first
+   * 
+   * @param node A node whose children have all been through this table
+   * @return The canonical node, which is marked shared if it is not node itself
+   */
+  XmlNode canonical(XmlNode node, String value, Map<String, XmlAttribute> attributes, List<XmlNode> children, boolean selfClosing) {
+    Key key = new Key(node.getName(), value, attributes, children, selfClosing);
+    XmlNode canonical = table.get(key);
+
+    if (canonical == null) {
+      table.put(key, node);
+      return node;
+    }
+
+    canonical.share();
+    return canonical;
+  }
+
+  private static final class Key {
+    Key(String n, String v, Map<String, XmlAttribute> a, List<XmlNode> c, boolean s) {
+      name = n;
+      value = v;
+      attributes = a;
+      children = c;
+      selfClosing = s;
+
+      int h = name.hashCode() * 31 + (value == null ? 0 : value.hashCode());
+
+      for (XmlAttribute attribute : attributes.values()) {
+        h += attribute.getKey().hashCode() ^ attribute.getValue().hashCode();
+      }
+
+      if (children != null) {
+        for (XmlNode child : children) {
+          h = h * 31 + System.identityHashCode(child);
+        }
+      }
+
+      hash = selfClosing ? ~h : h;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      Key k = (Key) o;
+
+      if (hash != k.hash || selfClosing != k.selfClosing || !name.equals(k.name))
+        return false;
+      if (value == null ? k.value != null : !value.equals(k.value))
+        return false;
+      if (!attributes.equals(k.attributes))
+        return false;
+      if (children == null || k.children == null)
+        return children == k.children;
+      if (children.size() != k.children.size())
+        return false;
+
+      for (int i = 0; i < children.size(); i++) {
+        if (children.get(i) != k.children.get(i))
+          return false;
+      }
+
+      return true;
+    }
+
+    final String name, value;
+    final Map<String, XmlAttribute> attributes;
+    final List<XmlNode> children;
+    final boolean selfClosing;
+    final int hash;
+  }
+
+  private final Map<Key, XmlNode> table = new HashMap<Key, XmlNode>();
+}
@@ -0,0 +1,230 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates element text in a list of fixed-size chunks, so that appending is linear
+ * in the length of the text and large values never need to exist as one String
+ */
+final class XmlText {
+  XmlText(String word) {
+    append(word);
+  }
+
+  /**
+   * Appends a word, separated from the previous word by a single space, which is how
+   * the parser joins text tokens
+   * 
+   * @param word The word to append
+   * @return This XmlText
+   */
+  XmlText appendWord(String word) {
+    if (length > 0) {
+      append(" ");
+    }
+
+    return append(word);
+  }
+
+  /**
+   * Appends the characters of s as they are
+   * 
+   * @param s The characters to append
+   * @return This XmlText
+   */
+  XmlText append(String s) {
+    int offset = 0;
+
+    while (offset < s.length()) {
+      if (current == null || position == current.length) {
+        current = new char[Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, Math.max(length, s.length() - offset)))];
+        chunks.add(current);
+        position = 0;
+      }
+
+      int count = Math.min(current.length - position, s.length() - offset);
+      s.getChars(offset, offset + count, current, position);
+
+      offset += count;
+      position += count;
+      length += count;
+    }
+
+    return this;
+  }
+
+  int length() {
+    return length;
+  }
+
+  /**
+   * Tells whether the text fits in a single chunk, in which case holding it as a String
+   * costs no more than holding it as an XmlText
+   */
+  boolean isSmall() {
+    return chunks.size() < 2;
+  }
+
+  /**
+   * Writes the text to out one chunk at a time
+   * 
+   * @param out Destination
+   * @throws IOException If out throws
+   */
+  void writeTo(Appendable out) throws IOException {
+    for (int i = 0; i < chunks.size(); i++) {
+      char[] chunk = chunks.get(i);
+
+      if (out instanceof Writer) {
+        ((Writer) out).write(chunk, 0, chunkLength(i));
+      }
+      else {
+        out.append(CharBuffer.wrap(chunk, 0, chunkLength(i)));
+      }
+    }
+  }
+
+  /**
+   * Appends the text to sb, escaped as element text
+   * 
+   * @param sb Destination
+   */
+  void appendEscapedTo(StringBuilder sb) {
+    for (int i = 0; i < chunks.size(); i++) {
+      XmlEntities.appendText(sb, CharBuffer.wrap(chunks.get(i), 0, chunkLength(i)));
+    }
+  }
+
+  /**
+   * Writes the text to out as UTF-8, escaped as element text
+   * 
+   * @param out Destination
+   * @throws IOException If the channel of out throws
+   */
+  void writeEscapedTo(XmlByteWriter out) throws IOException {
+    for (int i = 0; i < chunks.size(); i++) {
+      out.text(CharBuffer.wrap(chunks.get(i), 0, chunkLength(i)));
+    }
+  }
+
+  /**
+   * Opens a Reader over the chunks. Text appended after the Reader is opened may or may
+   * not be seen by it.
+   * 
+   * @return A new Reader
+   */
+  Reader reader() {
+    return new Reader() {
+      public int read(char[] buffer, int offset, int count) {
+        while (chunk < chunks.size() && index == chunkLength(chunk)) {
+          chunk++;
+          index = 0;
+        }
+
+        if (chunk == chunks.size()) {
+          return -1;
+        }
+
+        int n = Math.min(count, chunkLength(chunk) - index);
+        System.arraycopy(chunks.get(chunk), index, buffer, offset, n);
+        index += n;
+        return n;
+      }
+
+      public void close() {
+        chunk = chunks.size();
+      }
+
+      private int chunk = 0, index = 0;
+    };
+  }
+
+  /**
+   * Compares the characters of this text with those of s, a chunk at a time
+   * 
+   * @param s The characters to compare with
+   * @return True if they are the same
+   */
+  boolean contentEquals(String s) {
+    if (s.length() != length)
+      return false;
+
+    for (int i = 0, offset = 0; i < chunks.size(); i++) {
+      char[] chunk = chunks.get(i);
+
+      for (int j = 0, n = chunkLength(i); j < n; j++, offset++) {
+        if (chunk[j] != s.charAt(offset))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Compares the characters of this text with those of another, a chunk at a time, so
+   * that neither is ever joined into one String. The two may be chunked differently.
+   * 
+   * @param other The text to compare with
+   * @return True if they are the same
+   */
+  boolean contentEquals(XmlText other) {
+    if (other.length != length)
+      return false;
+
+    int i = 0, offset = 0, otherI = 0, otherOffset = 0;
+
+    for (int remaining = length; remaining > 0;) {
+      char[] chunk = chunks.get(i), otherChunk = other.chunks.get(otherI);
+      int count = Math.min(chunkLength(i) - offset, other.chunkLength(otherI) - otherOffset);
+
+      for (int j = 0; j < count; j++) {
+        if (chunk[offset + j] != otherChunk[otherOffset + j])
+          return false;
+      }
+
+      remaining -= count;
+      offset += count;
+      otherOffset += count;
+
+      if (offset == chunkLength(i)) {
+        i++;
+        offset = 0;
+      }
+      if (otherOffset == other.chunkLength(otherI)) {
+        otherI++;
+        otherOffset = 0;
+      }
+    }
+
+    return true;
+  }
+
+  public String toString() {
+    char[] chars = new char[length];
+    int offset = 0;
+
+    for (int i = 0; i < chunks.size(); i++) {
+      int count = chunkLength(i);
+      System.arraycopy(chunks.get(i), 0, chars, offset, count);
+      offset += count;
+    }
+
+    return new String(chars);
+  }
+
+  private int chunkLength(int i) {
+    return i == chunks.size() - 1 ? position : chunks.get(i).length;
+  }
+
+  private static final int MIN_CHUNK = 32, MAX_CHUNK = 8192;
+
+  private final List<char[]> chunks = new ArrayList<char[]>();
+  private char[] current = null;
+  private int position = 0, length = 0;
+}
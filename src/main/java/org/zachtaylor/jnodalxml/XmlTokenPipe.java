@@ -0,0 +1,198 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free ring of token batches between one producing thread, which tokenizes, and
+ * one consuming thread, which parses. Batches live in the ring's slots and are reused
+ * once consumed, so steady-state transfer allocates nothing.
+ */
+final class XmlTokenPipe {
+  /**
+   * Constructor for XmlTokenPipe
+   * 
+   * @param slots Number of batches in the ring, a power of two
+   * @param batchSize Number of tokens per batch
+   */
+  XmlTokenPipe(int slots, int batchSize) {
+    batches = new Batch[slots];
+    mask = slots - 1;
+
+    for (int i = 0; i < slots; i++) {
+      batches[i] = new Batch(batchSize);
+    }
+  }
+
+  /**
+   * Tokenizes the whole of tokens into this pipe, then marks the end of input. Called
+   * by the producer only, which closes tokens if it stops early, since the consumer
+   * cannot do so while the producer may still be reading.
+   * 
+   * @param tokens The tokenizer, which is used by this thread alone until it returns
+   */
+  void produce(XmlTokenizer tokens) {
+    try {
+      tokens.pipeTo(this);
+      end(null);
+    } catch (Cancelled e) {
+      // The consumer has failed and stopped reading
+    } catch (Throwable e) {
+      end(e);
+    } finally {
+      tokens.close();
+    }
+  }
+
+  /**
+   * Adds a token to the batch being filled, publishing the batch when it is full.
+   * Called by the producer, through {@link XmlTokenizer#pipeTo(XmlTokenPipe)}.
+   * 
+   * @throws Cancelled If the consumer has stopped
+   */
+  void add(XmlTokenType type, String value) {
+    if (filling == null) {
+      filling = claim();
+    }
+
+    filling.types[filling.count] = type;
+    filling.values[filling.count] = value;
+
+    if (++filling.count == filling.types.length) {
+      publish();
+    }
+  }
+
+  /**
+   * Publishes the last batch, marked as the end of input
+   * 
+   * @param failure Why the producer stopped early, or null if the input was exhausted
+   */
+  private void end(Throwable failure) {
+    error = failure;
+
+    try {
+      if (filling == null) {
+        filling = claim();
+      }
+
+      filling.last = true;
+      publish();
+    } catch (Cancelled e) {
+      // The consumer has failed and stopped reading
+    }
+  }
+
+  /**
+   * Feeds every token to events as batches arrive. Called by the consumer only.
+   * 
+   * @param events Receives the tokens
+   * @param metrics Metrics that the time spent on tokens is counted into, not counting waits for them, or null
+   * @throws XmlException If the producer failed, or a token cannot be parsed
+   */
+  void drainTo(XmlEventParser events, XmlParseMetrics metrics) throws XmlException {
+    try {
+      while (true) {
+        long head = consumed.get();
+        int spins = 0;
+
+        while (published.get() == head) {
+          spins = idle(spins);
+        }
+
+        Batch batch = batches[(int) head & mask];
+        boolean last = batch.last;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        for (int i = 0; i < batch.count; i++) {
+          events.accept(batch.types[i], batch.values[i]);
+        }
+
+        if (metrics != null) {
+          metrics.built(System.nanoTime() - start);
+        }
+
+        Arrays.fill(batch.values, 0, batch.count, null);
+        batch.count = 0;
+        batch.last = false;
+        consumed.lazySet(head + 1);
+
+        if (last) {
+          break;
+        }
+      }
+    } catch (Throwable e) {
+      // Errors too, or the producer would wait forever for the ring to drain
+      cancelled = true;
+      throw e;
+    }
+
+    if (error instanceof RuntimeException)
+      throw (RuntimeException) error;
+    if (error != null)
+      throw new XmlException("Cannot tokenize document", error);
+  }
+
+  private Batch claim() {
+    long tail = published.get();
+    int spins = 0;
+
+    while (tail - consumed.get() == batches.length) {
+      if (cancelled)
+        throw new Cancelled();
+
+      spins = idle(spins);
+    }
+
+    return batches[(int) tail & mask];
+  }
+
+  private void publish() {
+    if (cancelled)
+      throw new Cancelled();
+
+    filling = null;
+    published.lazySet(published.get() + 1);
+  }
+
+  /**
+   * Waits a little, spinning at first and then backing off
+   */
+  private static int idle(int spins) {
+    if (spins < 100) {
+      Thread.yield();
+    }
+    else {
+      LockSupport.parkNanos(10000);
+    }
+
+    return spins + 1;
+  }
+
+  /**
+   * Thrown on the producer thread to unwind it once the consumer has stopped
+   */
+  private static final class Cancelled extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final class Batch {
+    Batch(int size) {
+      types = new XmlTokenType[size];
+      values = new String[size];
+    }
+
+    final XmlTokenType[] types;
+    final String[] values;
+    int count;
+    boolean last;
+  }
+
+  private final Batch[] batches;
+  private final int mask;
+  private final AtomicLong published = new AtomicLong(), consumed = new AtomicLong();
+  private volatile boolean cancelled;
+  private volatile Throwable error;
+  private Batch filling;
+}
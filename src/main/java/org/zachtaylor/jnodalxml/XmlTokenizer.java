@@ -1,145 +1,552 @@
 package org.zachtaylor.jnodalxml;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
 import java.util.Queue;
-import java.util.Scanner;
 
-public class XmlTokenizer {
+/**
+ * Splits a document into {@link XmlToken}s. Input is read a block at a time as tokens
+ * are asked for, so a tokenizer never holds more than a block's worth of tokens.
+ */
+public class XmlTokenizer implements Closeable {
   public XmlTokenizer(File f) throws FileNotFoundException {
-    Scanner scan = new Scanner(new FileReader(f));
-    parse(scan);
-    scan.close();
+    this(new FileReader(f));
   }
 
   public XmlTokenizer(String s) {
-    Scanner scan = new Scanner(s);
-    parse(scan);
-    scan.close();
+    reset(s);
+  }
+
+  /**
+   * Constructor for a tokenizer over a Reader, which is closed once it is exhausted
+   * 
+   * @param r The document
+   */
+  public XmlTokenizer(Reader r) {
+    reset(r);
+  }
+
+  XmlTokenizer() {
+  }
+
+  /**
+   * Starts tokenizing a new document, keeping the buffers of this tokenizer
+   * 
+   * @param s The document
+   * @return This tokenizer
+   */
+  public XmlTokenizer reset(String s) {
+    clear();
+    string = s;
+    return this;
+  }
+
+  /**
+   * Starts tokenizing a new document, keeping the buffers of this tokenizer
+   * 
+   * @param r The document, which is closed once it is exhausted
+   * @return This tokenizer
+   */
+  public XmlTokenizer reset(Reader r) {
+    clear();
+    reader = r;
+    return this;
+  }
+
+  /**
+   * Setter for the cache that short words are drawn from, so that repeated names and
+   * values share one String. The cache is kept across resets.
+   * 
+   * @param c The cache, which may be shared with other tokenizers, or null to create every word anew
+   * @return This tokenizer
+   */
+  public XmlTokenizer setValueCache(XmlValueCache c) {
+    cache = c;
+    return this;
+  }
+
+  /**
+   * Setter for the listener told the metrics of parses of this tokenizer's input, in
+   * place of the one set with {@link XmlParser#setParseListener(XmlParseListener)}
+   * 
+   * @param l The listener, or null to use the shared one
+   * @return This tokenizer
+   */
+  public XmlTokenizer setParseListener(XmlParseListener l) {
+    parseListener = l;
+    return this;
+  }
+
+  XmlParseListener getParseListener() {
+    return parseListener;
   }
 
   public boolean hasNext() {
+    while (tokens.isEmpty() && !finished && !feeding) {
+      fill();
+    }
+
     return !tokens.isEmpty();
   }
 
   public XmlToken next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
     return tokens.remove();
   }
 
   public XmlToken peek() {
+    hasNext();
+
     return tokens.peek();
   }
 
-  private void parse(Scanner scan) {
-    String string = "";
-    boolean inBrackets = false, inQuotes = false;
+  /**
+   * Closes the reader being tokenized, if it is not already exhausted. Tokens already
+   * split off are still handed out, and no more are read.
+   */
+  public void close() {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+      }
+
+      reader = null;
+      finished = true;
+    }
+  }
+
+  /**
+   * Tokenizes characters pushed by the caller rather than read from a source. Tokens
+   * are available as soon as they are complete; a token split across calls is held
+   * until the rest of it arrives.
+   * 
+   * @param chars Buffer holding the characters
+   * @param offset Index of the first character
+   * @param count Number of characters
+   */
+  void feed(char[] chars, int offset, int count) {
+    feeding = true;
+
+    if (limits == null) {
+      consume(chars, offset, offset + count);
+      return;
+    }
+
+    // Checked a block at a time, as input read from a source is, so a word in progress cannot outgrow its limit
+    for (int i = offset, end = offset + count; i < end;) {
+      int n = Math.min(BLOCK_SIZE, end - i);
 
-    while (scan.hasNext() || string.length() > 0) {
-      if (string.length() == 0) {
-        string = scan.next();
+      limit(n);
+      consume(chars, i, i + n);
+      limit(0);
+      i += n;
+    }
+  }
+
+  /**
+   * Tokenizes the rest of the input straight into pipe, without creating a token
+   * object for each token
+   * 
+   * @param p Receives the tokens
+   * @throws XmlException If the input cannot be read or ends inside a comment
+   */
+  void pipeTo(XmlTokenPipe p) throws XmlException {
+    while (!tokens.isEmpty()) {
+      XmlToken token = tokens.remove();
+      p.add(token.getType(), token.getValue());
+    }
+
+    pipe = p;
+
+    try {
+      while (!finished) {
+        fill();
       }
+    } finally {
+      pipe = null;
+    }
+  }
 
-      if (inQuotes) {
-        int qChar = string.indexOf('"');
+  /**
+   * Setter for the limits on input size and word length
+   * 
+   * @param l The limits, or null for none
+   */
+  void setLimits(XmlLimits l) {
+    limits = l;
+  }
 
-        if (qChar < 0) {
-          add(new XmlToken(XmlTokenType.TEXT, string));
-          string = "";
-        }
-        else {
-          if (qChar > 0) {
-            add(new XmlToken(XmlTokenType.TEXT, string.substring(0, qChar)));
-            string = string.substring(qChar);
-          }
-          add(new XmlToken(XmlTokenType.QUOTE));
-          string = string.substring(1);
-          inQuotes = false;
-        }
+  /**
+   * Counts input towards the limit on characters afresh, for a stream of many documents
+   */
+  void resetCharsRead() {
+    charsRead = 0;
+  }
+
+  /**
+   * Setter for the metrics that this tokenizer counts into
+   * 
+   * @param m The metrics, or null to count nothing
+   */
+  void setMetrics(XmlParseMetrics m) {
+    metrics = m;
+  }
+
+  /**
+   * Tokenizes the next block of input
+   */
+  private void fill() {
+    XmlParseMetrics m = metrics;
+
+    if (m == null) {
+      fillBlock();
+    }
+    else {
+      long start = System.nanoTime();
+      fillBlock();
+      m.filled(System.nanoTime() - start);
+    }
+  }
+
+  private void fillBlock() {
+    if (buffer == null) {
+      buffer = new char[BLOCK_SIZE];
+    }
+
+    if (string != null) {
+      int end = Math.min(string.length(), position + BLOCK_SIZE);
+
+      if (metrics != null) {
+        metrics.read(end - position, 0);
+      }
+      if (limits != null) {
+        limit(end - position);
+      }
+
+      string.getChars(position, end, buffer, 0);
+      consume(buffer, 0, end - position);
+      position = end;
 
+      if (limits != null) {
+        limit(0);
       }
-      else if (string.startsWith("<!--")) {
-        // Throw away comments in the Scanner
-        string = string.substring(4);
 
-        int endChar = string.indexOf("-->");
-        while (endChar == -1) {
-          string = string.concat(" ").concat(scan.next());
-          endChar = string.indexOf("-->");
-        }
-        string = string.substring(endChar + 3);
+      if (position == string.length()) {
+        finish();
       }
-      else if (inBrackets) {
-        if (string.startsWith("\"")) {
-          add(new XmlToken(XmlTokenType.QUOTE));
-          string = string.substring(1);
-          inQuotes = true;
-        }
-        else if (string.startsWith("/")) {
-          add(new XmlToken(XmlTokenType.SLASH));
-          string = string.substring(1);
-        }
-        else if (string.startsWith("=")) {
-          add(new XmlToken(XmlTokenType.EQUALS));
-          string = string.substring(1);
+    }
+    else if (reader != null) {
+      try {
+        long start = metrics == null ? 0 : System.nanoTime();
+        int n = reader.read(buffer);
+
+        if (metrics != null) {
+          metrics.read(Math.max(n, 0), System.nanoTime() - start);
         }
-        else if (string.startsWith(">")) {
-          add(new XmlToken(XmlTokenType.CLOSE_BRACKET));
-          string = string.substring(1);
-          inBrackets = false;
+
+        if (n < 0) {
+          reader.close();
+          finish();
         }
         else {
-          int sChar = specialCharacterIndex(string);
+          if (limits != null) {
+            limit(n);
+          }
+
+          consume(buffer, 0, n);
 
-          if (sChar < 0) {
-            add(new XmlToken(XmlTokenType.TEXT, string));
-            string = "";
+          if (limits != null) {
+            limit(0);
           }
-          else if (sChar > 0) {
-            add(new XmlToken(XmlTokenType.TEXT, string.substring(0, sChar)));
-            string = string.substring(sChar);
+        }
+      } catch (IOException e) {
+        throw new XmlException("Cannot read document", e);
+      }
+    }
+    else {
+      finish();
+    }
+  }
+
+  /**
+   * Checks the limits on input read so far and on the word in progress, which can
+   * overshoot by at most a block
+   * 
+   * @param n Characters just read
+   */
+  private void limit(int n) throws XmlLimitException {
+    charsRead += n;
+    limits.check(XmlLimitException.Limit.CHARS, charsRead);
+    limits.check(state == State.TAG ? XmlLimitException.Limit.NAME_LENGTH : XmlLimitException.Limit.TEXT_LENGTH, word.length());
+  }
+
+  /**
+   * Tokenizes a run of characters. The scanner of the current state skips to the next
+   * character that state acts on, and the characters before it are taken all at once.
+   */
+  private void consume(char[] chars, int from, int to) {
+    int i = from;
+
+    while (i < to) {
+      XmlScanner scanner = state.scanner;
+
+      if (scanner != null) {
+        int stop = scanner.next(chars, i, to);
+
+        if (stop > i) {
+          if (state == State.COMMENT) {
+            dashes = 0;
           }
+          else {
+            word.append(chars, i, stop - i);
+          }
+
+          i = stop;
+          if (i == to)
+            break;
         }
       }
-      else if (string.startsWith("<")) {
-        add(new XmlToken(XmlTokenType.OPEN_BRACKET));
-        string = string.substring(1);
-        inBrackets = true;
+
+      consume(chars[i++]);
+    }
+  }
+
+  private void consume(char c) {
+    switch (state) {
+    case TEXT:
+      if (c == '<') {
+        startMarkup();
+      }
+      else if (Character.isWhitespace(c)) {
+        flush(true);
       }
       else {
-        int sChar = string.indexOf('<');
+        escaped |= c == '&';
+        word.append(c);
+      }
+      break;
 
-        if (sChar < 0) {
-          add(new XmlToken(XmlTokenType.TEXT, string));
-          string = "";
-        }
-        else if (sChar > 0) {
-          add(new XmlToken(XmlTokenType.TEXT, string.substring(0, sChar)));
-          string = string.substring(sChar);
-        }
+    case TAG:
+      if (c == '<') {
+        startMarkup();
+      }
+      else if (Character.isWhitespace(c)) {
+        flush(true);
+      }
+      else if (c == '"' && word.length() == 0) {
+        add(XmlTokenType.QUOTE, null);
+        state = State.QUOTED;
       }
+      else if (c == '/') {
+        flush(true);
+        add(XmlTokenType.SLASH, null);
+      }
+      else if (c == '=') {
+        flush(true);
+        add(XmlTokenType.EQUALS, null);
+      }
+      else if (c == '>') {
+        flush(true);
+        add(XmlTokenType.CLOSE_BRACKET, null);
+        state = State.TEXT;
+      }
+      else {
+        escaped |= c == '&';
+        word.append(c);
+      }
+      break;
+
+    case QUOTED:
+      if (c == '"') {
+        flush(true);
+        add(XmlTokenType.QUOTE, null);
+        state = State.TAG;
+      }
+      else if (Character.isWhitespace(c)) {
+        flush(true);
+      }
+      else {
+        escaped |= c == '&';
+        word.append(c);
+      }
+      break;
+
+    case MARKUP:
+      markup(c);
+      break;
+
+    case COMMENT:
+      // Throw away comments
+      if (c == '>' && dashes >= 2) {
+        state = markupReturn;
+      }
+      dashes = c == '-' ? dashes + 1 : 0;
+      break;
+
+    case CDATA:
+      // Character data is kept as text, without decoding references
+      if (c == '>' && word.length() >= 2 && word.charAt(word.length() - 1) == ']' && word.charAt(word.length() - 2) == ']') {
+        word.setLength(word.length() - 2);
+        flush(false);
+        state = State.TEXT;
+      }
+      else if (Character.isWhitespace(c)) {
+        flush(false);
+      }
+      else {
+        word.append(c);
+      }
+      break;
     }
   }
 
-  private void add(XmlToken token) {
-    tokens.add(token);
+  /**
+   * Called on '&lt;' to look ahead for the start of a comment or character data
+   */
+  private void startMarkup() {
+    flush(true);
+
+    markupReturn = state;
+    maybeComment = true;
+    maybeCData = state == State.TEXT;
+    state = State.MARKUP;
   }
 
-  private int specialCharacterIndex(String string) {
-    int lowestIndex = -1;
-    char[] chars = { '/', '>', '<', '=' };
+  private void markup(char c) {
+    int k = markup.length();
 
-    for (char c : chars) {
-      int index = string.indexOf(c);
+    maybeComment = maybeComment && c == COMMENT_OPEN.charAt(k);
+    maybeCData = maybeCData && c == CDATA_OPEN.charAt(k);
 
-      if (index >= 0 && (lowestIndex == -1 || index < lowestIndex)) {
-        lowestIndex = index;
-      }
+    if (maybeComment && k + 1 == COMMENT_OPEN.length()) {
+      markup.setLength(0);
+      dashes = 0;
+      state = State.COMMENT;
+    }
+    else if (maybeCData && k + 1 == CDATA_OPEN.length()) {
+      markup.setLength(0);
+      state = State.CDATA;
+    }
+    else if (maybeComment || maybeCData) {
+      markup.append(c);
     }
+    else {
+      openBracket();
+      consume(c);
+    }
+  }
 
-    return lowestIndex;
+  /**
+   * Ends a lookahead that found neither a comment nor character data, tokenizing the
+   * characters it held as the inside of a tag
+   */
+  private void openBracket() {
+    add(XmlTokenType.OPEN_BRACKET, null);
+    state = State.TAG;
+
+    for (int i = 0; i < markup.length(); i++) {
+      consume(markup.charAt(i));
+    }
+
+    markup.setLength(0);
+  }
+
+  /**
+   * Ends the input, emitting whatever token was in progress
+   * 
+   * @throws XmlException If the input ended inside a comment or character data
+   */
+  void finish() throws XmlException {
+    if (state == State.MARKUP) {
+      openBracket();
+    }
+
+    if (state == State.COMMENT)
+      throw new XmlException("Unterminated comment");
+    if (state == State.CDATA)
+      throw new XmlException("Unterminated character data");
+
+    flush(true);
+    finished = true;
   }
 
-  private Queue<XmlToken> tokens = new LinkedList<XmlToken>();
+  private void flush(boolean decode) {
+    if (word.length() > 0) {
+      String s = cache == null ? word.toString() : cache.get(word, 0, word.length());
+      // Only words in which a '&' was seen can hold references
+      add(XmlTokenType.TEXT, decode && escaped ? XmlEntities.unescape(s) : s);
+      word.setLength(0);
+    }
+
+    escaped = false;
+  }
+
+  private void add(XmlTokenType type, String value) {
+    if (metrics != null) {
+      metrics.token(type);
+    }
+
+    if (pipe != null) {
+      pipe.add(type, value);
+    }
+    else {
+      tokens.add(new XmlToken(type, value));
+    }
+  }
+
+  private void clear() {
+    close();
+    tokens.clear();
+    word.setLength(0);
+    markup.setLength(0);
+    string = null;
+    reader = null;
+    position = 0;
+    charsRead = 0;
+    state = State.TEXT;
+    finished = false;
+    feeding = false;
+    escaped = false;
+  }
+
+  private enum State {
+    TEXT(new XmlScanner("<&", true)), TAG(new XmlScanner("<>\"/=&", true)), QUOTED(new XmlScanner("\"&", true)), MARKUP(null),
+    COMMENT(new XmlScanner("->", false)), CDATA(new XmlScanner(">", true));
+
+    State(XmlScanner s) {
+      scanner = s;
+    }
+
+    /**
+     * Skips the characters this state only appends to the word, or null if it looks at every character
+     */
+    final XmlScanner scanner;
+  }
+
+  private static final int BLOCK_SIZE = 4096;
+  private static final String COMMENT_OPEN = "!--", CDATA_OPEN = "![CDATA[";
+
+  private Queue<XmlToken> tokens = new ArrayDeque<XmlToken>();
+  private StringBuilder word = new StringBuilder(), markup = new StringBuilder();
+  private String string;
+  private Reader reader;
+  private XmlTokenPipe pipe;
+  private XmlParseMetrics metrics;
+  private XmlLimits limits;
+  private XmlValueCache cache;
+  private XmlParseListener parseListener;
+  private long charsRead;
+  private char[] buffer;
+  private int position, dashes;
+  private State state = State.TEXT, markupReturn;
+  private boolean maybeComment, maybeCData, finished, feeding, escaped;
 }
\ No newline at end of file
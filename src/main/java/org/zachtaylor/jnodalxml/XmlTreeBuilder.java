@@ -0,0 +1,102 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.Collection;
+import java.util.Stack;
+
+/**
+ * Builds XmlNodes from {@link XmlHandler} events, adding each top-level node to a
+ * collection as soon as it is closed
+ */
+final class XmlTreeBuilder implements XmlHandler {
+  /**
+   * Constructor for XmlTreeBuilder
+   * 
+   * @param parseContext Context to draw nodes from, or null to create them
+   * @param topLevelNodes Receives each top-level node when it is closed
+   */
+  XmlTreeBuilder(XmlParseContext parseContext, Collection<XmlNode> topLevelNodes) {
+    this(parseContext, topLevelNodes, null);
+  }
+
+  /**
+   * Constructor for XmlTreeBuilder
+   * 
+   * @param parseContext Context to draw nodes from, or null to create them
+   * @param topLevelNodes Receives each top-level node when it is closed
+   * @param subtreeTable Replaces each closed node by an equal one built before it, or null
+   */
+  XmlTreeBuilder(XmlParseContext parseContext, Collection<XmlNode> topLevelNodes, XmlSubtreeTable subtreeTable) {
+    context = parseContext;
+    topLevel = topLevelNodes;
+    subtrees = subtreeTable;
+  }
+
+  public void startElement(String name) {
+    flushText();
+    nodes.push(context == null ? new XmlNode(name) : context.node(name));
+  }
+
+  public void attribute(String key, String value) {
+    nodes.peek().addAttribute(key, value);
+  }
+
+  public void text(String word) {
+    if (firstWord == null) {
+      firstWord = word;
+    }
+    else {
+      if (text == null) {
+        text = new XmlText(firstWord);
+      }
+      text.appendWord(word);
+    }
+  }
+
+  public void endElement(String name, boolean selfClosing) {
+    flushText();
+
+    XmlNode node = nodes.pop();
+
+    if (selfClosing) {
+      node.setSelfClosing(true);
+    }
+    if (subtrees != null) {
+      node = node.canonicalIn(subtrees);
+    }
+
+    if (nodes.isEmpty()) {
+      topLevel.add(node);
+    }
+    else {
+      nodes.peek().addChild(node);
+    }
+  }
+
+  /**
+   * Forgets any partly built document
+   */
+  void reset() {
+    nodes.clear();
+    firstWord = null;
+    text = null;
+  }
+
+  private void flushText() {
+    if (text != null) {
+      nodes.peek().setValue(text);
+    }
+    else if (firstWord != null) {
+      nodes.peek().setValue(firstWord);
+    }
+
+    firstWord = null;
+    text = null;
+  }
+
+  private final XmlParseContext context;
+  private final Collection<XmlNode> topLevel;
+  private final XmlSubtreeTable subtrees;
+  private final Stack<XmlNode> nodes = new Stack<XmlNode>();
+  private String firstWord;
+  private XmlText text;
+}
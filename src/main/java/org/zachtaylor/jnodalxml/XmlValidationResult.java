@@ -0,0 +1,68 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * The outcome of {@link XmlValidator}: either well-formed, or the first error found
+ * and where it is
+ */
+public class XmlValidationResult {
+  XmlValidationResult(String errorMessage, long errorOffset, long errorLine, long errorColumn) {
+    message = errorMessage;
+    offset = errorOffset;
+    line = errorLine;
+    column = errorColumn;
+  }
+
+  /**
+   * Tells whether the document is well-formed
+   * 
+   * @return True if no error was found
+   */
+  public boolean isWellFormed() {
+    return message == null;
+  }
+
+  /**
+   * Getter for the description of the first error
+   * 
+   * @return The message, or null if the document is well-formed
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Getter for the character offset of the first error
+   * 
+   * @return The offset from the start of the document, or -1 if it is well-formed
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Getter for the line of the first error
+   * 
+   * @return The line, counting from 1, or -1 if the document is well-formed
+   */
+  public long getLine() {
+    return line;
+  }
+
+  /**
+   * Getter for the column of the first error
+   * 
+   * @return The column, counting from 1, or -1 if the document is well-formed
+   */
+  public long getColumn() {
+    return column;
+  }
+
+  public String toString() {
+    return message == null ? "well-formed" : String.format("%d:%d (offset %d): %s", line, column, offset, message);
+  }
+
+  static final XmlValidationResult WELL_FORMED = new XmlValidationResult(null, -1, -1, -1);
+
+  private final String message;
+  private final long offset, line, column;
+}
@@ -0,0 +1,354 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a document is well-formed without building anything from it: tags are
+ * balanced and properly named, attributes are written as name="value" without
+ * repeats, and comments, character data and processing instructions are closed.
+ * Only the names of the open elements are kept, and input is scanned a character at
+ * a time in a single pass.
+ */
+public class XmlValidator {
+  private XmlValidator() {
+  }
+
+  /**
+   * Checks a document
+   * 
+   * @param s The document
+   * @return Well-formed, or the first error found
+   */
+  public static XmlValidationResult check(String s) {
+    return check(new StringReader(s));
+  }
+
+  /**
+   * Checks a document in the platform encoding
+   * 
+   * @param f The document
+   * @return Well-formed, or the first error found
+   * @throws FileNotFoundException If the file cannot be opened
+   * @throws XmlException If the file cannot be read
+   */
+  public static XmlValidationResult check(File f) throws FileNotFoundException {
+    return check(new FileReader(f));
+  }
+
+  /**
+   * Checks a document, stopping at the first error
+   * 
+   * @param r The document, which is closed once checked
+   * @return Well-formed, or the first error found
+   * @throws XmlException If the reader throws
+   */
+  public static XmlValidationResult check(Reader r) throws XmlException {
+    XmlValidator validator = new XmlValidator();
+    char[] buffer = new char[BLOCK_SIZE];
+
+    try {
+      try {
+        int n;
+        while (validator.error == null && (n = r.read(buffer)) >= 0) {
+          for (int i = 0; i < n && validator.error == null; i++) {
+            validator.consume(buffer[i]);
+          }
+        }
+      } finally {
+        r.close();
+      }
+    } catch (IOException e) {
+      throw new XmlException("Cannot read document", e);
+    }
+
+    if (validator.error == null) {
+      validator.end();
+    }
+
+    return validator.error == null ? XmlValidationResult.WELL_FORMED : validator.error;
+  }
+
+  private void consume(char c) {
+    switch (state) {
+    case TEXT:
+      if (c == '<') {
+        state = State.OPEN;
+      }
+      else if (names.isEmpty() && !Character.isWhitespace(c)) {
+        fail("Text outside of any element");
+      }
+      break;
+
+    case OPEN:
+      if (c == '/') {
+        name.setLength(0);
+        state = State.END_NAME;
+      }
+      else if (c == '!') {
+        match = 0;
+        state = State.BANG;
+      }
+      else if (c == '?') {
+        state = State.INSTRUCTION;
+      }
+      else if (isNameStart(c)) {
+        name.setLength(0);
+        name.append(c);
+        attributes.clear();
+        state = State.START_NAME;
+      }
+      else {
+        fail("Expected an element name");
+      }
+      break;
+
+    case BANG:
+      // Matches "--" or "[CDATA[" after "<!", one character at a time
+      if (match == 0 && c == '-') {
+        state = State.COMMENT_OPEN;
+      }
+      else if (c == CDATA_OPEN.charAt(match) && !names.isEmpty()) {
+        if (++match == CDATA_OPEN.length()) {
+          run = 0;
+          state = State.CDATA;
+        }
+      }
+      else {
+        fail(names.isEmpty() && c == '[' ? "Character data outside of any element" : "Unsupported markup");
+      }
+      break;
+
+    case COMMENT_OPEN:
+      if (c != '-') {
+        fail("Expected a comment");
+      }
+      run = 0;
+      state = State.COMMENT;
+      break;
+
+    case COMMENT:
+      if (c == '>' && run >= 2) {
+        state = State.TEXT;
+      }
+      run = c == '-' ? run + 1 : 0;
+      break;
+
+    case CDATA:
+      if (c == '>' && run >= 2) {
+        state = State.TEXT;
+      }
+      run = c == ']' ? run + 1 : 0;
+      break;
+
+    case INSTRUCTION:
+      if (c == '>') {
+        state = State.TEXT;
+      }
+      break;
+
+    case START_NAME:
+      if (isNameChar(c)) {
+        name.append(c);
+      }
+      else {
+        names.add(name.toString());
+        afterName(c, "Unexpected character in element name");
+      }
+      break;
+
+    case TAG:
+      afterName(c, "Expected an attribute name");
+      break;
+
+    case ATTRIBUTE_NAME:
+      if (isNameChar(c)) {
+        name.append(c);
+        break;
+      }
+
+      if (!attributes.add(name.toString())) {
+        fail("Duplicate attribute " + name);
+        break;
+      }
+
+      state = State.EQUALS;
+      equalsSign(c);
+      break;
+
+    case EQUALS:
+      equalsSign(c);
+      break;
+
+    case QUOTE:
+      if (c == '"') {
+        state = State.VALUE;
+      }
+      else if (!Character.isWhitespace(c)) {
+        fail("Attribute value must be quoted with '\"'");
+      }
+      break;
+
+    case VALUE:
+      if (c == '"') {
+        state = State.AFTER_VALUE;
+      }
+      else if (c == '<') {
+        fail("Attribute value cannot contain '<'");
+      }
+      break;
+
+    case AFTER_VALUE:
+      if (Character.isWhitespace(c)) {
+        state = State.TAG;
+      }
+      else if (c == '/' || c == '>') {
+        afterName(c, null);
+      }
+      else {
+        fail("Expected whitespace between attributes");
+      }
+      break;
+
+    case EMPTY:
+      if (c == '>') {
+        names.remove(names.size() - 1);
+        state = State.TEXT;
+      }
+      else {
+        fail("Expected '>' after '/'");
+      }
+      break;
+
+    case END_NAME:
+      if (isNameChar(c) && (name.length() > 0 || isNameStart(c))) {
+        name.append(c);
+      }
+      else if (name.length() == 0) {
+        fail("Expected an element name");
+      }
+      else if (c == '>' || Character.isWhitespace(c)) {
+        closeElement();
+        state = c == '>' ? State.TEXT : State.END_SPACE;
+      }
+      else {
+        fail("Unexpected character in element name");
+      }
+      break;
+
+    case END_SPACE:
+      if (c == '>') {
+        state = State.TEXT;
+      }
+      else if (!Character.isWhitespace(c)) {
+        fail("Expected '>' to end closing tag");
+      }
+      break;
+    }
+
+    if (c == '\n') {
+      line++;
+      lineStart = offset + 1;
+    }
+
+    offset++;
+  }
+
+  /**
+   * Handles a character inside a start tag where an attribute, '/' or '&gt;' may come
+   */
+  private void afterName(char c, String unexpected) {
+    if (c == '>') {
+      state = State.TEXT;
+    }
+    else if (c == '/') {
+      state = State.EMPTY;
+    }
+    else if (Character.isWhitespace(c)) {
+      state = State.TAG;
+    }
+    else if (state == State.TAG && isNameStart(c)) {
+      name.setLength(0);
+      name.append(c);
+      state = State.ATTRIBUTE_NAME;
+    }
+    else {
+      fail(unexpected);
+    }
+  }
+
+  /**
+   * Handles a character after an attribute name, where only '=' or whitespace may come
+   */
+  private void equalsSign(char c) {
+    if (c == '=') {
+      state = State.QUOTE;
+    }
+    else if (!Character.isWhitespace(c)) {
+      fail("Expected '=' after attribute name");
+    }
+  }
+
+  private void closeElement() {
+    String closing = name.toString();
+
+    if (names.isEmpty()) {
+      fail("Closing tag " + closing + " has no start tag");
+    }
+    else if (!names.get(names.size() - 1).equals(closing)) {
+      fail("Closing tag " + closing + " does not match " + names.get(names.size() - 1));
+    }
+    else {
+      names.remove(names.size() - 1);
+    }
+  }
+
+  private void end() {
+    if (state == State.COMMENT || state == State.COMMENT_OPEN)
+      fail("Unterminated comment");
+    else if (state == State.CDATA)
+      fail("Unterminated character data");
+    else if (state != State.TEXT)
+      fail("Unexpected end of input inside a tag");
+    else if (!names.isEmpty())
+      fail("Element " + names.get(names.size() - 1) + " is not closed");
+  }
+
+  private void fail(String message) {
+    if (error == null) {
+      error = new XmlValidationResult(message, offset, line, offset - lineStart + 1);
+    }
+  }
+
+  private static boolean isNameStart(char c) {
+    return Character.isLetter(c) || c == '_' || c == ':' || c >= 0x80;
+  }
+
+  private static boolean isNameChar(char c) {
+    return isNameStart(c) || Character.isDigit(c) || c == '-' || c == '.';
+  }
+
+  private enum State {
+    TEXT, OPEN, BANG, COMMENT_OPEN, COMMENT, CDATA, INSTRUCTION, START_NAME, TAG, ATTRIBUTE_NAME, EQUALS, QUOTE, VALUE,
+    AFTER_VALUE, EMPTY, END_NAME, END_SPACE;
+  }
+
+  private static final int BLOCK_SIZE = 8192;
+  private static final String CDATA_OPEN = "[CDATA[";
+
+  private final List<String> names = new ArrayList<String>();
+  private final Set<String> attributes = new HashSet<String>();
+  private final StringBuilder name = new StringBuilder();
+  private State state = State.TEXT;
+  private XmlValidationResult error;
+  private long offset, line = 1, lineStart;
+  private int match, run;
+}
@@ -0,0 +1,120 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Shares one String instance among repeated short words, such as attribute values like
+ * "true" or "USD" that would otherwise become a new String every time they are read.
+ * Words are looked up straight from the tokenizer's buffer, so a hit allocates
+ * nothing. The cache has a fixed number of slots, two for each hash, and a new word
+ * evicts the one of the two that was added first. Hits write nothing, so that a word
+ * read on many threads at once does not keep its cache line bouncing between cores.
+ * <p>
+ * A cache may be shared by tokenizers on several threads. Slots are read and written
+ * without locking; a lost update only costs a later miss, and Strings are safe to
+ * publish this way because they are immutable.
+ */
+public final class XmlValueCache {
+  /**
+   * Constructor for a cache of 4096 words of up to 16 characters
+   */
+  public XmlValueCache() {
+    this(4096, 16);
+  }
+
+  /**
+   * Constructor for XmlValueCache
+   * 
+   * @param capacity The most words held, rounded up to a power of two
+   * @param maxLength The longest word cached; longer words are always created anew
+   * @throws XmlException If capacity or maxLength is less than 1
+   */
+  public XmlValueCache(int capacity, int maxLength) throws XmlException {
+    if (capacity < 1)
+      throw new XmlException("Capacity must be at least 1");
+    if (maxLength < 1)
+      throw new XmlException("Maximum length must be at least 1");
+
+    int size = 2;
+    while (size < capacity && size < 1 << 30) {
+      size *= 2;
+    }
+
+    slots = new String[size];
+    mask = size - 2;
+    max = maxLength;
+  }
+
+  /**
+   * Getter for the longest word cached
+   * 
+   * @return The length limit
+   */
+  public int getMaxLength() {
+    return max;
+  }
+
+  /**
+   * Getter for the most words held
+   * 
+   * @return The capacity
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * Gets the shared instance of a word
+   * 
+   * @param s Buffer holding the word
+   * @param begin Index of the first character of the word
+   * @param end Index after the last character of the word
+   * @return An equal String, shared with earlier calls if the word is short enough
+   */
+  public String get(CharSequence s, int begin, int end) {
+    int length = end - begin;
+
+    if (length > max)
+      return s.subSequence(begin, end).toString();
+
+    int h = 0;
+    for (int i = begin; i < end; i++) {
+      h = 31 * h + s.charAt(i);
+    }
+
+    int i = (h ^ (h >>> 16)) & mask;
+    String first = slots[i], second = slots[i + 1];
+
+    if (matches(first, s, begin, length))
+      return first;
+    if (matches(second, s, begin, length))
+      return second;
+
+    String word = s.subSequence(begin, end).toString();
+    slots[i + 1] = first;
+    slots[i] = word;
+    return word;
+  }
+
+  /**
+   * Empties the cache
+   */
+  public void clear() {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = null;
+    }
+  }
+
+  private static boolean matches(String word, CharSequence s, int begin, int length) {
+    if (word == null || word.length() != length)
+      return false;
+
+    for (int i = 0; i < length; i++) {
+      if (word.charAt(i) != s.charAt(begin + i))
+        return false;
+    }
+
+    return true;
+  }
+
+  private final String[] slots;
+  private final int mask, max;
+}
@@ -0,0 +1,16 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Receives the metrics of every serialization once it ends. Set for all serialization
+ * with {@link XmlNode#setWriteListener(XmlWriteListener)}, or for one writer with
+ * {@link XmlByteWriter#setWriteListener(XmlWriteListener)}; called from the thread that
+ * wrote, so implementations must be thread-safe.
+ */
+public interface XmlWriteListener {
+  /**
+   * Called once for every node written, whether writing succeeded or failed
+   * 
+   * @param metrics Size and timing of the write
+   */
+  void completed(XmlWriteMetrics metrics);
+}
@@ -0,0 +1,58 @@
+package org.zachtaylor.jnodalxml;
+
+/**
+ * Size and timing of one serialization, as reported to an {@link XmlWriteListener}
+ */
+public class XmlWriteMetrics {
+  XmlWriteMetrics(String nodeName, long outputLength, long nanos, Exception failure) {
+    name = nodeName;
+    length = outputLength;
+    totalNanos = nanos;
+    error = failure;
+  }
+
+  /**
+   * Getter for the name of the node written
+   * 
+   * @return The name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Getter for the size of the output: characters for
+   * {@link XmlNode#printToString(int, String)}, bytes for {@link XmlByteWriter}
+   * 
+   * @return The size of the output
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Getter for the time of the whole write
+   * 
+   * @return The time in nanoseconds
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * Getter for the failure of the write
+   * 
+   * @return The exception, or null if the write succeeded
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  public String toString() {
+    return String.format("%s: %d long, %dus%s", name, length, totalNanos / 1000, error == null ? "" : "; failed: " + error.getMessage());
+  }
+
+  private final String name;
+  private final long length, totalNanos;
+  private final Exception error;
+}
@@ -0,0 +1,132 @@
+package org.zachtaylor.jnodalxml;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class XmlAsyncParserTest extends TestCase {
+  static String DOCUMENT = "<?xml version=\"1.0\"?><root note=\"café 😀\">"
+      + "<!-- a -- comment --><item key=\"a b\">naïve &amp; text</item><item key=\"c\" /></root>";
+
+  public void testByteAtATime() {
+    byte[] bytes = DOCUMENT.getBytes(Charset.forName("UTF-8"));
+    XmlAsyncParser parser = new XmlAsyncParser();
+    List<XmlNode> nodes = new ArrayList<XmlNode>();
+
+    for (byte b : bytes) {
+      parser.feed(ByteBuffer.wrap(new byte[] { b }));
+
+      XmlNode node;
+      while ((node = parser.poll()) != null) {
+        nodes.add(node);
+      }
+    }
+
+    parser.endOfInput();
+
+    assertEquals(XmlParser.parse(DOCUMENT), nodes);
+  }
+
+  public void testNodeAvailableBeforeEnd() {
+    XmlAsyncParser parser = new XmlAsyncParser();
+
+    parser.feed(ByteBuffer.wrap("<a/><b><c>x".getBytes()));
+    assertEquals("a", parser.poll().getName());
+    assertNull(parser.poll());
+    assertEquals(2, parser.getDepth());
+
+    parser.feed(ByteBuffer.wrap("</c></b>".getBytes()));
+    assertEquals("b", parser.poll().getName());
+
+    parser.endOfInput();
+  }
+
+  public void testEvents() {
+    final StringBuilder events = new StringBuilder();
+    XmlAsyncParser parser = new XmlAsyncParser(new XmlHandler() {
+      public void startElement(String name) {
+        events.append("start ").append(name).append(';');
+      }
+
+      public void attribute(String key, String value) {
+        events.append(key).append('=').append(value).append(';');
+      }
+
+      public void text(String word) {
+        events.append(word).append(';');
+      }
+
+      public void endElement(String name, boolean selfClosing) {
+        events.append(selfClosing ? "empty " : "end ").append(name).append(';');
+      }
+    });
+
+    char[] chars = "<a k=\"v w\">x y<b/></a>".toCharArray();
+    for (int i = 0; i < chars.length; i += 3) {
+      parser.feed(chars, i, Math.min(3, chars.length - i));
+    }
+    parser.endOfInput();
+
+    assertEquals("start a;k=v w;x;y;start b;empty b;end a;", events.toString());
+  }
+
+  public void testLimits() {
+    XmlAsyncParser parser = new XmlAsyncParser().setLimits(new XmlLimits().setMaxDepth(50).setMaxNodes(100));
+    byte[] open = "<a>".getBytes();
+
+    try {
+      for (int i = 0; i < 1000; i++) {
+        parser.feed(ByteBuffer.wrap(open));
+      }
+      fail("Limit on depth should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(XmlLimitException.Limit.DEPTH, e.getLimit());
+    }
+  }
+
+  public void testOversizedWordFailsFast() {
+    XmlAsyncParser parser = new XmlAsyncParser().setLimits(new XmlLimits().setMaxTextLength(1000));
+    byte[] word = new byte[100];
+    Arrays.fill(word, (byte) 'x');
+    parser.feed(ByteBuffer.wrap("<a>".getBytes()));
+
+    int fed = 0;
+    try {
+      while (fed < 1 << 20) {
+        parser.feed(ByteBuffer.wrap(word));
+        fed += word.length;
+      }
+      fail("Limit on text length should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(XmlLimitException.Limit.TEXT_LENGTH, e.getLimit());
+    }
+    // Caught within a block of the limit, not once the word ends
+    assertTrue(fed < 1000 + 4096);
+  }
+
+  public void testIncompleteInput() {
+    XmlAsyncParser parser = new XmlAsyncParser();
+    parser.feed(ByteBuffer.wrap("<a><b></b>".getBytes()));
+
+    try {
+      parser.endOfInput();
+      fail("Unclosed element should fail");
+    } catch (XmlException e) {
+    }
+  }
+
+  public void testIncompleteCharacter() {
+    XmlAsyncParser parser = new XmlAsyncParser();
+    parser.feed(ByteBuffer.wrap(new byte[] { '<', 'a', '>', (byte) 0xC3 }));
+
+    try {
+      parser.endOfInput();
+      fail("Split character should fail");
+    } catch (XmlException e) {
+    }
+  }
+}
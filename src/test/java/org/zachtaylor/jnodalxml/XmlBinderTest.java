@@ -0,0 +1,117 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class XmlBinderTest extends TestCase {
+  static String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+      + "<feed source=\"test\">\n"
+      + "  <item id=\"1\" kind=\"BOOK\">\n"
+      + "    <title>Dune &amp; more</title>\n"
+      + "    <price currency=\"EUR\">12.5</price>\n"
+      + "    <tag>a</tag><tag>b</tag>\n"
+      + "    <ignored><title>not me</title></ignored>\n"
+      + "  </item>\n"
+      + "  <item id=\"2\" kind=\"MUSIC\" unknown=\"x\">\n"
+      + "    <title>Abbey Road</title>\n"
+      + "    <related id=\"3\" kind=\"BOOK\" />\n"
+      + "  </item>\n"
+      + "</feed>";
+
+  enum Kind {
+    BOOK, MUSIC
+  }
+
+  static class Feed {
+    @XmlBindAttribute
+    String source;
+
+    @XmlBindChild("item")
+    List<Item> items;
+  }
+
+  static class Item {
+    @XmlBindAttribute
+    int id;
+
+    @XmlBindAttribute
+    Kind kind;
+
+    @XmlBindChild
+    String title;
+
+    @XmlBindChild
+    Price price;
+
+    @XmlBindChild("tag")
+    List<String> tags;
+
+    @XmlBindChild
+    Item related;
+  }
+
+  static class Price {
+    @XmlBindAttribute
+    String currency;
+
+    @XmlBindValue
+    double amount;
+  }
+
+  static class Flag {
+    @XmlBindAttribute
+    boolean on;
+  }
+
+  public void testBindFromTokens() {
+    check(XmlBinder.of(Feed.class).bind(new XmlTokenizer(DOCUMENT)));
+  }
+
+  public void testBindFromNode() {
+    check(XmlBinder.of(Feed.class).bind(XmlParser.parse(DOCUMENT).get(1)));
+  }
+
+  public void testBinderIsShared() {
+    assertSame(XmlBinder.of(Item.class), XmlBinder.of(Item.class));
+  }
+
+  public void testBadValue() {
+    try {
+      XmlBinder.of(Item.class).bind(new XmlTokenizer("<item id=\"one\"/>"));
+      fail("Text should not bind to an int");
+    } catch (XmlException e) {
+    }
+  }
+
+  public void testBoolean() {
+    assertTrue(XmlBinder.of(Flag.class).bind(new XmlTokenizer("<flag on=\"TRUE\"/>")).on);
+    assertFalse(XmlBinder.of(Flag.class).bind(new XmlTokenizer("<flag on=\"false\"/>")).on);
+
+    try {
+      XmlBinder.of(Flag.class).bind(new XmlTokenizer("<flag on=\"yes\"/>"));
+      fail("Text other than true or false should not bind to a boolean");
+    } catch (XmlException e) {
+    }
+  }
+
+  private static void check(Feed feed) {
+    assertEquals("test", feed.source);
+    assertEquals(2, feed.items.size());
+
+    Item first = feed.items.get(0);
+    assertEquals(1, first.id);
+    assertEquals(Kind.BOOK, first.kind);
+    assertEquals("Dune & more", first.title);
+    assertEquals("EUR", first.price.currency);
+    assertEquals(12.5, first.price.amount, 0);
+    assertEquals(2, first.tags.size());
+    assertEquals("b", first.tags.get(1));
+    assertNull(first.related);
+
+    Item second = feed.items.get(1);
+    assertEquals(Kind.MUSIC, second.kind);
+    assertNull(second.tags);
+    assertEquals(3, second.related.id);
+  }
+}
@@ -0,0 +1,169 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class XmlByteWriterTest extends TestCase {
+  public void testMatchesPrintToString() throws IOException {
+    XmlNode root = XmlParser.parse("<root a=\"x &amp; &quot;y&quot;\" é=\"ü\"><item id=\"1\">1 &lt; 2 &gt; 0</item>"
+        + "<item id=\"2\">café € 😀</item><empty/><none></none></root>").get(0);
+
+    assertEquals(root.printToString(0, "  ") + "\n", write(root, "  "));
+    assertEquals(root.printToString(0, "") + "\n", write(root, ""));
+  }
+
+  public void testLargeDocument() throws IOException {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 20000; i++) {
+      doc.append("<record id=\"").append(i).append("\" status=\"active\"><name>Name é ").append(i).append("</name></record>");
+    }
+    doc.append("<big>");
+    for (int i = 0; i < 100000; i++) {
+      doc.append("word&amp;").append(i).append(' ');
+    }
+    doc.append("</big></root>");
+
+    XmlNode root = XmlParser.parse(doc.toString()).get(0);
+    String expected = root.printToString(0, "\t") + "\n";
+    assertEquals(expected, write(root, "\t"));
+
+    File file = File.createTempFile("jnodalxml", ".xml");
+    try {
+      FileOutputStream stream = new FileOutputStream(file);
+      FileChannel channel = stream.getChannel();
+      XmlByteWriter writer = new XmlByteWriter(channel).setIndent("\t");
+      try {
+        writer.write(root).write(root);
+      } finally {
+        writer.close();
+        stream.close();
+      }
+
+      List<XmlNode> read = XmlParser.parse(new XmlTokenizer(new InputStreamReader(new FileInputStream(file), UTF_8)));
+      assertEquals(2, read.size());
+      assertEquals(root, read.get(0));
+      assertEquals(expected.getBytes(UTF_8).length * 2L, file.length());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testRetainedOutput() throws IOException {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 50; i++) {
+      doc.append("<group n=\"").append(i).append("\">");
+      for (int j = 0; j < 20; j++) {
+        doc.append("<item id=\"").append(j).append("\">value ").append(i * j).append("</item>");
+      }
+      doc.append("</group>");
+    }
+    doc.append("</root>");
+
+    XmlNode root = XmlParser.parse(doc.toString()).get(0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    XmlByteWriter writer = new XmlByteWriter(Channels.newChannel(bytes)).setIndent("  ").setRetainOutput(true);
+    Random random = new Random(42);
+
+    for (int round = 0; round < 200; round++) {
+      bytes.reset();
+      writer.write(root).flush();
+      assertEquals(root.printToString(0, "  ") + "\n", new String(bytes.toByteArray(), UTF_8));
+
+      List<XmlNode> groups = new ArrayList<XmlNode>(root.getAllChildren());
+      XmlNode group = groups.get(random.nextInt(groups.size()));
+      List<XmlNode> items = new ArrayList<XmlNode>(group.getAllChildren());
+      XmlNode item = items.isEmpty() ? null : items.get(random.nextInt(items.size()));
+
+      switch (random.nextInt(6)) {
+      case 0:
+        if (item != null)
+          item.setValue("changed " + round);
+        break;
+      case 1:
+        group.addAttribute("r" + round, "é&" + round);
+        break;
+      case 2:
+        if (item != null)
+          groups.get(random.nextInt(groups.size())).addChild(group.removeChild(item));
+        break;
+      case 3:
+        group.addChild(new XmlNode("added").setValue("new " + round));
+        break;
+      case 4:
+        if (item != null)
+          item.setName("renamed");
+        break;
+      default:
+        // Unchanged documents are written again as well
+        break;
+      }
+    }
+
+    writer.setIndent("\t");
+    bytes.reset();
+    writer.write(root).close();
+    assertEquals(root.printToString(0, "\t") + "\n", new String(bytes.toByteArray(), UTF_8));
+  }
+
+  public void testWriteListener() throws IOException {
+    final List<XmlWriteMetrics> reports = new ArrayList<XmlWriteMetrics>();
+    XmlNode root = XmlParser.parse("<root a=\"é\"><item>café</item><empty/></root>").get(0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    XmlNode.setWriteListener(new XmlWriteListener() {
+      public void completed(XmlWriteMetrics metrics) {
+        reports.add(metrics);
+      }
+    });
+
+    XmlByteWriter writer;
+    String printed;
+    try {
+      printed = root.printToString(0, "  ");
+      writer = new XmlByteWriter(Channels.newChannel(bytes)).setIndent("  ");
+    } finally {
+      XmlNode.setWriteListener(null);
+    }
+
+    root.printToString(0, "  ");
+    writer.write(root).write(root.getChildren("item").get(0));
+    writer.close();
+
+    assertEquals(3, reports.size());
+    assertEquals("root", reports.get(0).getName());
+    assertEquals(printed.length(), reports.get(0).getLength());
+    assertNull(reports.get(0).getError());
+    assertEquals((printed + "\n").getBytes(UTF_8).length, reports.get(1).getLength());
+    assertEquals("item", reports.get(2).getName());
+    assertEquals(bytes.size(), reports.get(1).getLength() + reports.get(2).getLength());
+
+    // A writer's own listener replaces the shared one, and null measures nothing
+    writer = new XmlByteWriter(Channels.newChannel(bytes)).setWriteListener(null);
+    writer.write(root).close();
+    assertEquals(3, reports.size());
+  }
+
+  private static String write(XmlNode node, String tab) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    XmlByteWriter writer = new XmlByteWriter(Channels.newChannel(bytes)).setIndent(tab);
+
+    writer.write(node);
+    writer.close();
+
+    return new String(bytes.toByteArray(), UTF_8);
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,152 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class XmlDocumentIteratorTest extends TestCase {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public void testDocumentAvailableBeforeRestOfStream() {
+    final String[] chunks = { "<?xml version=\"1.0\"?>\n<a n=\"1\"><b>x</b></a>", "\n<?xml version=\"1.0\"?><a n=\"2\"/>", "<c>é</c>\n" };
+    final int[] reads = { 0 };
+    InputStream in = new InputStream() {
+      public int read() {
+        throw new UnsupportedOperationException();
+      }
+
+      public int read(byte[] b, int off, int len) {
+        if (reads[0] == chunks.length)
+          return -1;
+
+        byte[] chunk = chunks[reads[0]++].getBytes(UTF_8);
+        System.arraycopy(chunk, 0, b, off, chunk.length);
+        return chunk.length;
+      }
+    };
+
+    XmlDocumentIterator documents = new XmlDocumentIterator(in);
+
+    assertEquals("1", documents.next().getAttribute("n").getValue());
+    assertEquals(1, reads[0]);
+    assertEquals("2", documents.next().getAttribute("n").getValue());
+    assertEquals(2, reads[0]);
+    assertEquals("é", documents.next().getValue());
+    assertFalse(documents.hasNext());
+  }
+
+  public void testDelimited() {
+    String stream = "<a>1</a>\n<a>2</b>\n\n<a>3</a>\n";
+    XmlDocumentIterator documents = new XmlDocumentIterator(new ByteArrayInputStream(stream.getBytes(UTF_8))).setDelimiter("\n");
+
+    assertEquals("1", documents.next().getValue());
+    try {
+      documents.next();
+      fail("Malformed frame should throw");
+    } catch (XmlException e) {
+    }
+    assertEquals("3", documents.next().getValue());
+    assertFalse(documents.hasNext());
+  }
+
+  public void testDelimitedOverLimit() {
+    String big = "<big>" + new String(new char[2000]).replace('\0', 'x') + "</big>";
+    String stream = "<a>1</a>\n" + big + "\n<a>" + new String(new char[95]).replace('\0', 'y') + "</a>\n<a>3</a>";
+    XmlDocumentIterator documents = new XmlDocumentIterator(new ByteArrayInputStream(stream.getBytes(UTF_8))).setDelimiter("\n")
+        .setMaxFrameLength(100);
+
+    assertEquals("1", documents.next().getValue());
+    try {
+      documents.next();
+      fail("Oversized frame should throw");
+    } catch (XmlException e) {
+    }
+    try {
+      documents.next();
+      fail("Frame one byte over the limit should throw");
+    } catch (XmlException e) {
+    }
+    assertEquals("3", documents.next().getValue());
+    assertFalse(documents.hasNext());
+  }
+
+  public void testUnframedOverLimit() {
+    StringBuilder stream = new StringBuilder("<a>1</a><big>");
+    for (int i = 0; i < 10000; i++) {
+      stream.append("<x/>");
+    }
+    stream.append("</big><a>2</a>");
+
+    XmlDocumentIterator documents = new XmlDocumentIterator(new ByteArrayInputStream(stream.toString().getBytes(UTF_8)))
+        .setMaxFrameLength(10000);
+
+    assertEquals("1", documents.next().getValue());
+    try {
+      documents.next();
+      fail("Oversized document should throw");
+    } catch (XmlException e) {
+    }
+    assertFalse(documents.hasNext());
+  }
+
+  public void testLimits() {
+    String stream = "<a><b/></a>\n<a><b/><b/><b/></a>\n<a><b/><b/></a>";
+
+    for (String delimiter : new String[] { null, "\n" }) {
+      XmlDocumentIterator documents = new XmlDocumentIterator(new ByteArrayInputStream(stream.getBytes(UTF_8)))
+          .setLimits(new XmlLimits().setMaxNodes(3));
+      if (delimiter != null) {
+        documents.setDelimiter(delimiter);
+      }
+
+      // Each document is held to the limits on its own
+      assertEquals(1, documents.next().getChildren("b").size());
+      try {
+        documents.next();
+        fail("Limit on elements should be exceeded");
+      } catch (XmlLimitException e) {
+      }
+      if (delimiter != null) {
+        assertEquals(2, documents.next().getChildren("b").size());
+      }
+      assertFalse(documents.hasNext());
+    }
+  }
+
+  public void testLengthPrefixed() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    frame(out, "<a><b k=\"v\"/></a>");
+    frame(out, "<big>" + new String(new char[100]).replace('\0', 'x') + "</big>");
+    frame(out, "<c/>");
+    out.writeShort(1);
+
+    XmlDocumentIterator documents = new XmlDocumentIterator(new ByteArrayInputStream(bytes.toByteArray())).setLengthPrefixed().setMaxFrameLength(64);
+
+    assertEquals(XmlParser.parse("<a><b k=\"v\"/></a>").get(0), documents.next());
+    try {
+      documents.next();
+      fail("Oversized frame should throw");
+    } catch (XmlException e) {
+    }
+    assertEquals("c", documents.next().getName());
+    try {
+      documents.hasNext();
+      fail("Truncated frame length should throw");
+    } catch (XmlException e) {
+    }
+    assertFalse(documents.hasNext());
+  }
+
+  private static void frame(DataOutputStream out, String document) throws IOException {
+    byte[] bytes = document.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,97 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class XmlIndexTest extends TestCase {
+  private static final String DOC = "<?xml version=\"1.0\"?>\n<!-- catalog of <book> entries -->\n"
+      + "<catalog title=\"Ünïcödé ☃\">\n"
+      + "  <book id=\"b1\" note=\"a > b\"><title>Straße</title><isbn>111</isbn></book>\n"
+      + "  <shelf><book id=\"nested\"><isbn>999</isbn></book></shelf>\n"
+      + "  <book id=\"b2\"><title><![CDATA[<not a tag>]]></title><isbn> 222 </isbn></book>\n"
+      + "  <!-- <book id=\"commented\"/> -->\n"
+      + "  <book id=\"b3\"/>\n"
+      + "  <book id=\"b&amp;4\"><isbn><![CDATA[4]]></isbn></book>\n"
+      + "  <book id=\"b1\"><isbn>333</isbn></book>\n"
+      + "</catalog>\n";
+
+  public void testLookupByAttribute() throws IOException {
+    File source = write(DOC), index = File.createTempFile("jnodalxml", ".idx");
+
+    try {
+      XmlIndex books = new XmlIndexer("catalog/book").setKeyAttribute("id").build(source, index);
+      List<XmlNode> all = XmlParser.parse(DOC).get(1).getChildren("book");
+
+      try {
+        assertEquals(5, books.size());
+        assertEquals(all.get(0), books.get("b1"));
+        assertEquals(all.get(1), books.get("b2"));
+        assertEquals(all.get(2), books.get("b3"));
+        assertEquals(all.get(3), books.get("b&4"));
+        assertEquals(2, books.getAll("b1").size());
+        assertEquals(all.get(4), books.getAll("b1").get(1));
+        assertNull(books.get("nested"));
+        assertNull(books.get("commented"));
+        assertFalse(books.containsKey("b5"));
+      } finally {
+        books.close();
+      }
+
+      XmlIndex reopened = XmlIndex.open(source, index);
+      try {
+        assertEquals("Straße", reopened.get("b1").getChildren("title").get(0).getValue());
+      } finally {
+        reopened.close();
+      }
+    } finally {
+      source.delete();
+      index.delete();
+    }
+  }
+
+  public void testLookupByChild() throws IOException {
+    File source = write(DOC), index = File.createTempFile("jnodalxml", ".idx");
+
+    try {
+      XmlIndex books = new XmlIndexer("catalog/book").setKeyChild("isbn").build(source, index);
+
+      try {
+        assertEquals(4, books.size());
+        assertEquals("b2", books.get("222").getAttribute("id").getValue());
+        assertEquals("b&4", books.get("4").getAttribute("id").getValue());
+        assertNull(books.get("999"));
+      } finally {
+        books.close();
+      }
+
+      assertTrue(source.setLastModified(source.lastModified() - 10000));
+      try {
+        XmlIndex.open(source, index);
+        fail("Index of a changed document should not open");
+      } catch (XmlException e) {
+      }
+    } finally {
+      source.delete();
+      index.delete();
+    }
+  }
+
+  private static File write(String doc) throws IOException {
+    File f = File.createTempFile("jnodalxml", ".xml");
+    Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+
+    try {
+      out.write(doc);
+    } finally {
+      out.close();
+    }
+
+    return f;
+  }
+}
@@ -0,0 +1,138 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class XmlJournalTest extends TestCase {
+  private static final String DOC = "<config><server host=\"a\" port=\"80\"><path>/x</path></server>"
+      + "<server host=\"b\" port=\"81\"><path>/y</path></server><flags><on/></flags></config>";
+
+  public void testReplicate() {
+    XmlNode primary = XmlParser.parse(DOC).get(0), replica = XmlParser.parse(DOC).get(0);
+    XmlJournal journal = new XmlJournal(primary);
+    final List<List<XmlChange>> batches = new ArrayList<List<XmlChange>>();
+
+    journal.addListener(new XmlJournalListener() {
+      public void committed(List<XmlChange> changes, byte[] delta) {
+        batches.add(changes);
+      }
+    });
+
+    XmlNode second = primary.getChildren("server").get(1);
+    second.removeAttribute("port");
+    second.addAttribute("port", "8080");
+    second.getChildren("path").get(0).setValue("/z é");
+    second.setName("backup");
+
+    XmlNode added = new XmlNode("server").addAttribute("host", "c");
+    primary.addChild(added);
+    // Recorded too, since the journal follows the child into the tree
+    added.addChild(new XmlNode("path").setValue("/w"));
+
+    XmlJournal.apply(replica, journal.commit());
+    assertEquals(primary, replica);
+    assertEquals(1, batches.size());
+    assertEquals(6, batches.get(0).size());
+    assertEquals(XmlChange.Type.REMOVE_ATTRIBUTE, batches.get(0).get(0).getType());
+    assertEquals(1, batches.get(0).get(0).getPath()[0]);
+
+    XmlNode flags = primary.getChildren("flags").get(0);
+    XmlNode on = flags.getChildren("on").get(0);
+    on.setParent(added);
+    flags.setSelfClosing(true);
+    primary.getChildren("server").get(0).clearAttributes().clearChildren().setValue("gone");
+
+    on.setParent(null);
+    // Detached nodes are no longer recorded
+    on.setName("off");
+
+    byte[] delta = journal.commit();
+    XmlJournal.apply(replica, delta);
+    assertEquals(primary, replica);
+    assertEquals(2, batches.size());
+    assertTrue(delta.length < primary.printToString(0, "").length() / 2);
+
+    journal.detach();
+    primary.setName("other");
+    assertEquals(0, journal.getPending().size());
+    assertEquals(0, XmlJournal.decode(journal.commit()).size());
+  }
+
+  public void testRemoveChildByName() {
+    String doc = "<a><c/><b/><c/></a>";
+    XmlNode primary = XmlParser.parse(doc).get(0), replica = XmlParser.parse(doc).get(0);
+    XmlJournal journal = new XmlJournal(primary);
+    XmlNode b = primary.getChildren("b").get(0);
+
+    assertSame(b, primary.removeChild("b"));
+    assertNull(b.getParent());
+    // The removed child, not the equal node passed in, has left the tree
+    b.addAttribute("x", "1");
+
+    List<XmlChange> changes = journal.getPending();
+    assertEquals(1, changes.size());
+    assertEquals(XmlChange.Type.REMOVE_CHILD, changes.get(0).getType());
+    assertEquals(1, changes.get(0).getIndex());
+
+    XmlJournal.apply(replica, journal.commit());
+    assertEquals(primary, replica);
+  }
+
+  public void testRemoveEqualSibling() {
+    String doc = "<a><c/><b/><c/></a>";
+    XmlNode primary = XmlParser.parse(doc).get(0), replica = XmlParser.parse(doc).get(0);
+    XmlJournal journal = new XmlJournal(primary);
+    XmlNode last = primary.getChildren("c").get(1);
+
+    last.setParent(null);
+    primary.getChildren("c").get(0).addAttribute("x", "1");
+    assertEquals(2, journal.getPending().get(0).getIndex());
+
+    XmlJournal.apply(replica, journal.commit());
+    assertEquals(primary, replica);
+    assertEquals("b", replica.childAt(1).getName());
+    assertEquals("1", replica.childAt(0).getAttribute("x").getValue());
+  }
+
+  public void testChunkedValueRecordedOnce() {
+    XmlNode root = new XmlNode("root"), replica = new XmlNode("root");
+    XmlJournal journal = new XmlJournal(root);
+    XmlText text = new XmlText("first");
+
+    while (text.isSmall()) {
+      text.appendWord("word");
+    }
+    root.setValue(text);
+
+    assertEquals(1, journal.getPending().size());
+    XmlJournal.apply(replica, journal.commit());
+    assertEquals(root, replica);
+  }
+
+  public void testDecodeMalformed() {
+    XmlNode root = new XmlNode("root");
+    XmlJournal journal = new XmlJournal(root);
+    root.addAttribute("k", "v");
+    byte[] delta = journal.commit();
+
+    List<XmlChange> changes = XmlJournal.decode(delta);
+    assertEquals(1, changes.size());
+    assertEquals("k", changes.get(0).getKey());
+    assertEquals("v", changes.get(0).getValue());
+
+    try {
+      XmlJournal.decode(Arrays.copyOf(delta, delta.length - 1));
+      fail("Truncated delta should not decode");
+    } catch (XmlException e) {
+    }
+
+    try {
+      XmlJournal.apply(new XmlNode("root").addAttribute("k", "x"), delta);
+      fail("Delta should not apply to a different tree");
+    } catch (XmlException e) {
+    }
+  }
+}
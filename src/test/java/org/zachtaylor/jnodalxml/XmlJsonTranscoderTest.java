@@ -0,0 +1,62 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class XmlJsonTranscoderTest extends TestCase {
+  static String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+      + "<feed source=\"a &quot;b&quot;\">\n"
+      + "  <title>Hello   world</title>\n"
+      + "  <item id=\"1\">one</item>\n"
+      + "  <item id=\"2\"><empty/></item>\n"
+      + "  <footer/>\n"
+      + "</feed>";
+
+  public void testTranscode() {
+    StringBuilder json = new StringBuilder();
+
+    new XmlJsonTranscoder().addArrayNames(Arrays.asList("item")).transcode(new XmlTokenizer(DOCUMENT), json);
+
+    assertEquals("{\"feed\":{\"@source\":\"a \\\"b\\\"\",\"title\":\"Hello world\","
+        + "\"item\":[{\"@id\":\"1\",\"#text\":\"one\"},{\"@id\":\"2\",\"empty\":null}],\"footer\":null}}", json.toString());
+  }
+
+  public void testConventions() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new XmlJsonTranscoder().setAlwaysArrays(true).setAttributePrefix("").setTextKey("value")
+        .transcode(new XmlTokenizer("<a k=\"v\">café</a>"), out);
+
+    assertEquals("{\"a\":[{\"k\":\"v\",\"value\":\"café\"}]}", new String(out.toByteArray(), Charset.forName("UTF-8")));
+  }
+
+  public void testInterleavedArrays() {
+    String doc = "<a><b>1</b><c/><b>2</b><d><e/></d><c/><b>3</b></a>";
+    StringBuilder json = new StringBuilder();
+
+    new XmlJsonTranscoder().addArrayNames(Arrays.asList("b", "c")).transcode(new XmlTokenizer(doc), json);
+    assertEquals("{\"a\":{\"b\":[\"1\",\"2\",\"3\"],\"c\":[null,null],\"d\":{\"e\":null}}}", json.toString());
+
+    json.setLength(0);
+    new XmlJsonTranscoder().setAlwaysArrays(true).transcode(new XmlTokenizer("<a><b/><c/><b/></a>"), json);
+    assertEquals("{\"a\":[{\"b\":[null,null],\"c\":[null]}]}", json.toString());
+
+    try {
+      new XmlJsonTranscoder().addArrayNames(Arrays.asList("b")).transcode(new XmlTokenizer("<a><b/><c/><b/><c/></a>"), new StringBuilder());
+      fail("Repeated element should need declaring");
+    } catch (XmlException e) {
+      assertEquals("Element c repeats but is not declared as an array", e.getMessage());
+    }
+  }
+
+  public void testUndeclaredRepeat() {
+    try {
+      new XmlJsonTranscoder().transcode(new XmlTokenizer("<a><b/><c/><b/></a>"), new StringBuilder());
+      fail("Repeated element should need declaring");
+    } catch (XmlException e) {
+    }
+  }
+}
@@ -165,6 +165,13 @@ public class XmlNodeTest extends TestCase {
     assertTrue(!node.hasAttribute("boolean"));
   }
 
+  public void testPrintEscapes() {
+    node.addAttribute("key", "\"a\" & <b>");
+    node.setValue("1 < 2 & 3 > 2");
+
+    assertEquals("<name key=\"&quot;a&quot; &amp; &lt;b>\">\n1 &lt; 2 &amp; 3 &gt; 2\n</name>", node.printToString(0, ""));
+  }
+
   public void testMultipleAttributes() {
     node.addAttribute("key1", "value1").addAttribute("key2", "value2").addAttribute("key3", "value3");
 
@@ -453,4 +460,103 @@ public class XmlNodeTest extends TestCase {
 
     assertTrue(node.isSelfClosing());
   }
+
+  public void testTypedAttributeValues() {
+    XmlAttribute attribute = new XmlAttribute("key", "-42");
+
+    assertEquals(-42, attribute.getIntValue());
+    assertEquals(-42, attribute.getIntValue());
+    assertEquals(-42L, attribute.getLongValue(0));
+    assertEquals(-42.0, attribute.getDoubleValue(), 0);
+    assertEquals(7, new XmlAttribute("key", "4294967296").getIntValue(7));
+    assertEquals(4294967296L, new XmlAttribute("key", "4294967296").getLongValue());
+    assertEquals(0.125, new XmlAttribute("key", "1.25e-1").getDoubleValue(), 0);
+    assertEquals(7, new XmlAttribute("key", "seven").getIntValue(7));
+    assertTrue(new XmlAttribute("key", "TRUE").getBoolValue(false));
+    assertTrue(new XmlAttribute("key", "maybe").getBoolValue(true));
+    assertEquals(XmlTokenType.QUOTE, new XmlAttribute("key", "QUOTE").getEnumValue(XmlTokenType.class));
+    assertEquals(XmlTokenType.TEXT, new XmlAttribute("key", "quote").getEnumValue(XmlTokenType.class, XmlTokenType.TEXT));
+
+    try {
+      new XmlAttribute("key", "1.5").getIntValue();
+      fail("Decimal should not parse as int");
+    } catch (NumberFormatException e) {
+    }
+  }
+
+  public void testTypedNodeValues() {
+    assertEquals(3, node.getIntValue(3));
+
+    node.setValue("12");
+    assertEquals(12, node.getIntValue(0));
+    assertEquals(12.0, node.getDoubleValue(0), 0);
+
+    node.setValue("0.1");
+    assertEquals(-1, node.getLongValue(-1));
+    assertEquals(0.1, node.getDoubleValue(0), 0);
+    assertFalse(node.getBoolValue(false));
+  }
+
+  public void testNumberParsing() {
+    String[] longs = { "0", "-0", "+5", "9223372036854775807", "-9223372036854775808", "9223372036854775808", "",
+        "-", "1 2", "12a", "007" };
+    for (String s : longs) {
+      Object expected, actual;
+      try {
+        expected = Long.parseLong(s);
+      } catch (NumberFormatException e) {
+        expected = "invalid";
+      }
+      try {
+        actual = XmlNumbers.parseLong(s, 0, s.length());
+      } catch (NumberFormatException e) {
+        actual = "invalid";
+      }
+      assertEquals(s, expected, actual);
+    }
+
+    String[] doubles = { "0", "-0.0", "3.14159", ".5", "5.", "123456789012345", "1234567890123456789",
+        "0.000000000000000000000001", "1e10", "NaN", "-Infinity", "", ".", "1.2.3", "0x1p3" };
+    for (String s : doubles) {
+      Object expected, actual;
+      try {
+        expected = Double.parseDouble(s);
+      } catch (NumberFormatException e) {
+        expected = "invalid";
+      }
+      try {
+        actual = XmlNumbers.parseDouble(s, 0, s.length());
+      } catch (NumberFormatException e) {
+        actual = "invalid";
+      }
+      assertEquals(s, expected, actual);
+    }
+  }
+
+  public void testStats() {
+    XmlNode root = XmlParser.parse("<root a=\"1\"><item k=\"x\">hello</item><item/><group><item>hi</item></group></root>").get(0);
+    XmlNodeStats stats = root.stats();
+
+    assertEquals(5, stats.getNodeCount());
+    assertEquals(2, stats.getAttributeCount());
+    assertEquals(3, stats.getMaxDepth());
+    assertEquals(3, stats.getMaxFanOut());
+    assertEquals(Long.valueOf(3), stats.getFanOutCounts().get(0));
+    assertEquals(7, stats.getTextChars());
+    assertEquals(3, stats.getDistinctNameCount());
+
+    long before = stats.getEstimatedRetainedBytes();
+    new XmlNode("extra", root).setValue("more text");
+    assertTrue(root.stats().getEstimatedRetainedBytes() > before);
+  }
+
+  public void testStatsDeepTree() {
+    XmlNode root = new XmlNode("root");
+    XmlNode node = root;
+    for (int i = 0; i < 100000; i++) {
+      node = new XmlNode("n", node);
+    }
+
+    assertEquals(100001, root.stats().getMaxDepth());
+  }
 }
\ No newline at end of file
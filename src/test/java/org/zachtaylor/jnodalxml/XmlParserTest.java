@@ -0,0 +1,629 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class XmlParserTest extends TestCase {
+  static String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+      + "<root id=\"1\">\n"
+      + "  <!-- a <comment> -->\n"
+      + "  <section name=\"first  section\">\n"
+      + "    <item key=\"a\">hello   world</item>\n"
+      + "    <item key=\"b\" />\n"
+      + "  </section>\n"
+      + "  <section name=\"second\">\n"
+      + "    <item key=\"c\"><leaf>deep</leaf></item>\n"
+      + "  </section>\n"
+      + "</root>";
+
+  public void testParse() {
+    List<XmlNode> nodes = XmlParser.parse(DOCUMENT);
+
+    assertEquals(2, nodes.size());
+    assertEquals("?xml", nodes.get(0).getName());
+
+    XmlNode root = nodes.get(1);
+    assertEquals("root", root.getName());
+    assertEquals(2, root.getChildren("section").size());
+    assertEquals("first section", root.getChildren("section").get(0).getAttribute("name").getValue());
+    assertEquals("hello world", root.getChildren("section").get(0).getChildren("item").get(0).getValue());
+  }
+
+  public void testLazyEqualsEager() {
+    assertEquals(XmlParser.parse(DOCUMENT), XmlParser.parseLazy(DOCUMENT));
+  }
+
+  public void testEntities() {
+    String document = "<a k=\"x &amp; &quot;y&quot;\">1 &lt; 2 &#65;&#x42; &bogus; &</a>";
+    XmlNode node = XmlParser.parse(document).get(0);
+
+    assertEquals("x & \"y\"", node.getAttribute("k").getValue());
+    assertEquals("1 < 2 AB &bogus; &", node.getValue());
+    assertEquals(node, XmlParser.parseLazy(document).get(0));
+    assertEquals(node, XmlParser.parse(node.printToString(0, "")).get(0));
+  }
+
+  public void testEntitiesFastPath() {
+    String s = "nothing to see";
+
+    assertSame(s, XmlEntities.unescape(s));
+    assertSame(s, XmlEntities.escapeText(s));
+    assertSame(s, XmlEntities.escapeAttribute(s));
+  }
+
+  public void testCData() {
+    String document = "<a><![CDATA[<b> &amp; </b>]]></a>";
+
+    assertEquals("<b> &amp; </b>", XmlParser.parse(document).get(0).getValue());
+    assertEquals("<b> &amp; </b>", XmlParser.parseLazy(document).get(0).getValue());
+  }
+
+  public void testLargeValue() throws IOException {
+    StringBuilder expected = new StringBuilder();
+
+    for (int i = 0; i < 10000; i++) {
+      if (i > 0) {
+        expected.append(' ');
+      }
+      expected.append("word").append(i);
+    }
+
+    XmlNode node = XmlParser.parse("<a>\n" + expected + "\n</a>").get(0);
+
+    StringBuilder read = new StringBuilder();
+    Reader reader = node.openValueReader();
+    char[] buffer = new char[100];
+    int n;
+    while ((n = reader.read(buffer)) >= 0) {
+      read.append(buffer, 0, n);
+    }
+    assertEquals(expected.toString(), read.toString());
+
+    StringWriter written = new StringWriter();
+    assertTrue(node.writeValueTo(written));
+    assertEquals(expected.toString(), written.toString());
+
+    assertEquals(expected.toString(), node.getValue());
+
+    // Compared chunk by chunk, with the chunks falling differently
+    assertEquals(node, new XmlNode("a").setValue(new XmlText(expected.toString())));
+    assertEquals(node, new XmlNode("a").setValue(expected.toString()));
+    assertEquals(new XmlNode("a").setValue(expected.toString()), node);
+    assertFalse(node.equals(new XmlNode("a").setValue(new XmlText(expected.toString() + "!"))));
+    assertFalse(node.equals(new XmlNode("a").setValue(new XmlText("x" + expected.substring(1)))));
+    assertFalse(node.equals(new XmlNode("a").setValue(expected.substring(1) + "x")));
+  }
+
+  public void testParseContext() {
+    XmlParseContext context = new XmlParseContext();
+
+    List<XmlNode> first = context.reset(DOCUMENT).parse();
+    assertEquals(XmlParser.parse(DOCUMENT), first);
+    Set<XmlNode> parsed = Collections.newSetFromMap(new IdentityHashMap<XmlNode, Boolean>());
+    collect(first, parsed);
+
+    List<XmlNode> second = context.reset("<root><a k=\"v\">x</a></root>").parse();
+    assertEquals(XmlParser.parse("<root><a k=\"v\">x</a></root>"), second);
+    assertTrue(parsed.contains(second.get(0)));
+    assertTrue(parsed.contains(second.get(0).getChildren("a").get(0)));
+
+    context.close();
+    assertTrue(context.reset(DOCUMENT).parse().contains(XmlParser.parse(DOCUMENT).get(1)));
+  }
+
+  private static void collect(Collection<XmlNode> nodes, Set<XmlNode> into) {
+    for (XmlNode node : nodes) {
+      into.add(node);
+      collect(node.getAllChildren(), into);
+    }
+  }
+
+  public void testParseContextPerThread() {
+    assertSame(XmlParseContext.get(), XmlParseContext.get());
+  }
+
+  public void testParseAll() throws Exception {
+    List<Path> paths = new ArrayList<Path>();
+
+    for (int i = 0; i < 20; i++) {
+      Path path = Files.createTempFile("jnodalxml", ".xml");
+      path.toFile().deleteOnExit();
+      Files.write(path, (i == 7 ? "<broken>" : "<file index=\"" + i + "\" />").getBytes());
+      paths.add(path);
+    }
+
+    List<XmlBatchResult> results = XmlParser.parseAll(paths, new XmlBatchOptions().setMaxConcurrency(3).setMaxInFlightBytes(40));
+
+    assertEquals(paths.size(), results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(paths.get(i), results.get(i).getPath());
+
+      if (i == 7) {
+        assertFalse(results.get(i).isSuccess());
+        assertTrue(results.get(i).getError() instanceof XmlException);
+      }
+      else {
+        assertEquals(i, results.get(i).getNodes().get(0).getAttribute("index").getIntValue());
+      }
+    }
+
+    final AtomicInteger failures = new AtomicInteger(), successes = new AtomicInteger();
+    XmlParser.parseAll(paths, new XmlBatchOptions(), new XmlBatchListener() {
+      public void completed(XmlBatchResult result) {
+        (result.isSuccess() ? successes : failures).incrementAndGet();
+      }
+    });
+
+    assertEquals(1, failures.get());
+    assertEquals(19, successes.get());
+  }
+
+  public void testParseAllErrors() throws Exception {
+    List<Path> paths = new ArrayList<Path>();
+
+    for (int i = 0; i < 4; i++) {
+      Path path = Files.createTempFile("jnodalxml", ".xml");
+      path.toFile().deleteOnExit();
+      Files.write(path, (i == 2 ? "<a><b/></a>" : "<a/>").getBytes());
+      paths.add(path);
+    }
+
+    XmlParser.setParseListener(new XmlParseListener() {
+      public void completed(XmlParseMetrics metrics) {
+        if (metrics.getElementCount() == 2)
+          throw new OutOfMemoryError("Simulated");
+      }
+    });
+
+    List<XmlBatchResult> results;
+    try {
+      results = XmlParser.parseAll(paths, new XmlBatchOptions().setMaxConcurrency(2));
+    } finally {
+      XmlParser.setParseListener(null);
+    }
+
+    assertEquals(4, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(i != 2, results.get(i).isSuccess());
+    }
+    assertTrue(results.get(2).getError() instanceof OutOfMemoryError);
+  }
+
+  public void testParseGzip() throws IOException {
+    StringBuilder document = new StringBuilder("<root>");
+    for (int i = 0; i < 20000; i++) {
+      document.append("<item name=\"ünïcödé ").append(i).append("\">€ value ").append(i).append("</item>");
+    }
+    document.append("</root>");
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(document.toString().getBytes("UTF-8"));
+    gzip.close();
+
+    List<XmlNode> nodes = XmlParser.parseGzip(new ByteArrayInputStream(compressed.toByteArray()), Charset.forName("UTF-8"));
+
+    assertEquals(XmlParser.parse(document.toString()), nodes);
+  }
+
+  public void testParseGzipCorrupt() {
+    try {
+      XmlParser.parseGzip(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }), Charset.forName("UTF-8"));
+      fail("Corrupt input should fail");
+    } catch (XmlException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  public void testParseGzipMalformed() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(new byte[] { '<', 'a', '>', (byte) 0xFF, '<', '/', 'a', '>' });
+    gzip.close();
+
+    try {
+      XmlParser.parseGzip(new ByteArrayInputStream(compressed.toByteArray()), Charset.forName("UTF-8"));
+      fail("Malformed UTF-8 should fail");
+    } catch (XmlException e) {
+      assertTrue(e.getMessage().startsWith("Malformed input"));
+    }
+  }
+
+  public void testParseGzipLimits() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    byte[] spaces = new byte[1 << 16];
+    Arrays.fill(spaces, (byte) ' ');
+    gzip.write("<a>".getBytes("UTF-8"));
+    // 64 MiB of whitespace, which compresses to a few KiB
+    for (int i = 0; i < 1024; i++) {
+      gzip.write(spaces);
+    }
+    gzip.write("</a>".getBytes("UTF-8"));
+    gzip.close();
+
+    try {
+      XmlParser.parseGzip(new ByteArrayInputStream(compressed.toByteArray()), Charset.forName("UTF-8"), new XmlLimits().setMaxChars(1 << 20));
+      fail("Limit on characters should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(XmlLimitException.Limit.CHARS, e.getLimit());
+    }
+  }
+
+  public void testParsePipelined() {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 5000; i++) {
+      doc.append("<item id=\"").append(i).append("\" note=\"a b\">text &amp; ").append(i).append("</item><empty/>");
+    }
+    doc.append("</root>");
+
+    assertEquals(XmlParser.parse(doc.toString()), XmlParser.parsePipelined(new XmlTokenizer(doc.toString())));
+  }
+
+  public void testParsePipelinedErrors() throws InterruptedException {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 5000; i++) {
+      doc.append("<item>").append(i).append("</item>");
+    }
+
+    try {
+      XmlParser.parsePipelined(new XmlTokenizer(doc + "</wrong>"));
+      fail("Mismatched closing tag should fail");
+    } catch (XmlException e) {
+    }
+
+    try {
+      XmlParser.parsePipelined(new XmlTokenizer(doc + "</root><!-- unterminated"));
+      fail("Tokenizer failure should reach the caller");
+    } catch (XmlException e) {
+    }
+
+    final CountDownLatch closed = new CountDownLatch(1);
+    try {
+      XmlParser.parsePipelined(new XmlTokenizer(new StringReader("<wrong></root>" + doc + doc + doc) {
+        @Override
+        public void close() {
+          closed.countDown();
+        }
+      }));
+      fail("Mismatched closing tag should fail");
+    } catch (XmlException e) {
+    }
+    // The producer closes the reader once it sees the parse has failed
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+  }
+
+  public void testParsePipelinedHandlerError() throws InterruptedException {
+    final XmlTokenPipe pipe = new XmlTokenPipe(4, 16);
+    final XmlTokenizer tokens = endless("<root>", "<item/>");
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        pipe.produce(tokens);
+      }
+    });
+    producer.setDaemon(true);
+    producer.start();
+
+    try {
+      pipe.drainTo(new XmlEventParser(new XmlHandler() {
+        public void startElement(String name) {
+          if (++elements == 1000)
+            throw new StackOverflowError();
+        }
+
+        public void attribute(String key, String value) {
+        }
+
+        public void text(String word) {
+        }
+
+        public void endElement(String name, boolean selfClosing) {
+        }
+
+        int elements;
+      }), null);
+      fail("The handler's error should reach the caller");
+    } catch (StackOverflowError e) {
+    }
+
+    // The producer stops instead of waiting for the ring to drain
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+  }
+
+  public void testParseListener() {
+    final List<XmlParseMetrics> reports = new ArrayList<XmlParseMetrics>();
+
+    XmlParser.setParseListener(new XmlParseListener() {
+      public void completed(XmlParseMetrics metrics) {
+        reports.add(metrics);
+      }
+    });
+
+    try {
+      XmlParser.parse("<a k=\"v\" j=\"w\"><b>x y</b><c/></a>");
+      XmlParser.parsePipelined(new XmlTokenizer("<a><b/></a>"));
+
+      try {
+        XmlParser.parse("<a></b>");
+      } catch (XmlException e) {
+      }
+    } finally {
+      XmlParser.setParseListener(null);
+    }
+
+    XmlParser.parse("<unmeasured/>");
+
+    assertEquals(3, reports.size());
+
+    XmlParseMetrics metrics = reports.get(0);
+    assertEquals(33, metrics.getCharsRead());
+    assertEquals(3, metrics.getElementCount());
+    assertEquals(2, metrics.getAttributeCount());
+    assertEquals(2, metrics.getMaxDepth());
+    assertEquals(11, metrics.getTokenCount(XmlTokenType.TEXT));
+    assertEquals(4, metrics.getTokenCount(XmlTokenType.QUOTE));
+    assertNull(metrics.getError());
+    assertTrue(metrics.getTotalNanos() >= metrics.getReadNanos());
+
+    assertEquals(2, reports.get(1).getElementCount());
+    assertTrue(reports.get(1).getBuildNanos() <= reports.get(1).getTotalNanos());
+    assertNotNull(reports.get(2).getError());
+  }
+
+  public void testTokenizerParseListener() {
+    final List<XmlParseMetrics> shared = new ArrayList<XmlParseMetrics>(), own = new ArrayList<XmlParseMetrics>();
+    XmlParseListener ownListener = new XmlParseListener() {
+      public void completed(XmlParseMetrics metrics) {
+        own.add(metrics);
+      }
+    };
+    XmlParser.setParseListener(new XmlParseListener() {
+      public void completed(XmlParseMetrics metrics) {
+        shared.add(metrics);
+      }
+    });
+
+    try {
+      XmlParser.parse(new XmlTokenizer("<a><b/></a>").setParseListener(ownListener));
+      XmlParser.parsePipelined(new XmlTokenizer("<a><b/><c/></a>").setParseListener(ownListener));
+      XmlParser.parse("<shared/>");
+    } finally {
+      XmlParser.setParseListener(null);
+    }
+
+    XmlParser.parse(new XmlTokenizer("<unshared/>").setParseListener(ownListener));
+
+    assertEquals(1, shared.size());
+    assertEquals(1, shared.get(0).getElementCount());
+    assertEquals(3, own.size());
+    assertEquals(2, own.get(0).getElementCount());
+    assertEquals(3, own.get(1).getElementCount());
+  }
+
+  /**
+   * An endless document: the prefix, then the unit repeated forever
+   */
+  private static XmlTokenizer endless(final String prefix, final String unit) {
+    return new XmlTokenizer(new Reader() {
+      public int read(char[] buffer, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+          buffer[offset + i] = count < prefix.length() ? prefix.charAt((int) count) : unit.charAt((int) ((count - prefix.length()) % unit.length()));
+          count++;
+        }
+        return length;
+      }
+
+      public void close() {
+      }
+
+      long count = 0;
+    });
+  }
+
+  private static void assertLimit(XmlLimitException.Limit expected, XmlTokenizer tokens, XmlLimits limits) {
+    try {
+      XmlParser.parse(tokens, limits);
+      fail("Limit on " + expected + " should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(expected, e.getLimit());
+    }
+  }
+
+  public void testLimits() {
+    assertLimit(XmlLimitException.Limit.DEPTH, endless("", "<a>"), new XmlLimits().setMaxDepth(100));
+    assertLimit(XmlLimitException.Limit.TEXT_LENGTH, endless("<a>", "x"), new XmlLimits().setMaxTextLength(1000));
+    assertLimit(XmlLimitException.Limit.TEXT_LENGTH, endless("<a>", "x "), new XmlLimits().setMaxTextLength(1000));
+    assertLimit(XmlLimitException.Limit.NAME_LENGTH, endless("<", "a"), new XmlLimits().setMaxNameLength(64));
+    StringBuilder attributes = new StringBuilder("<a");
+    for (int i = 0; i < 20; i++) {
+      attributes.append(" k").append(i).append("=\"v\"");
+    }
+    assertLimit(XmlLimitException.Limit.ATTRIBUTES, new XmlTokenizer(attributes + "/>"), new XmlLimits().setMaxAttributes(10));
+    assertLimit(XmlLimitException.Limit.NODES, endless("<a>", "<b/>"), new XmlLimits().setMaxNodes(1000));
+    assertLimit(XmlLimitException.Limit.CHARS, endless("<a>", " "), new XmlLimits().setMaxChars(1 << 20));
+
+    XmlLimits limits = new XmlLimits().setMaxDepth(3).setMaxAttributes(1).setMaxNodes(6).setMaxTextLength(4);
+    String withinLimits = "<?xml?><a><b k=\"v\">x y</b><c/><d><e/></d></a>";
+    assertEquals(XmlParser.parse(withinLimits), XmlParser.parse(new XmlTokenizer(withinLimits), limits));
+    assertEquals(XmlParser.parse(withinLimits), XmlParser.parsePipelined(new XmlTokenizer(withinLimits), limits));
+    assertEquals(XmlParser.parse(withinLimits), XmlParser.parseLazy(withinLimits, limits));
+    assertEquals(XmlParser.parse(withinLimits), XmlParseContext.get().setLimits(limits).reset(withinLimits).parse());
+    XmlParseContext.get().setLimits(null).close();
+
+    try {
+      XmlParser.parsePipelined(endless("", "<a>"), new XmlLimits().setMaxDepth(100));
+      fail("Limit on depth should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(XmlLimitException.Limit.DEPTH, e.getLimit());
+    }
+  }
+
+  public void testLazyLimits() {
+    StringBuilder deep = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      deep.append("<a>");
+    }
+    for (int i = 0; i < 200; i++) {
+      deep.append("</a>");
+    }
+    assertLazyLimit(XmlLimitException.Limit.DEPTH, deep.toString(), new XmlLimits().setMaxDepth(100));
+    assertLazyLimit(XmlLimitException.Limit.CHARS, deep.toString(), new XmlLimits().setMaxChars(100));
+    assertLazyLimit(XmlLimitException.Limit.NODES, "<a><b/><b/><b/></a>", new XmlLimits().setMaxNodes(3));
+
+    // The rest are checked as content is parsed
+    XmlNode root = XmlParser.parseLazy("<a><b k=\"v\" j=\"w\"/></a>", new XmlLimits().setMaxAttributes(1)).get(0);
+    try {
+      root.getAllChildren();
+      fail("Limit on attributes should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(XmlLimitException.Limit.ATTRIBUTES, e.getLimit());
+    }
+  }
+
+  private static void assertLazyLimit(XmlLimitException.Limit expected, String document, XmlLimits limits) {
+    try {
+      XmlParser.parseLazy(document, limits);
+      fail("Limit on " + expected + " should be exceeded");
+    } catch (XmlLimitException e) {
+      assertEquals(expected, e.getLimit());
+    }
+  }
+
+  public void testParseShared() {
+    StringBuilder doc = new StringBuilder("<root>");
+    for (int i = 0; i < 100; i++) {
+      doc.append("<customer id=\"").append(i).append("\"><address><city>Springfield</city><zip>12345</zip></address>")
+          .append("<flags/></customer>");
+    }
+    doc.append("</root>");
+
+    List<XmlNode> shared = XmlParser.parseShared(new XmlTokenizer(doc.toString()));
+    assertEquals(XmlParser.parse(doc.toString()), shared);
+
+    List<XmlNode> customers = shared.get(0).getChildren("customer");
+    XmlNode address = customers.get(0).getChildren("address").get(0);
+    assertSame(address, customers.get(99).getChildren("address").get(0));
+    assertTrue(address.isShared());
+    assertFalse(customers.get(0).isShared());
+    assertSame(customers.get(0), address.getParent());
+
+    try {
+      address.getChildren("city").get(0).setValue("Shelbyville");
+      fail("Shared node should not be modifiable");
+    } catch (XmlException e) {
+    }
+
+    XmlNode copy = address.copy();
+    copy.getChildren("city").get(0).setValue("Shelbyville");
+    assertEquals("Springfield", address.getChildren("city").get(0).getValue());
+
+    assertSame(customers.get(0).getChildren("flags").get(0), customers.get(50).getChildren("flags").get(0));
+
+    // Shared subtrees are counted once
+    XmlNodeStats sharedStats = shared.get(0).stats(), plainStats = XmlParser.parse(doc.toString()).get(0).stats();
+    assertEquals(1 + 100 + 3 + 1, sharedStats.getNodeCount());
+    assertEquals(1 + 100 * 5, plainStats.getNodeCount());
+    assertTrue(sharedStats.getEstimatedRetainedBytes() < plainStats.getEstimatedRetainedBytes() / 2);
+  }
+
+  public void testLazyValueScalesLinearly() {
+    for (String word : new String[] { "word", "a&b" }) {
+      StringBuilder doc = new StringBuilder("<a>");
+      for (int i = 0; i < 160000; i++) {
+        doc.append(word).append(' ');
+      }
+      String s = doc.append("</a>").toString();
+
+      long start = System.nanoTime();
+      String eager = XmlParser.parse(s).get(0).getValue();
+      long eagerNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      String lazy = XmlParser.parseLazy(s).get(0).getValue();
+      long lazyNanos = System.nanoTime() - start;
+
+      // Each word used to be decoded by searching to the end of the whole document
+      assertEquals(eager, lazy);
+      assertTrue("Lazy value took " + lazyNanos / 1000000 + " ms", lazyNanos < 10 * eagerNanos + 1000000000L);
+    }
+  }
+
+  public void testLazyStartTag() {
+    XmlNode root = XmlParser.parseLazy(DOCUMENT).get(1);
+
+    assertEquals("root", root.getName());
+    assertEquals(1, root.getAttribute("id").getIntValue());
+  }
+
+  public void testLazyParent() {
+    XmlNode root = XmlParser.parseLazy(DOCUMENT).get(1);
+    XmlNode section = root.getChildren("section").get(1);
+    XmlNode leaf = section.getChildren("item").get(0).getChildren("leaf").get(0);
+
+    assertSame(root, section.getParent());
+    assertEquals("deep", leaf.getValue());
+  }
+
+  public void testLazyMalformedContentFailsOnAccess() {
+    XmlNode root = XmlParser.parseLazy("<a><b><c></b></c></a>").get(0);
+
+    try {
+      root.getAllChildren().iterator().next().getAllChildren();
+      fail("Mismatched closing tag should be found when materialized");
+    } catch (XmlException e) {
+    }
+  }
+
+  public void testLazyUnclosed() {
+    try {
+      XmlParser.parseLazy("<a><b></b>");
+      fail("Unclosed element should fail");
+    } catch (XmlException e) {
+    }
+  }
+
+  public void testLazyConcurrentMaterialization() throws InterruptedException {
+    final XmlNode root = XmlParser.parseLazy(DOCUMENT).get(1);
+    final Object[] seen = new Object[8];
+    Thread[] threads = new Thread[seen.length];
+
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        public void run() {
+          seen[index] = root.getChildren("section").get(0);
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (Object section : seen) {
+      assertSame(seen[0], section);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.zachtaylor.jnodalxml;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class XmlSchemaParserTest extends TestCase {
+  static String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+      + "<feed source=\"test\">\n"
+      + "  <item id=\"1\" price=\"12.5\" stock=\"true\"><title>Dune &amp; more</title></item>\n"
+      + "  <item id=\"2\" price=\"3\"><title>Abbey Road</title></item>\n"
+      + "</feed>";
+
+  XmlSchema schema;
+  XmlSchema.Element feed, item, title;
+  int source, id, price, stock, name;
+
+  public void setUp() {
+    schema = new XmlSchema("feed");
+    feed = schema.getRoot();
+    source = feed.attribute("source", XmlSchema.Type.STRING);
+    item = feed.child("item");
+    id = item.attribute("id", XmlSchema.Type.LONG);
+    price = item.attribute("price", XmlSchema.Type.DOUBLE);
+    stock = item.attribute("stock", XmlSchema.Type.BOOLEAN);
+    title = item.child("title");
+    name = title.value(XmlSchema.Type.STRING);
+  }
+
+  public void testParse() {
+    XmlRecord root = schema.compile().parse(DOCUMENT);
+
+    assertSame(feed, root.getElement());
+    assertEquals("test", root.getString(source));
+
+    List<XmlRecord> items = root.getChildren(item);
+    assertEquals(2, items.size());
+    assertEquals(1, items.get(0).getLong(id));
+    assertEquals(12.5, items.get(0).getDouble(price), 0);
+    assertTrue(items.get(0).getBoolean(stock));
+    assertFalse(items.get(1).has(stock));
+    assertEquals("Dune & more", items.get(0).getChildren().get(0).getString(name));
+    assertEquals(3.0, items.get(1).getDouble(price), 0);
+  }
+
+  public void testRejectsDeviations() {
+    XmlSchemaParser parser = schema.compile();
+
+    assertRejected(parser, "<other/>");
+    assertRejected(parser, "<feed><unknown/></feed>");
+    assertRejected(parser, "<feed><item extra=\"1\"/></feed>");
+    assertRejected(parser, "<feed><item id=\"one\"/></feed>");
+    assertRejected(parser, "<feed>text</feed>");
+  }
+
+  public void testCompiledSchemaIsFixed() {
+    schema.compile();
+
+    try {
+      feed.child("late");
+      fail("Compiled schema should not change");
+    } catch (XmlException e) {
+    }
+  }
+
+  private static void assertRejected(XmlSchemaParser parser, String document) {
+    try {
+      parser.parse(document);
+      fail(document + " should not fit the schema");
+    } catch (XmlException e) {
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package org.zachtaylor.jnodalxml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class XmlSorterTest extends TestCase {
+  public void testSortSpillsAndMerges() throws IOException {
+    StringBuilder doc = new StringBuilder("<records source=\"test\">");
+    Random random = new Random(7);
+    for (int i = 0; i < 5000; i++) {
+      doc.append("<record id=\"").append((char) ('a' + random.nextInt(26))).append(random.nextInt(100))
+          .append("\" seq=\"").append(i).append("\"><name>n ").append(i).append(" é</name></record>");
+    }
+    doc.append("</records>");
+
+    for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+      File out = File.createTempFile("sorted", ".xml");
+      try {
+        long count = new XmlSorter("record").setKeyAttribute("id").setMemoryBudget(2000).setParallelism(parallelism)
+            .sort(new XmlTokenizer(doc.toString()), out);
+        assertEquals(5000, count);
+
+        XmlNode root = read(out);
+        assertEquals("test", root.getAttribute("source").getValue());
+
+        List<XmlNode> records = root.getChildren("record");
+        assertEquals(5000, records.size());
+
+        for (int i = 1; i < records.size(); i++) {
+          XmlNode a = records.get(i - 1), b = records.get(i);
+          int c = a.getAttribute("id").getValue().compareTo(b.getAttribute("id").getValue());
+          assertTrue(c <= 0);
+          // Stable among equal keys
+          assertTrue(c < 0 || a.getAttribute("seq").getIntValue() < b.getAttribute("seq").getIntValue());
+        }
+      } finally {
+        out.delete();
+      }
+    }
+  }
+
+  public void testSortByChildInMemory() throws IOException {
+    String doc = "<list><item><n>10</n></item><item><n>9</n></item><item/><item><n>100</n></item></list>";
+    File out = File.createTempFile("sorted", ".xml");
+
+    try {
+      new XmlSorter("item").setKeyChild("n").setComparator(new Comparator<String>() {
+        public int compare(String a, String b) {
+          return Long.compare(a.isEmpty() ? -1 : Long.parseLong(a), b.isEmpty() ? -1 : Long.parseLong(b));
+        }
+      }).sort(new XmlTokenizer(doc), out);
+
+      List<String> order = new ArrayList<String>();
+      for (XmlNode item : read(out).getChildren("item")) {
+        order.add(item.getChildren("n").isEmpty() ? "" : item.getChildren("n").get(0).getValue());
+      }
+      assertEquals("[, 9, 10, 100]", order.toString());
+    } finally {
+      out.delete();
+    }
+  }
+
+  public void testRejectsOtherContent() throws IOException {
+    File out = File.createTempFile("sorted", ".xml");
+
+    try {
+      new XmlSorter("record").setKeyAttribute("id").sort(new XmlTokenizer("<records><record/><other/></records>"), out);
+      fail("Elements other than records should be rejected");
+    } catch (XmlException e) {
+    } finally {
+      out.delete();
+    }
+  }
+
+  public void testListeners() throws IOException {
+    final List<Object> reports = new ArrayList<Object>();
+    File out = File.createTempFile("sorted", ".xml");
+
+    XmlParser.setParseListener(new XmlParseListener() {
+      public void completed(XmlParseMetrics metrics) {
+        reports.add(metrics);
+      }
+    });
+    XmlNode.setWriteListener(new XmlWriteListener() {
+      public void completed(XmlWriteMetrics metrics) {
+        reports.add(metrics);
+      }
+    });
+
+    try {
+      // The sorter's own reading and writing are not reported to the shared listeners
+      new XmlSorter("record").setKeyAttribute("id").sort(new XmlTokenizer("<records><record id=\"2\"/><record id=\"1\"/></records>"), out);
+      assertTrue(reports.isEmpty());
+
+      new XmlSorter("record").setKeyAttribute("id").sort(new XmlTokenizer("<records><record id=\"1\"/></records>").setParseListener(new XmlParseListener() {
+        public void completed(XmlParseMetrics metrics) {
+          reports.add(metrics);
+        }
+      }), out);
+      assertEquals(1, reports.size());
+    } finally {
+      XmlParser.setParseListener(null);
+      XmlNode.setWriteListener(null);
+      out.delete();
+    }
+  }
+
+  public void testSortFileWithDeclaration() throws IOException {
+    File in = File.createTempFile("unsorted", ".xml"), out = File.createTempFile("sorted", ".xml");
+
+    try {
+      Files.write(in.toPath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records><record id=\"é2\"/><record id=\"é1\"/></records>"
+          .getBytes(Charset.forName("UTF-8")));
+
+      assertEquals(2, new XmlSorter("record").setKeyAttribute("id").sort(in, out));
+
+      List<XmlNode> records = read(out).getChildren("record");
+      assertEquals("é1", records.get(0).getAttribute("id").getValue());
+      assertEquals("é2", records.get(1).getAttribute("id").getValue());
+    } finally {
+      in.delete();
+      out.delete();
+    }
+  }
+
+  public void testFailureRemovesRuns() throws IOException {
+    StringBuilder doc = new StringBuilder("<records>");
+    for (int i = 0; i < 2000; i++) {
+      doc.append("<record id=\"").append(i % 97).append("\"><name>n ").append(i).append("</name></record>");
+    }
+    doc.append("<other/></records>");
+
+    File dir = Files.createTempDirectory("runs").toFile(), out = File.createTempFile("sorted", ".xml");
+
+    try {
+      new XmlSorter("record").setKeyAttribute("id").setMemoryBudget(2000).setParallelism(3).setTempDirectory(dir)
+          .sort(new XmlTokenizer(doc.toString()), out);
+      fail("Elements other than records should be rejected");
+    } catch (XmlException e) {
+      assertEquals(0, dir.list().length);
+    } finally {
+      dir.delete();
+      out.delete();
+    }
+  }
+
+  private static XmlNode read(File f) throws IOException {
+    return XmlParser.parse(new XmlTokenizer(new InputStreamReader(new FileInputStream(f), Charset.forName("UTF-8")))).get(0);
+  }
+}
@@ -1,5 +1,7 @@
 package org.zachtaylor.jnodalxml;
 
+import java.io.StringReader;
+
 import junit.framework.TestCase;
 
 public class XmlTokenizerTest extends TestCase {
@@ -137,6 +139,95 @@ public class XmlTokenizerTest extends TestCase {
     assertEquals(XmlTokenType.CLOSE_BRACKET, token.getType());
   }
 
+  public void testValueCache() {
+    XmlValueCache cache = new XmlValueCache(64, 8);
+    String doc = "<a><b currency=\"USD\" note=\"far too long to cache\" amp=\"a&amp;b\">true</b>"
+        + "<b currency=\"USD\" note=\"far too long to cache\" amp=\"a&amp;b\">true</b></a>";
+
+    XmlNode root = XmlParser.parse(new XmlTokenizer(doc).setValueCache(cache)).get(0);
+    XmlNode first = root.getChildren("b").get(0), second = root.getChildren("b").get(1);
+
+    assertEquals("USD", first.getAttribute("currency").getValue());
+    assertSame(first.getAttribute("currency").getValue(), second.getAttribute("currency").getValue());
+    assertSame(first.getValue(), second.getValue());
+    assertEquals("far too long to cache", first.getAttribute("note").getValue());
+    assertNotSame(first.getAttribute("note").getValue(), second.getAttribute("note").getValue());
+    assertEquals("a&b", first.getAttribute("amp").getValue());
+    assertEquals(XmlParser.parse(doc), XmlParser.parse(new XmlTokenizer(doc).setValueCache(cache)));
+  }
+
+  public void testValueCacheEviction() {
+    XmlValueCache cache = new XmlValueCache(1, 4);
+    assertEquals(2, cache.getCapacity());
+
+    String a = cache.get("xaby", 1, 3);
+    assertEquals("ab", a);
+    assertSame(a, cache.get(new StringBuilder("ab"), 0, 2));
+
+    cache.get("cd", 0, 2);
+    cache.get("ef", 0, 2);
+    assertNotSame(a, cache.get("ab", 0, 2));
+
+    // A hit leaves the slots alone, so the word added first is still evicted first
+    cache.clear();
+    a = cache.get("xaby", 1, 3);
+    cache.get("cd", 0, 2);
+    assertSame(a, cache.get("ab", 0, 2));
+    cache.get("ef", 0, 2);
+    assertNotSame(a, cache.get("ab", 0, 2));
+
+    cache.clear();
+    assertEquals("ef", cache.get("ef", 0, 2));
+  }
+
+  public void testScannedRuns() {
+    String doc = "<document a=\"x&amp;y z\" b=\"ABCDEFGH/=>\">Lorem\u3000ipsum\u2028dolor&lt;sit amet-consectetur"
+        + "<!-- a -- b --- c -->ABCDEFGHIJKLMNOP<![CDATA[QRSTUVWX&amp;]]]]>yz&#65; é\u00A0\u00A0</document>";
+    XmlTokenizer scanned = new XmlTokenizer(doc), single = new XmlTokenizer();
+
+    for (char c : doc.toCharArray()) {
+      single.feed(new char[] { c }, 0, 1);
+    }
+    single.finish();
+
+    while (scanned.hasNext()) {
+      assertEquals(single.next(), scanned.next());
+    }
+    assertFalse(single.hasNext());
+
+    XmlNode node = XmlParser.parse(doc).get(0);
+    assertEquals("x&y z", node.getAttribute("a").getValue());
+    assertEquals("ABCDEFGH/=>", node.getAttribute("b").getValue());
+    assertEquals("Lorem ipsum dolor<sit amet-consectetur ABCDEFGHIJKLMNOP QRSTUVWX&amp;]] yzA é\u00A0\u00A0", node.getValue());
+  }
+
+  public void testClose() {
+    final boolean[] closed = new boolean[1];
+    StringBuilder doc = new StringBuilder("<a>text</a>");
+    for (int i = 0; i < 5000; i++) {
+      doc.append("<b/>");
+    }
+    tokenizer = new XmlTokenizer(new StringReader(doc.toString()) {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    });
+
+    assertOpenNode("a", tokenizer);
+    tokenizer.close();
+    assertTrue(closed[0]);
+
+    // Tokens already split off are still handed out, and no more are read
+    assertTextToken("text", tokenizer.next());
+    int count = 0;
+    while (tokenizer.hasNext()) {
+      tokenizer.next();
+      count++;
+    }
+    assertTrue(count < 5000 * 4);
+  }
+
   private void assertOpenNode(String expectedName, XmlTokenizer actual) {
     token = tokenizer.next();
     assertEquals(XmlTokenType.OPEN_BRACKET, token.getType());
@@ -0,0 +1,39 @@
+package org.zachtaylor.jnodalxml;
+
+import junit.framework.TestCase;
+
+public class XmlValidatorTest extends TestCase {
+  public void testWellFormed() {
+    assertTrue(XmlValidator.check(XmlParserTest.DOCUMENT).isWellFormed());
+    assertTrue(XmlValidator.check("<a k=\"x > y\" j = \"\"><![CDATA[<b>]]><!-- c --></a >\n<b/>").isWellFormed());
+  }
+
+  public void testErrorPosition() {
+    XmlValidationResult result = XmlValidator.check("<root>\n  <item></itme>\n</root>");
+
+    assertFalse(result.isWellFormed());
+    assertEquals(2, result.getLine());
+    assertEquals(15, result.getColumn());
+    assertEquals(21, result.getOffset());
+    assertEquals("Closing tag itme does not match item", result.getMessage());
+  }
+
+  public void testErrors() {
+    assertError("Duplicate attribute k", "<a k=\"1\" k=\"2\"/>");
+    assertError("Attribute value must be quoted with '\"'", "<a k=1/>");
+    assertError("Expected whitespace between attributes", "<a k=\"1\"j=\"2\"/>");
+    assertError("Attribute value cannot contain '<'", "<a k=\"<\"/>");
+    assertError("Element b is not closed", "<a></a><b>");
+    assertError("Text outside of any element", "<a/>text");
+    assertError("Closing tag a has no start tag", "</a>");
+    assertError("Unterminated comment", "<a><!-- </a>");
+    assertError("Unexpected end of input inside a tag", "<a k=\"v");
+  }
+
+  private static void assertError(String message, String document) {
+    XmlValidationResult result = XmlValidator.check(document);
+
+    assertFalse(document, result.isWellFormed());
+    assertEquals(document, message, result.getMessage());
+  }
+}